@@ -0,0 +1,170 @@
+package com.example.android.pets;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.MenuItem;
+import android.widget.EditText;
+import android.widget.PopupMenu;
+
+import com.example.android.pets.data.MainThreadDbAccessDetector;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link MainThreadDbAccessDetector} catches the database writes the activities
+ * make on the main thread. In {@link MainThreadDbAccessDetector#MODE_THROW} the menu options that
+ * insert pets must fail before the provider writes anything; in
+ * {@link MainThreadDbAccessDetector#MODE_RECORD} an insert made on the main thread must be
+ * recorded.
+ *
+ * Nothing reaches the database of the app, except the pet of the recording test, which has a
+ * name no real pet has and is removed afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MainThreadDbAccessTest {
+
+    private static final String NAME = "MainThreadDbAccessTest";
+
+    /** How the detector reports an access to the pets */
+    private static final String PETS_INSERT = "insert " + PetEntry.CONTENT_URI;
+
+    private Instrumentation mInstrumentation;
+    private ContentResolver mResolver;
+    private int mPreviousMode;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mResolver = mInstrumentation.getTargetContext().getContentResolver();
+        mPreviousMode = MainThreadDbAccessDetector.getMode();
+        MainThreadDbAccessDetector.clear();
+    }
+
+    @After
+    public void tearDown() {
+        MainThreadDbAccessDetector.setMode(mPreviousMode);
+        MainThreadDbAccessDetector.clear();
+        mResolver.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_NAME + "=?",
+                new String[] { NAME });
+    }
+
+    @Test
+    public void catalogDummyDataIsCaught() {
+        Activity catalog = launch(CatalogActivity.class);
+        try {
+            long pets = countPets(null, null);
+            MainThreadDbAccessDetector.setMode(MainThreadDbAccessDetector.MODE_THROW);
+            assertSelectionThrows(catalog, R.id.action_insert_dummy_data);
+            assertEquals("Pets inserted despite the detector", pets, countPets(null, null));
+        } finally {
+            catalog.finish();
+        }
+    }
+
+    @Test
+    public void editorSaveIsCaught() {
+        final Activity editor = launch(EditorActivity.class);
+        try {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    ((EditText) editor.findViewById(R.id.edit_pet_name)).setText(NAME);
+                    ((EditText) editor.findViewById(R.id.edit_pet_breed)).setText("Beagle");
+                    ((EditText) editor.findViewById(R.id.edit_pet_weight)).setText("10");
+                }
+            });
+            MainThreadDbAccessDetector.setMode(MainThreadDbAccessDetector.MODE_THROW);
+            assertSelectionThrows(editor, R.id.action_save);
+            assertEquals("Pet saved despite the detector", 0, countTestPets());
+        } finally {
+            editor.finish();
+        }
+    }
+
+    @Test
+    public void mainThreadInsertIsRecorded() {
+        MainThreadDbAccessDetector.setMode(MainThreadDbAccessDetector.MODE_RECORD);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(PetEntry.COLUMN_PET_NAME, NAME);
+                values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+                mResolver.insert(PetEntry.CONTENT_URI, values);
+            }
+        });
+        // A consulta desta thread não é da thread principal, e não deve ser registrada
+        assertEquals(1, countTestPets());
+
+        MainThreadDbAccessDetector.Access insert = null;
+        for (MainThreadDbAccessDetector.Access access : MainThreadDbAccessDetector.getAccesses()) {
+            assertTrue(access.toString(), !access.operation.startsWith("query"));
+            if (access.operation.equals(PETS_INSERT)) {
+                assertNull("Insert recorded twice", insert);
+                insert = access;
+            }
+        }
+        assertNotNull("The main thread insert was not recorded", insert);
+        assertTrue(insert.toString(), insert.durationMillis >= 0);
+        assertNotNull(insert.stackTrace);
+    }
+
+    private Activity launch(Class<? extends Activity> activity) {
+        Intent intent = new Intent(mInstrumentation.getTargetContext(), activity)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return mInstrumentation.startActivitySync(intent);
+    }
+
+    /**
+     * Selects the option of the menu of the activity on the main thread, and checks that the
+     * detector stops it at the insert of a pet.
+     */
+    private void assertSelectionThrows(final Activity activity, final int itemId) {
+        final RuntimeException[] thrown = new RuntimeException[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // O menu da própria activity, num popup que nunca é mostrado
+                PopupMenu popup = new PopupMenu(activity, activity.getWindow().getDecorView());
+                activity.onCreateOptionsMenu(popup.getMenu());
+                MenuItem item = popup.getMenu().findItem(itemId);
+                try {
+                    activity.onOptionsItemSelected(item);
+                } catch (IllegalStateException e) {
+                    thrown[0] = e;
+                }
+            }
+        });
+        assertNotNull("The main thread insert was not caught", thrown[0]);
+        assertTrue(thrown[0].getMessage(), thrown[0].getMessage().endsWith(PETS_INSERT));
+    }
+
+    private long countPets(String selection, String[] selectionArgs) {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                selection, selectionArgs, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long countTestPets() {
+        return countPets(PetEntry.COLUMN_PET_NAME + "=?", new String[] { NAME });
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.MaintenanceEntry;
+import com.example.android.pets.debug.PetDatasetGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link PetDbMaintenance} on a scratch database, never the shelter database, and checks
+ * what its log records for a run that has the time it needs and for one whose budget runs out
+ * while the state of the database is first measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetDbMaintenanceTest {
+
+    private static final String DATABASE = "maintenance-test.db";
+
+    /** Enough pets that the query probes can't all run within {@link #TINY_BUDGET_MILLIS} */
+    private static final int PET_COUNT = 100000;
+
+    private static final long TINY_BUDGET_MILLIS = 1;
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+    private PetDbMaintenance mMaintenance;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE);
+        mDbHelper = new PetDbHelper(mContext, DATABASE);
+        SqlitePetStore store = new SqlitePetStore(mDbHelper);
+        PetDatasetGenerator generator = new PetDatasetGenerator(42);
+        for (int loaded = 0; loaded < PET_COUNT; loaded += PetDatasetGenerator.BATCH_SIZE) {
+            store.insertAll(generator.next(
+                    Math.min(PetDatasetGenerator.BATCH_SIZE, PET_COUNT - loaded)));
+        }
+        mMaintenance = new PetDbMaintenance(mDbHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE);
+    }
+
+    @Test
+    public void runWithinItsBudgetCompletes() {
+        PetDbMaintenance.Result result = mMaintenance.run(
+                PetDbMaintenance.DEFAULT_BUDGET_MILLIS,
+                PetDbMaintenance.DEFAULT_DOWNSAMPLE_AGE_SECONDS);
+
+        assertTrue(result.complete);
+        assertTrue(result.tasksDone > 0);
+        Cursor log = queryLog();
+        try {
+            while (log.moveToNext()) {
+                assertNotEquals("Task " + log.getString(0), MaintenanceEntry.OUTCOME_CANCELLED,
+                        log.getInt(1));
+                assertNotEquals(PetDbMaintenance.NOT_MEASURED, log.getLong(2));
+                assertNotEquals(PetDbMaintenance.NOT_MEASURED, log.getLong(3));
+            }
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void runOutOfTimeCancelsEveryTask() {
+        PetDbMaintenance.Result result = mMaintenance.run(TINY_BUDGET_MILLIS,
+                PetDbMaintenance.DEFAULT_DOWNSAMPLE_AGE_SECONDS);
+
+        assertFalse(result.complete);
+        assertEquals(0, result.tasksDone);
+        Cursor log = queryLog();
+        try {
+            assertTrue("Nothing logged", log.getCount() > 0);
+            while (log.moveToNext()) {
+                assertEquals("Task " + log.getString(0), MaintenanceEntry.OUTCOME_CANCELLED,
+                        log.getInt(1));
+                // O orçamento venceu durante as consultas da primeira medida, que pararam ali
+                assertEquals(PetDbMaintenance.NOT_MEASURED, log.getLong(2));
+                assertEquals(PetDbMaintenance.NOT_MEASURED, log.getLong(3));
+            }
+        } finally {
+            log.close();
+        }
+    }
+
+    /** Task, outcome and query times of every logged task, in order */
+    private Cursor queryLog() {
+        return mDbHelper.getReadableDatabase().query(MaintenanceEntry.TABLE_NAME,
+                new String[] {
+                        MaintenanceEntry.COLUMN_TASK,
+                        MaintenanceEntry.COLUMN_OUTCOME,
+                        MaintenanceEntry.COLUMN_QUERY_MICROS_BEFORE,
+                        MaintenanceEntry.COLUMN_QUERY_MICROS_AFTER },
+                null, null, null, null, MaintenanceEntry._ID);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the writes of {@link PetProvider} touch exactly the rows they select. The pets are
+ * written to the database of the app, so each test only touches the ones it inserted, which have
+ * a name no real pet has, and removes them afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderTest {
+
+    private static final String NAME = "PetProviderTest";
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        removeTestPets();
+    }
+
+    @After
+    public void tearDown() {
+        removeTestPets();
+    }
+
+    @Test
+    public void updatePetIdTouchesOneRow() {
+        Uri first = insertPet("Beagle", 10);
+        insertPet("Beagle", 10);
+        insertPet(null, 10);
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 11);
+        assertEquals(1, mResolver.update(first, values, null, null));
+        assertEquals(1, countTestPets(PetEntry.COLUMN_PET_WEIGHT + "=11", null));
+    }
+
+    @Test
+    public void deletePetIdTouchesOneRow() {
+        Uri first = insertPet("Beagle", 10);
+        insertPet("Beagle", 10);
+        insertPet(null, 10);
+
+        assertEquals(1, mResolver.delete(first, null, null));
+        assertEquals(2, countTestPets(null, null));
+    }
+
+    @Test
+    public void writesWithoutBreedTouchOnlySelectedRows() {
+        long first = ContentUris.parseId(insertPet("Beagle", 10));
+        long second = ContentUris.parseId(insertPet(null, 10));
+        insertPet("Beagle", 10);
+
+        // Uma seleção com argumentos que não menciona a raça vai direto para a tabela
+        String selection = PetEntry._ID + " IN (?,?)";
+        String[] selectionArgs = { String.valueOf(first), String.valueOf(second) };
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 11);
+        assertEquals(2, mResolver.update(PetEntry.CONTENT_URI, values, selection, selectionArgs));
+        assertEquals(2, countTestPets(PetEntry.COLUMN_PET_WEIGHT + "=11", null));
+
+        assertEquals(2, mResolver.delete(PetEntry.CONTENT_URI, selection, selectionArgs));
+        assertEquals(1, countTestPets(null, null));
+    }
+
+    @Test
+    public void writesOnBreedTouchOnlySelectedRows() {
+        insertPet("Beagle", 10);
+        insertPet("Poodle", 10);
+        insertPet(null, 10);
+
+        String selection = PetEntry.COLUMN_PET_BREED + "=?";
+        String[] selectionArgs = { "Beagle" };
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 11);
+        assertEquals(1, countTestPets(selection, selectionArgs));
+        assertEquals(1, mResolver.update(PetEntry.CONTENT_URI, values,
+                testSelection(selection), testArgs(selectionArgs)));
+        assertEquals(1, mResolver.delete(PetEntry.CONTENT_URI,
+                testSelection(selection), testArgs(selectionArgs)));
+        assertEquals(2, countTestPets(null, null));
+    }
+
+    private Uri insertPet(String breed, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, NAME);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return mResolver.insert(PetEntry.CONTENT_URI, values);
+    }
+
+    private int countTestPets(String selection, String[] selectionArgs) {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                testSelection(selection), testArgs(selectionArgs), null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void removeTestPets() {
+        mResolver.delete(PetEntry.CONTENT_URI, testSelection(null), testArgs(null));
+    }
+
+    /** Restricts the selection to the pets inserted by the tests */
+    private static String testSelection(String selection) {
+        String byName = PetEntry.COLUMN_PET_NAME + "=?";
+        return selection == null ? byName : byName + " AND (" + selection + ")";
+    }
+
+    private static String[] testArgs(String[] selectionArgs) {
+        int length = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[length + 1];
+        args[0] = NAME;
+        if (length > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, length);
+        }
+        return args;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.pets.debug;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.ResultReceiver;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.pets.debug.HarnessAsserts.assertThat;
+import static com.example.android.pets.debug.HarnessAsserts.assertValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads every pet through a cursor and through the packed file with the {@link BulkReadHarness},
+ * both from the process of the provider, where only the copies cost, and from the separate
+ * process of the {@link BulkReadService}, where both paths cross Binder. Fails if any read
+ * disagrees with the others; the times are logged.
+ *
+ * The pets are written to the database of the app, so the test adds pets with a name no real pet
+ * has, and removes them afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkReadTest {
+
+    private static final String NAME = "BulkReadTest";
+
+    /** Number of pets added, so there is something to read */
+    private static final int PET_COUNT = 2000;
+
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mResolver = mContext.getContentResolver();
+        ContentValues[] pets = new ContentValues[PET_COUNT];
+        for (int i = 0; i < PET_COUNT; i++) {
+            pets[i] = new ContentValues();
+            pets[i].put(PetEntry.COLUMN_PET_NAME, NAME);
+            pets[i].put(PetEntry.COLUMN_PET_BREED, "Breed " + (i % 40));
+            pets[i].put(PetEntry.COLUMN_PET_GENDER, i % 3);
+            pets[i].put(PetEntry.COLUMN_PET_WEIGHT, i % 60);
+        }
+        mResolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_NAME + "=?",
+                new String[] { NAME });
+    }
+
+    @Test
+    public void bothPathsReadTheSamePetsInAndAcrossProcesses()
+            throws IOException, InterruptedException {
+        BulkReadHarness.Report local = BulkReadHarness.run(mResolver);
+        HarnessAsserts.log(getClass(), "provider process", local);
+        assertThat("Fewer rows than the pets added", local.cursorRows >= PET_COUNT, local);
+        assertSamePets(local, local);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] code = new int[1];
+        final Bundle[] result = new Bundle[1];
+        // Sem Handler, a resposta chega numa thread do Binder
+        ResultReceiver receiver = new ResultReceiver(null) {
+            @Override
+            protected void onReceiveResult(int resultCode, Bundle resultData) {
+                code[0] = resultCode;
+                result[0] = resultData;
+                done.countDown();
+            }
+        };
+        mContext.startService(new Intent(mContext, BulkReadService.class)
+                .putExtra(BulkReadService.EXTRA_RECEIVER, receiver));
+        assertTrue("No report from the bulk read service",
+                done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals(result[0].getString(BulkReadService.KEY_ERROR),
+                BulkReadService.RESULT_DONE, code[0]);
+        assertNotEquals("The service ran in the process of the provider",
+                Process.myPid(), result[0].getInt(BulkReadService.KEY_PID));
+        BulkReadHarness.Report remote = BulkReadHarness.Report.fromBundle(result[0]);
+        HarnessAsserts.log(getClass(), "separate process", remote);
+        assertSamePets(local, remote);
+    }
+
+    private static void assertSamePets(BulkReadHarness.Report expected,
+                                       BulkReadHarness.Report actual) {
+        assertValue("cursor rows", expected.cursorRows, actual.cursorRows, actual);
+        assertValue("packed rows", expected.cursorRows, actual.packedRows, actual);
+        assertValue("cursor checksum", expected.cursorChecksum, actual.cursorChecksum, actual);
+        assertValue("packed checksum", expected.cursorChecksum, actual.packedChecksum, actual);
+    }
+}
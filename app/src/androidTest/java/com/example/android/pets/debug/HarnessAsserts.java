@@ -0,0 +1,57 @@
+package com.example.android.pets.debug;
+
+import android.util.Log;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Logging and assertions shared by the tests that run a harness of this package. Every report is
+ * logged under the name of its test, for the times, and a failed check quotes the whole report,
+ * which holds the numbers needed to understand it.
+ */
+final class HarnessAsserts {
+
+    /** Number of problems quoted in a failure; the report tells how many there were */
+    private static final int MAX_PROBLEMS_QUOTED = 5;
+
+    private HarnessAsserts() {}
+
+    /**
+     * Logs the report under the name of the test, after the label.
+     */
+    static void log(Class<?> test, String label, Object report) {
+        Log.i(test.getSimpleName(), label + ": " + report);
+    }
+
+    /**
+     * Fails unless the list of problems of the kind described is empty.
+     */
+    static void assertNone(String what, List<String> problems, Object report) {
+        if (problems.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder()
+                .append(problems.size()).append(' ').append(what).append(":\n");
+        for (String problem : problems.subList(0, Math.min(problems.size(), MAX_PROBLEMS_QUOTED))) {
+            message.append("  ").append(problem).append('\n');
+        }
+        throw new AssertionError(message.append(report).toString());
+    }
+
+    /**
+     * Fails unless the condition described holds.
+     */
+    static void assertThat(String what, boolean condition, Object report) {
+        assertTrue(what + "\n" + report, condition);
+    }
+
+    /**
+     * Fails unless the value described is the expected one.
+     */
+    static void assertValue(String what, long expected, long actual, Object report) {
+        assertEquals(what + "\n" + report, expected, actual);
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.android.pets.debug;
+
+import com.example.android.pets.data.SyncProtocol;
+import com.example.android.pets.data.SyncProtocol.Request;
+import com.example.android.pets.data.SyncProtocol.Response;
+import com.example.android.pets.data.SyncProtocol.Row;
+import com.example.android.pets.data.SyncTransport;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-process stand-in for the shelter server, to run the sync end to end without a network in
+ * {@link SyncTest}. It keeps the pets in memory and follows the rules of {@link SyncProtocol}.
+ *
+ * It can also simulate an unreliable link: {@link #failExchange} makes a given request fail,
+ * either before the server sees it or after it has been applied, when only the answer is lost.
+ * {@link #beforeNextPull} lets a device change pets between the push and the pull of a sync.
+ */
+public final class LocalSyncServer implements SyncTransport {
+
+    /** Pet as kept by the server */
+    private static final class ServerRow {
+        final Row row = new Row();
+        /** Device that wrote the current version, and the version its change was based on */
+        long writer;
+        long writerBase;
+    }
+
+    private final Map<Long, ServerRow> mRows = new HashMap<Long, ServerRow>();
+    /** The pets by their current version, to page through changes */
+    private final TreeMap<Long, ServerRow> mByVersion = new TreeMap<Long, ServerRow>();
+    private long mVersion;
+
+    private int mExchanges;
+    private int mFailingExchange = -1;
+    private boolean mFailAfterApplying;
+    private Runnable mBeforePull;
+    private long mBytesIn;
+    private long mBytesOut;
+
+    /**
+     * Makes the exchange with the given number (counted from 1 since the server was created)
+     * fail with an {@link IOException}.
+     *
+     * @param afterApplying if true, the request is applied and only its answer is lost
+     */
+    public synchronized void failExchange(int exchange, boolean afterApplying) {
+        mFailingExchange = exchange;
+        mFailAfterApplying = afterApplying;
+    }
+
+    /**
+     * Runs the action once, when the next pull request arrives and before it is answered.
+     */
+    public synchronized void beforeNextPull(Runnable action) {
+        mBeforePull = action;
+    }
+
+    public synchronized int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Bytes received from the devices, compressed */
+    public synchronized long getBytesIn() {
+        return mBytesIn;
+    }
+
+    /** Bytes sent to the devices, compressed */
+    public synchronized long getBytesOut() {
+        return mBytesOut;
+    }
+
+    /** Number of pets on the server, not counting deleted ones */
+    public synchronized int getPetCount() {
+        int count = 0;
+        for (ServerRow pet : mRows.values()) {
+            if (!pet.row.deleted) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized byte[] exchange(byte[] payload) throws IOException {
+        mExchanges++;
+        boolean fail = mExchanges == mFailingExchange;
+        if (fail && !mFailAfterApplying) {
+            throw new IOException("Simulated loss of request " + mExchanges);
+        }
+        mBytesIn += payload.length;
+
+        Request request = SyncProtocol.decodeRequest(payload);
+        if (request.type == SyncProtocol.PULL && mBeforePull != null) {
+            Runnable action = mBeforePull;
+            mBeforePull = null;
+            action.run();
+        }
+        Response response = request.type == SyncProtocol.PUSH ? push(request) : pull(request);
+        byte[] answer = SyncProtocol.encode(response, request.type);
+
+        if (fail) {
+            throw new IOException("Simulated loss of the answer to request " + mExchanges);
+        }
+        mBytesOut += answer.length;
+        return answer;
+    }
+
+    private Response push(Request request) {
+        Response response = new Response();
+        response.accepted = new boolean[request.rows.size()];
+        for (int i = 0; i < request.rows.size(); i++) {
+            Row pushed = request.rows.get(i);
+            ServerRow current = mRows.get(pushed.syncId);
+            boolean accepted = current == null
+                    || current.row.version == pushed.version
+                    // A resposta de um envio anterior deste dispositivo se perdeu
+                    || (current.writer == request.deviceId && current.writerBase == pushed.version);
+            response.accepted[i] = accepted;
+            if (!accepted) {
+                response.rows.add(current.row);
+                continue;
+            }
+            if (current == null) {
+                current = new ServerRow();
+                mRows.put(pushed.syncId, current);
+            } else {
+                mByVersion.remove(current.row.version);
+            }
+            copy(pushed, current.row);
+            current.row.version = ++mVersion;
+            current.writer = request.deviceId;
+            current.writerBase = pushed.version;
+            mByVersion.put(current.row.version, current);
+
+            Row ack = new Row();
+            ack.syncId = pushed.syncId;
+            ack.version = current.row.version;
+            response.rows.add(ack);
+        }
+        return response;
+    }
+
+    private Response pull(Request request) {
+        Response response = new Response();
+        response.cursor = request.sinceVersion;
+        Iterator<ServerRow> changes =
+                mByVersion.tailMap(request.sinceVersion, false).values().iterator();
+        while (changes.hasNext() && response.rows.size() < request.limit) {
+            ServerRow change = changes.next();
+            response.cursor = change.row.version;
+            // O dispositivo já tem as próprias mudanças
+            if (change.writer != request.deviceId) {
+                response.rows.add(change.row);
+            }
+        }
+        response.hasMore = changes.hasNext();
+        return response;
+    }
+
+    private static void copy(Row from, Row to) {
+        to.syncId = from.syncId;
+        to.deleted = from.deleted;
+        to.name = from.name;
+        to.breed = from.breed;
+        to.gender = from.gender;
+        to.weight = from.weight;
+    }
+}
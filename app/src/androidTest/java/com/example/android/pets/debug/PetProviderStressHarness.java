@@ -0,0 +1,514 @@
+package com.example.android.pets.debug;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.WeightEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives {@link com.example.android.pets.data.PetProvider} from many reader and writer threads at
+ * once and reports throughput, latency percentiles, locked retries, errors and invariant
+ * violations.
+ *
+ * Every writer owns the rows it inserts and is the only one updating them, each update adding 1 to
+ * the weight. At the end the weight of every row must equal the number of updates its writer made
+ * (otherwise an update was lost), the rows must be exactly the ones the writers believe exist, and
+ * the weight history must hold one reading per weight change.
+ *
+ * Rows are tagged with a per-run name prefix, so the harness can run against a database that
+ * already holds real pets. Run it off the main thread; {@link PetProviderStressTest} runs it
+ * with the default mix.
+ */
+public final class PetProviderStressHarness {
+
+    /** Kinds of operation, used to index the arrays of the report */
+    public static final int OP_READ = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_UPDATE = 2;
+    public static final int OP_DELETE = 3;
+    private static final String[] OP_NAMES = { "read", "insert", "update", "delete" };
+
+    /** Maximum number of error messages kept in the report */
+    private static final int MAX_ERRORS_KEPT = 20;
+
+    /** Maximum number of rows whose weight history is checked at the end of a run */
+    private static final int MAX_HISTORY_CHECKS = 200;
+
+    private static final String[] FULL_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /**
+     * Parameters of a run. The write mix percentages should add up to 100.
+     */
+    public static final class Config {
+        /** Number of threads that only query */
+        public int readers = 4;
+        /** Number of threads that insert, update and delete */
+        public int writers = 2;
+        /** Duration of the run */
+        public long durationMillis = 10000;
+        /** Share of writer operations that are inserts, updates and deletes */
+        public int insertPercent = 30;
+        public int updatePercent = 60;
+        public int deletePercent = 10;
+        /** Share of reader operations that query the whole catalog instead of the run's rows */
+        public int catalogReadPercent = 50;
+        /** Seed of the random operation choices, so a mix can be replayed */
+        public long seed = 42;
+        /** Whether the rows of the run are deleted at the end */
+        public boolean cleanUp = true;
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Report {
+        public long elapsedMillis;
+        public long[] operations = new long[OP_NAMES.length];
+        public long[][] latencyPercentilesMicros = new long[OP_NAMES.length][];
+        /**
+         * Number of attempts that failed because the database was locked and were retried. The
+         * time spent waiting for the connection or a transaction inside the provider can't be
+         * seen through a ContentResolver; it is part of the latencies.
+         */
+        public long lockedRetries;
+        public long errorCount;
+        /** The first errors, of the {@link #errorCount} of the run */
+        public final List<String> errors = new ArrayList<String>();
+        /** Rows whose weight is not the number of updates their writer made */
+        public final List<String> lostUpdates = new ArrayList<String>();
+        /** Rows a writer inserted and never deleted, but which are gone */
+        public final List<String> missingRows = new ArrayList<String>();
+        /** Rows of the run that no writer believes exist */
+        public final List<String> unexpectedRows = new ArrayList<String>();
+        /** Rows whose weight history doesn't hold one reading per weight change */
+        public final List<String> historyMismatches = new ArrayList<String>();
+
+        /** Percentiles reported in {@link #latencyPercentilesMicros}, in that order */
+        public static final double[] PERCENTILES = { 50, 95, 99, 99.9, 100 };
+        private static final String[] PERCENTILE_LABELS = { "p50", "p95", "p99", "p999", "max" };
+
+        public long totalOperations() {
+            long total = 0;
+            for (long count : operations) {
+                total += count;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("elapsed=").append(elapsedMillis).append("ms")
+                    .append(" throughput=")
+                    .append(elapsedMillis == 0 ? 0 : totalOperations() * 1000 / elapsedMillis)
+                    .append("ops/s\n");
+            for (int op = 0; op < OP_NAMES.length; op++) {
+                sb.append(OP_NAMES[op]).append(": n=").append(operations[op]);
+                long[] percentiles = latencyPercentilesMicros[op];
+                for (int i = 0; percentiles != null && i < percentiles.length; i++) {
+                    sb.append(' ').append(PERCENTILE_LABELS[i]).append('=')
+                            .append(percentiles[i]).append("us");
+                }
+                sb.append('\n');
+            }
+            sb.append("lockedRetries=").append(lockedRetries)
+                    .append(" errors=").append(errorCount)
+                    .append(" lostUpdates=").append(lostUpdates.size())
+                    .append(" missingRows=").append(missingRows.size())
+                    .append(" unexpectedRows=").append(unexpectedRows.size())
+                    .append(" historyMismatches=").append(historyMismatches.size());
+            return sb.toString();
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Config mConfig;
+
+    /** Name prefix of the rows of this run */
+    private final String mRunTag;
+
+    private final AtomicLong mLockedRetries = new AtomicLong();
+    private final AtomicLong mErrorCount = new AtomicLong();
+    private final List<String> mErrors = new ArrayList<String>();
+
+    public PetProviderStressHarness(ContentResolver resolver, Config config) {
+        mResolver = resolver;
+        mConfig = config;
+        mRunTag = "stress-" + Long.toHexString(System.nanoTime()) + "-";
+    }
+
+    /**
+     * Runs the configured mix for the configured duration and checks the invariants.
+     */
+    public Report run() throws InterruptedException {
+        final long deadline = SystemClock.uptimeMillis() + mConfig.durationMillis;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < mConfig.writers; i++) {
+            workers.add(new Writer(i, mConfig.seed + i, start, deadline));
+        }
+        for (int i = 0; i < mConfig.readers; i++) {
+            workers.add(new Reader(mConfig.seed + 1000 + i, start, deadline));
+        }
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (Worker worker : workers) {
+            Thread thread = new Thread(worker, "PetStress-" + threads.size());
+            threads.add(thread);
+            thread.start();
+        }
+        long startTime = SystemClock.uptimeMillis();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Report report = new Report();
+        report.elapsedMillis = SystemClock.uptimeMillis() - startTime;
+        for (int op = 0; op < OP_NAMES.length; op++) {
+            LatencyLog merged = new LatencyLog();
+            for (Worker worker : workers) {
+                merged.addAll(worker.mLatencies[op]);
+            }
+            report.operations[op] = merged.size();
+            report.latencyPercentilesMicros[op] = merged.percentilesMicros(Report.PERCENTILES);
+        }
+
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (Worker worker : workers) {
+            if (worker instanceof Writer) {
+                expected.putAll(((Writer) worker).mOwnRows);
+            }
+        }
+        checkInvariants(expected, report);
+        if (mConfig.cleanUp) {
+            mResolver.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_NAME + " LIKE ?",
+                    new String[] { mRunTag + "%" });
+        }
+
+        report.lockedRetries = mLockedRetries.get();
+        report.errorCount = mErrorCount.get();
+        synchronized (mErrors) {
+            report.errors.addAll(mErrors);
+        }
+        return report;
+    }
+
+    /**
+     * Compares the rows of the run and their weight history to what the writers expect.
+     */
+    private void checkInvariants(Map<Long, Integer> expected, Report report) {
+        Map<Long, Integer> actual = new HashMap<Long, Integer>();
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, FULL_PROJECTION,
+                PetEntry.COLUMN_PET_NAME + " LIKE ?", new String[] { mRunTag + "%" }, null);
+        try {
+            int idColumn = cursor.getColumnIndexOrThrow(PetEntry._ID);
+            int weightColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT);
+            while (cursor.moveToNext()) {
+                actual.put(cursor.getLong(idColumn), cursor.getInt(weightColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int historyChecks = 0;
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            Integer weight = actual.get(entry.getKey());
+            if (weight == null) {
+                report.missingRows.add("row " + entry.getKey());
+                continue;
+            }
+            if (!weight.equals(entry.getValue())) {
+                report.lostUpdates.add("row " + entry.getKey() + ": weight " + weight
+                        + " != expected " + entry.getValue());
+            }
+            if (historyChecks++ < MAX_HISTORY_CHECKS) {
+                // One reading for the insert, plus one per increment
+                Cursor history = mResolver.query(WeightEntry.buildWeightsUri(entry.getKey()),
+                        null, null, null, null);
+                try {
+                    if (history.getCount() != entry.getValue() + 1) {
+                        report.historyMismatches.add("row " + entry.getKey() + ": "
+                                + history.getCount() + " weight readings, expected "
+                                + (entry.getValue() + 1));
+                    }
+                } finally {
+                    history.close();
+                }
+            }
+        }
+        for (Long id : actual.keySet()) {
+            if (!expected.containsKey(id)) {
+                report.unexpectedRows.add("row " + id);
+            }
+        }
+    }
+
+    private void recordError(Exception e) {
+        mErrorCount.incrementAndGet();
+        synchronized (mErrors) {
+            if (mErrors.size() < MAX_ERRORS_KEPT) {
+                mErrors.add(e.toString());
+            }
+        }
+    }
+
+    /**
+     * A thread of the run. Subclasses perform one operation per call of {@link #step()}.
+     */
+    private abstract class Worker implements Runnable {
+        final Random mRandom;
+        final LatencyLog[] mLatencies = new LatencyLog[OP_NAMES.length];
+        private final CountDownLatch mStart;
+        private final long mDeadline;
+
+        Worker(long seed, CountDownLatch start, long deadline) {
+            mRandom = new Random(seed);
+            mStart = start;
+            mDeadline = deadline;
+            for (int op = 0; op < mLatencies.length; op++) {
+                mLatencies[op] = new LatencyLog();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            while (SystemClock.uptimeMillis() < mDeadline) {
+                try {
+                    step();
+                } catch (RuntimeException e) {
+                    recordError(e);
+                }
+            }
+        }
+
+        abstract void step();
+
+        /**
+         * Runs the operation, retrying while the database is locked, and records its latency
+         * (including the retries) under the given kind.
+         */
+        <T> T timed(int op, Operation<T> operation) {
+            long start = System.nanoTime();
+            long backoffMillis = 1;
+            while (true) {
+                try {
+                    T result = operation.perform();
+                    mLatencies[op].add(System.nanoTime() - start);
+                    return result;
+                } catch (SQLiteDatabaseLockedException e) {
+                    mLockedRetries.incrementAndGet();
+                    SystemClock.sleep(backoffMillis);
+                    backoffMillis = Math.min(backoffMillis * 2, 64);
+                }
+            }
+        }
+    }
+
+    private interface Operation<T> {
+        T perform();
+    }
+
+    /**
+     * Queries either the whole catalog or the rows of the run, and checks every row it sees.
+     */
+    private final class Reader extends Worker {
+
+        Reader(long seed, CountDownLatch start, long deadline) {
+            super(seed, start, deadline);
+        }
+
+        @Override
+        void step() {
+            final boolean catalog = mRandom.nextInt(100) < mConfig.catalogReadPercent;
+            timed(OP_READ, new Operation<Void>() {
+                @Override
+                public Void perform() {
+                    Cursor cursor;
+                    if (catalog) {
+                        // As colunas da tela do catálogo, para ler pelo mesmo caminho que a UI
+                        cursor = mResolver.query(PetEntry.CONTENT_URI,
+                                PetEntry.CATALOG_PROJECTION, null, null, null);
+                    } else {
+                        cursor = mResolver.query(PetEntry.CONTENT_URI, FULL_PROJECTION,
+                                PetEntry.COLUMN_PET_NAME + " LIKE ?",
+                                new String[] { mRunTag + "%" }, null);
+                    }
+                    try {
+                        int nameColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+                        while (cursor.moveToNext()) {
+                            if (cursor.isNull(nameColumn)) {
+                                throw new IllegalStateException("Pet without a name");
+                            }
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Inserts, increments and deletes its own rows, remembering the weight each should have.
+     */
+    private final class Writer extends Worker {
+        /** Weight each live row of this writer should have */
+        final Map<Long, Integer> mOwnRows = new HashMap<Long, Integer>();
+        private final List<Long> mIds = new ArrayList<Long>();
+        private final int mIndex;
+        private int mSequence;
+
+        Writer(int index, long seed, CountDownLatch start, long deadline) {
+            super(seed, start, deadline);
+            mIndex = index;
+        }
+
+        @Override
+        void step() {
+            int roll = mRandom.nextInt(100);
+            if (mIds.isEmpty() || roll < mConfig.insertPercent) {
+                insert();
+            } else if (roll < mConfig.insertPercent + mConfig.updatePercent) {
+                increment(mIds.get(mRandom.nextInt(mIds.size())));
+            } else {
+                delete(mRandom.nextInt(mIds.size()));
+            }
+        }
+
+        private void insert() {
+            final ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, mRunTag + mIndex + "-" + mSequence++);
+            values.put(PetEntry.COLUMN_PET_BREED, "Stress");
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, 0);
+            Uri uri = timed(OP_INSERT, new Operation<Uri>() {
+                @Override
+                public Uri perform() {
+                    return mResolver.insert(PetEntry.CONTENT_URI, values);
+                }
+            });
+            if (uri == null) {
+                throw new IllegalStateException("Insert returned no URI");
+            }
+            long id = ContentUris.parseId(uri);
+            mIds.add(id);
+            mOwnRows.put(id, 0);
+        }
+
+        /**
+         * Reads the weight back from the provider and writes it plus one, so a lost or
+         * misapplied update shows up in the final weights.
+         */
+        private void increment(long id) {
+            final Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+            final int expected = mOwnRows.get(id);
+            int updated = timed(OP_UPDATE, new Operation<Integer>() {
+                @Override
+                public Integer perform() {
+                    Cursor cursor = mResolver.query(uri,
+                            new String[] { PetEntry.COLUMN_PET_WEIGHT }, null, null, null);
+                    int weight;
+                    try {
+                        if (!cursor.moveToFirst()) {
+                            return 0;
+                        }
+                        weight = cursor.getInt(0);
+                    } finally {
+                        cursor.close();
+                    }
+                    if (weight != expected) {
+                        throw new IllegalStateException("Read weight " + weight + " of row "
+                                + uri + ", expected " + expected);
+                    }
+                    ContentValues values = new ContentValues();
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, weight + 1);
+                    return mResolver.update(uri, values, null, null);
+                }
+            });
+            if (updated != 1) {
+                throw new IllegalStateException("Update of " + uri + " changed " + updated + " rows");
+            }
+            mOwnRows.put(id, expected + 1);
+        }
+
+        private void delete(int index) {
+            final Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, mIds.get(index));
+            int deleted = timed(OP_DELETE, new Operation<Integer>() {
+                @Override
+                public Integer perform() {
+                    return mResolver.delete(uri, null, null);
+                }
+            });
+            if (deleted != 1) {
+                throw new IllegalStateException("Delete of " + uri + " removed " + deleted + " rows");
+            }
+            mOwnRows.remove(mIds.remove(index));
+        }
+    }
+
+    /**
+     * Growable array of latencies, in nanoseconds.
+     */
+    private static final class LatencyLog {
+        private long[] mValues = new long[1024];
+        private int mSize;
+
+        void add(long nanos) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = nanos;
+        }
+
+        void addAll(LatencyLog other) {
+            for (int i = 0; i < other.mSize; i++) {
+                add(other.mValues[i]);
+            }
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long[] percentilesMicros(double[] percentiles) {
+            if (mSize == 0) {
+                return null;
+            }
+            long[] sorted = Arrays.copyOf(mValues, mSize);
+            Arrays.sort(sorted);
+            long[] result = new long[percentiles.length];
+            for (int i = 0; i < percentiles.length; i++) {
+                int index = (int) Math.ceil(percentiles[i] / 100 * mSize) - 1;
+                result[i] = sorted[Math.max(0, Math.min(mSize - 1, index))] / 1000;
+            }
+            return result;
+        }
+    }
+}
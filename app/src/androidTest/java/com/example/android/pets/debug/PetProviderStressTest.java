@@ -0,0 +1,41 @@
+package com.example.android.pets.debug;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.pets.debug.HarnessAsserts.assertNone;
+import static com.example.android.pets.debug.HarnessAsserts.assertThat;
+
+/**
+ * Runs the {@link PetProviderStressHarness} against the provider of the app. Every kind of
+ * operation must have run, none may have failed, and the rows must end as their writers left
+ * them. The report is logged, for the throughput and latencies.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderStressTest {
+
+    @Test
+    public void concurrentReadsAndWritesKeepInvariants() throws InterruptedException {
+        PetProviderStressHarness.Config config = new PetProviderStressHarness.Config();
+        config.durationMillis = 5000;
+        PetProviderStressHarness harness = new PetProviderStressHarness(
+                InstrumentationRegistry.getTargetContext().getContentResolver(), config);
+
+        PetProviderStressHarness.Report report = harness.run();
+        HarnessAsserts.log(getClass(), "default mix", report);
+        assertThat("No read ran",
+                report.operations[PetProviderStressHarness.OP_READ] > 0, report);
+        assertThat("No update ran",
+                report.operations[PetProviderStressHarness.OP_UPDATE] > 0, report);
+        assertThat("No delete ran",
+                report.operations[PetProviderStressHarness.OP_DELETE] > 0, report);
+        assertNone("errors", report.errors, report);
+        assertNone("lost updates", report.lostUpdates, report);
+        assertNone("missing rows", report.missingRows, report);
+        assertNone("unexpected rows", report.unexpectedRows, report);
+        assertNone("weight histories out of step", report.historyMismatches, report);
+    }
+}
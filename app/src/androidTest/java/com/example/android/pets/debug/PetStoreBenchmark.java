@@ -0,0 +1,205 @@
+package com.example.android.pets.debug;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.pets.data.ColumnarPetStore;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetStore;
+import com.example.android.pets.data.SqlitePetStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the scan and count times of the SQLite and columnar {@link PetStore}s over the same
+ * generated catalog, and reports the answers of both. Uses its own database file, never the
+ * shelter database. Run it off the main thread; {@link PetStoreBenchmarkTest} runs it on a small
+ * catalog and checks the answers.
+ */
+public final class PetStoreBenchmark {
+
+    /** Name of the scratch database file */
+    private static final String DATABASE_NAME = "benchmark.db";
+
+    /** Number of timed runs of every operation; the median is reported */
+    private static final int RUNS = 5;
+
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED };
+
+    /** Operations run on both stores */
+    public static final String CATALOG_SCAN = "catalog scan";
+    public static final String COUNT_ALL = "count all";
+    public static final String COUNT_FEMALE_10_TO_20_KG = "count female 10-20kg";
+    public static final String COUNT_BREED_LAB = "count breed LIKE 'lab%'";
+    public static final String SORTED_SCAN = "scan sorted by name";
+
+    /**
+     * Results of one operation on both stores: a count, or a checksum of the rows that doesn't
+     * depend on their order.
+     */
+    public static final class Result {
+        public final String operation;
+        public long sqlite;
+        public long columnar;
+        /** Median times */
+        public double sqliteMillis;
+        public double columnarMillis;
+
+        Result(String operation) {
+            this.operation = operation;
+        }
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Report {
+        public int petCount;
+        /** Results of the operations, in the order they ran */
+        public final List<Result> results = new ArrayList<Result>();
+
+        /**
+         * Returns the results of the operation, or null if it didn't run.
+         */
+        public Result get(String operation) {
+            for (Result result : results) {
+                if (result.operation.equals(operation)) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "%d pets, median of %d runs (ms)%n", petCount, RUNS));
+            sb.append(String.format(Locale.US, "%-28s %10s %10s%n", "operation", "sqlite",
+                    "columnar"));
+            for (Result result : results) {
+                sb.append(String.format(Locale.US, "%-28s %10.2f %10.2f%n", result.operation,
+                        result.sqliteMillis, result.columnarMillis));
+            }
+            return sb.toString();
+        }
+    }
+
+    private PetStoreBenchmark() {}
+
+    /**
+     * Loads {@code petCount} pets generated from the seed into both stores, times the operations
+     * and compares their results.
+     */
+    public static Report run(Context context, int petCount, long seed) {
+        context.deleteDatabase(DATABASE_NAME);
+        PetDbHelper dbHelper = new PetDbHelper(context, DATABASE_NAME);
+        try {
+            SqlitePetStore sqlite = new SqlitePetStore(dbHelper);
+            PetDatasetGenerator generator = new PetDatasetGenerator(seed);
+            for (int loaded = 0; loaded < petCount; loaded += PetDatasetGenerator.BATCH_SIZE) {
+                sqlite.insertAll(generator.next(
+                        Math.min(PetDatasetGenerator.BATCH_SIZE, petCount - loaded)));
+            }
+            ColumnarPetStore columnar = ColumnarPetStore.copyOf(sqlite);
+
+            Report report = new Report();
+            report.petCount = petCount;
+            compare(report, CATALOG_SCAN, sqlite, columnar, new Operation() {
+                @Override
+                public long run(PetStore store) {
+                    return scan(store.query(CATALOG_PROJECTION, null, null, null, null));
+                }
+            });
+            compare(report, COUNT_ALL, sqlite, columnar, new Operation() {
+                @Override
+                public long run(PetStore store) {
+                    return store.count(null, null);
+                }
+            });
+            compare(report, COUNT_FEMALE_10_TO_20_KG, sqlite, columnar, new Operation() {
+                @Override
+                public long run(PetStore store) {
+                    return store.count(PetEntry.COLUMN_PET_GENDER + "=? AND "
+                                    + PetEntry.COLUMN_PET_WEIGHT + ">=? AND "
+                                    + PetEntry.COLUMN_PET_WEIGHT + "<=?",
+                            new String[] { String.valueOf(PetEntry.GENDER_FEMALE), "10", "20" });
+                }
+            });
+            compare(report, COUNT_BREED_LAB, sqlite, columnar, new Operation() {
+                @Override
+                public long run(PetStore store) {
+                    return store.count(PetEntry.COLUMN_PET_BREED + " LIKE ?",
+                            new String[] { "lab%" });
+                }
+            });
+            compare(report, SORTED_SCAN, sqlite, columnar, new Operation() {
+                @Override
+                public long run(PetStore store) {
+                    return scan(store.query(CATALOG_PROJECTION, null, null,
+                            PetEntry.COLUMN_PET_NAME, null));
+                }
+            });
+            return report;
+        } finally {
+            dbHelper.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private interface Operation {
+        /** Runs the operation and returns its result, as a count or a checksum of the rows */
+        long run(PetStore store);
+    }
+
+    private static void compare(Report report, String name, PetStore sqlite, PetStore columnar,
+                                Operation operation) {
+        Result result = new Result(name);
+        result.sqlite = operation.run(sqlite);
+        result.columnar = operation.run(columnar);
+        result.sqliteMillis = medianMillis(sqlite, operation);
+        result.columnarMillis = medianMillis(columnar, operation);
+        report.results.add(result);
+    }
+
+    private static double medianMillis(PetStore store, Operation operation) {
+        // Uma execução de aquecimento, fora da medição
+        operation.run(store);
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            operation.run(store);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2] / 1e6;
+    }
+
+    /**
+     * Reads every column of every row, like a list scrolled to the end would, and returns a
+     * checksum of the rows that doesn't depend on their order.
+     */
+    private static long scan(Cursor cursor) {
+        try {
+            int columns = cursor.getColumnCount();
+            long checksum = 0;
+            while (cursor.moveToNext()) {
+                int row = 0;
+                for (int i = 0; i < columns; i++) {
+                    String value = cursor.getString(i);
+                    row = 31 * row + (value == null ? 0 : value.hashCode());
+                }
+                checksum += row;
+            }
+            return checksum;
+        } finally {
+            cursor.close();
+        }
+    }
+}
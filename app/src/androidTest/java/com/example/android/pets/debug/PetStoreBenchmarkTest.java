@@ -0,0 +1,64 @@
+package com.example.android.pets.debug;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.pets.debug.HarnessAsserts.assertThat;
+import static com.example.android.pets.debug.HarnessAsserts.assertValue;
+
+/**
+ * Runs the {@link PetStoreBenchmark} on a small catalog, once for all the tests, and checks its
+ * answers: the columnar store must give the ones of the SQLite store, and these must make sense
+ * for the catalog. The times are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetStoreBenchmarkTest {
+
+    private static final int PET_COUNT = 20000;
+
+    private static PetStoreBenchmark.Report sReport;
+
+    @BeforeClass
+    public static void runBenchmark() {
+        sReport = PetStoreBenchmark.run(InstrumentationRegistry.getTargetContext(), PET_COUNT, 42);
+        HarnessAsserts.log(PetStoreBenchmarkTest.class, "benchmark", sReport);
+    }
+
+    @Test
+    public void columnarStoreGivesTheAnswersOfSqlite() {
+        for (PetStoreBenchmark.Result result : sReport.results) {
+            assertValue(result.operation, result.sqlite, result.columnar, sReport);
+        }
+    }
+
+    @Test
+    public void countAllIsTheCatalogSize() {
+        assertValue("count all", PET_COUNT, result(PetStoreBenchmark.COUNT_ALL).sqlite, sReport);
+    }
+
+    @Test
+    public void filteredCountsAreSubsetsOfTheCatalog() {
+        for (String operation : new String[] { PetStoreBenchmark.COUNT_FEMALE_10_TO_20_KG,
+                PetStoreBenchmark.COUNT_BREED_LAB }) {
+            long count = result(operation).sqlite;
+            assertThat(operation + " = " + count, count > 0 && count < PET_COUNT, sReport);
+        }
+    }
+
+    @Test
+    public void sortingKeepsTheSamePets() {
+        // As somas de verificação não dependem da ordem das linhas
+        assertValue("sorted scan", result(PetStoreBenchmark.CATALOG_SCAN).sqlite,
+                result(PetStoreBenchmark.SORTED_SCAN).sqlite, sReport);
+    }
+
+    private static PetStoreBenchmark.Result result(String operation) {
+        PetStoreBenchmark.Result result = sReport.get(operation);
+        assertThat("No result for " + operation, result != null, sReport);
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.android.pets.debug;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the database work saved by cancelling superseded queries. It simulates a user typing a
+ * name filter: every keystroke starts a new query of the catalog on its own thread, like a
+ * restarted loader, while the previous ones may still be running. The same keystrokes can be
+ * played letting every query run to completion or cancelling the previous query at each
+ * keystroke, and the time the queries kept the database busy compared.
+ *
+ * The queries go through the {@link ContentResolver}, like the ones of the loaders of the
+ * catalog, so the signal reaches SQLite through the provider. Load a large catalog first (see
+ * {@link PetDatasetGenerator}), otherwise the queries finish before they can be cancelled. Run it
+ * off the main thread; {@link QueryCancellationTest} runs it.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public final class QueryCancellationHarness {
+
+    private static final String[] FULL_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Substring scan plus sort, so every keystroke costs a full pass over the table */
+    private static final String SELECTION = PetEntry.COLUMN_PET_NAME + " LIKE ?";
+    private static final String SORT_ORDER = PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_NAME;
+
+    /**
+     * Outcome of one play of the keystrokes.
+     */
+    public static final class Report {
+        public int queries;
+        public int completed;
+        public int cancelled;
+        /** Sum of the time every query ran, until it finished or was cancelled */
+        public long busyMillis;
+        /** Whether the query of the last keystroke, which nothing supersedes, completed */
+        public boolean lastCompleted;
+        /** Time from the last keystroke to the result of its query */
+        public long lastResultMillis;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "queries=%d completed=%d cancelled=%d lastCompleted=%b busy=%dms "
+                            + "lastResult=%dms", queries, completed, cancelled, lastCompleted,
+                    busyMillis, lastResultMillis);
+        }
+    }
+
+    private QueryCancellationHarness() {}
+
+    /**
+     * Runs the query of the prefix of {@code typed} with the given length until its first rows
+     * and count are read, as a loader does, or until the signal is cancelled, and returns the
+     * time it took. Cancellation surfaces as an {@link OperationCanceledException}.
+     */
+    public static long query(ContentResolver resolver, String typed, int length,
+                             CancellationSignal signal) {
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor = resolver.query(PetEntry.CONTENT_URI, FULL_PROJECTION, SELECTION,
+                new String[] { "%" + typed.substring(0, length) + "%" }, SORT_ORDER, signal);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    /**
+     * Plays the typing of {@code typed} once, one keystroke every
+     * {@code keystrokeIntervalMillis}, cancelling the previous query at each keystroke if
+     * {@code cancelSuperseded} is set.
+     */
+    public static Report play(final ContentResolver resolver, final String typed,
+                              long keystrokeIntervalMillis, boolean cancelSuperseded) {
+        final Report report = new Report();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        final AtomicLong busyMillis = new AtomicLong();
+        final AtomicLong lastFinished = new AtomicLong();
+        final AtomicBoolean lastCompleted = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(typed.length());
+
+        CancellationSignal previous = null;
+        long lastKeystroke = 0;
+        for (int i = 1; i <= typed.length(); i++) {
+            if (cancelSuperseded && previous != null) {
+                previous.cancel();
+            }
+            final CancellationSignal signal = new CancellationSignal();
+            final int length = i;
+            final boolean last = i == typed.length();
+            lastKeystroke = SystemClock.elapsedRealtime();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long start = SystemClock.elapsedRealtime();
+                    try {
+                        query(resolver, typed, length, signal);
+                        completed.incrementAndGet();
+                        if (last) {
+                            lastCompleted.set(true);
+                        }
+                    } catch (OperationCanceledException e) {
+                        cancelled.incrementAndGet();
+                    } finally {
+                        long end = SystemClock.elapsedRealtime();
+                        busyMillis.addAndGet(end - start);
+                        if (last) {
+                            lastFinished.set(end);
+                        }
+                        done.countDown();
+                    }
+                }
+            }, "cancellation-" + i).start();
+            previous = signal;
+            if (!last) {
+                SystemClock.sleep(keystrokeIntervalMillis);
+            }
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report.queries = typed.length();
+        report.completed = completed.get();
+        report.cancelled = cancelled.get();
+        report.lastCompleted = lastCompleted.get();
+        report.busyMillis = busyMillis.get();
+        report.lastResultMillis = lastFinished.get() - lastKeystroke;
+        return report;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.pets.debug;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.pets.debug.HarnessAsserts.assertThat;
+import static com.example.android.pets.debug.HarnessAsserts.assertValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that cancelling the signal of a catalog query, through the {@link ContentResolver} like
+ * a loader does, stops the work of the provider, and plays the {@link QueryCancellationHarness}.
+ *
+ * The catalog is generated into the database of the app, so the pets have a breed no real pet
+ * has, and are removed afterwards. It is large enough that a result spans several cursor windows,
+ * each filled with its own step of the query.
+ */
+@RunWith(AndroidJUnit4.class)
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class QueryCancellationTest {
+
+    /** Breed of the generated pets */
+    private static final String BREED = "QueryCancellationTest";
+
+    /** Size of the catalog, large enough for a result not to fit one cursor window */
+    private static final int PET_COUNT = 100000;
+
+    /** Rows read before the signal is cancelled, all within the first window */
+    private static final int ROWS_BEFORE_CANCEL = 100;
+
+    /** Name filter typed by the user */
+    private static final String TYPED = "bella";
+
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private static ContentResolver sResolver;
+
+    @BeforeClass
+    public static void loadCatalog() {
+        sResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        PetDatasetGenerator generator = new PetDatasetGenerator(42);
+        for (int loaded = 0; loaded < PET_COUNT; loaded += PetDatasetGenerator.BATCH_SIZE) {
+            ContentValues[] pets = generator.next(
+                    Math.min(PetDatasetGenerator.BATCH_SIZE, PET_COUNT - loaded));
+            for (ContentValues pet : pets) {
+                pet.put(PetEntry.COLUMN_PET_BREED, BREED);
+            }
+            sResolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+        }
+    }
+
+    @AfterClass
+    public static void deleteCatalog() {
+        sResolver.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_BREED + "=?",
+                new String[] { BREED });
+    }
+
+    @Before
+    public void setUp() {
+        // Antes do Jelly Bean as consultas do SQLite não podem ser canceladas
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+    }
+
+    @Test
+    public void uncancelledQueryReadsEveryRow() {
+        Cursor cursor = queryCatalog(new CancellationSignal());
+        try {
+            int rowsRead = 0;
+            while (cursor.moveToNext()) {
+                rowsRead++;
+            }
+            assertEquals("rows read", PET_COUNT, rowsRead);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void cancellingMidQueryStopsTheRead() {
+        CancellationSignal signal = new CancellationSignal();
+        Cursor cursor = queryCatalog(signal);
+        int rowsRead = 0;
+        try {
+            assertEquals("rows counted", PET_COUNT, cursor.getCount());
+            while (cursor.moveToNext()) {
+                if (++rowsRead == ROWS_BEFORE_CANCEL) {
+                    signal.cancel();
+                }
+            }
+            fail("All " + rowsRead + " rows were read, although the signal was cancelled after "
+                    + ROWS_BEFORE_CANCEL);
+        } catch (OperationCanceledException e) {
+            // A próxima janela do cursor não é preenchida: a consulta parou no meio
+            String read = rowsRead + " of " + PET_COUNT + " rows read";
+            assertThat("Cancelled before the signal", rowsRead >= ROWS_BEFORE_CANCEL, read);
+            assertThat("Cancelled after the last row", rowsRead < PET_COUNT, read);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void onlySupersededQueriesAreCancelled() {
+        // O intervalo entre as teclas só dá o ritmo da digitação; nada é medido contra ele
+        QueryCancellationHarness.query(sResolver, TYPED, 1, null);
+        long interval = QueryCancellationHarness.query(sResolver, TYPED, 1, null) / 4;
+
+        QueryCancellationHarness.Report withoutCancel =
+                QueryCancellationHarness.play(sResolver, TYPED, interval, false);
+        QueryCancellationHarness.Report withCancel =
+                QueryCancellationHarness.play(sResolver, TYPED, interval, true);
+        HarnessAsserts.log(getClass(), "run to completion", withoutCancel);
+        HarnessAsserts.log(getClass(), "cancel superseded", withCancel);
+
+        assertValue("completed without cancelling", TYPED.length(), withoutCancel.completed,
+                withoutCancel);
+        assertValue("queries accounted for", withCancel.queries,
+                withCancel.completed + withCancel.cancelled, withCancel);
+        assertThat("The query of the last keystroke didn't complete", withCancel.lastCompleted,
+                withCancel);
+    }
+
+    private static Cursor queryCatalog(CancellationSignal signal) {
+        return sResolver.query(PetEntry.CONTENT_URI, PROJECTION, PetEntry.COLUMN_PET_BREED + "=?",
+                new String[] { BREED }, null, signal);
+    }
+}
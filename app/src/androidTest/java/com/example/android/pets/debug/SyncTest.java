@@ -0,0 +1,271 @@
+package com.example.android.pets.debug;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.TombstoneEntry;
+import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetSyncEngine;
+import com.example.android.pets.data.SqlitePetStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the sync end to end between two devices and a {@link LocalSyncServer}, each device with
+ * its own scratch database, never the shelter database.
+ *
+ * Device A creates the catalog and uploads it, losing one answer midway; device B downloads it,
+ * losing one request midway. Each test then changes pets on one or both devices and syncs
+ * again. After every round both databases must hold the same pets as the server, with nothing
+ * left to push. Every sync is logged with its bytes and requests and the time they would take
+ * over a slow link.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncTest {
+
+    private static final String LOG_TAG = SyncTest.class.getSimpleName();
+
+    private static final String DATABASE_A = "sync-a.db";
+    private static final String DATABASE_B = "sync-b.db";
+
+    /** Size of the catalog created by device A */
+    private static final int PET_COUNT = 10000;
+
+    /** Weight set by the tests, which no generated pet has */
+    private static final int CHANGED_WEIGHT = 1000;
+
+    /** Slow link used to estimate transfer times: bandwidth, and round trip per request */
+    private static final long LINK_BITS_PER_SECOND = 256 * 1000;
+    private static final long LINK_ROUND_TRIP_MILLIS = 300;
+
+    private Context mContext;
+    private PetDbHelper mHelperA;
+    private PetDbHelper mHelperB;
+    private SqlitePetStore mStoreA;
+    private SqlitePetStore mStoreB;
+    private LocalSyncServer mServer;
+    private PetSyncEngine mSyncA;
+    private PetSyncEngine mSyncB;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_A);
+        mContext.deleteDatabase(DATABASE_B);
+        mHelperA = new PetDbHelper(mContext, DATABASE_A);
+        mHelperB = new PetDbHelper(mContext, DATABASE_B);
+        mStoreA = new SqlitePetStore(mHelperA);
+        mStoreB = new SqlitePetStore(mHelperB);
+        mServer = new LocalSyncServer();
+        mSyncA = new PetSyncEngine(mHelperA, mServer);
+        mSyncB = new PetSyncEngine(mHelperB, mServer);
+
+        PetDatasetGenerator generator = new PetDatasetGenerator(42);
+        for (int loaded = 0; loaded < PET_COUNT; loaded += PetDatasetGenerator.BATCH_SIZE) {
+            mStoreA.insertAll(generator.next(
+                    Math.min(PetDatasetGenerator.BATCH_SIZE, PET_COUNT - loaded)));
+        }
+
+        // Carga inicial: A perde a resposta do terceiro envio e retoma
+        mServer.failExchange(mServer.getExchanges() + 3, true);
+        assertNotNull(sync("A upload (answer lost)", mSyncA).error);
+        assertNull(sync("A upload (resumed)", mSyncA).error);
+
+        // B perde o quinto pedido e retoma
+        mServer.failExchange(mServer.getExchanges() + 5, false);
+        assertNotNull(sync("B download (request lost)", mSyncB).error);
+        assertNull(sync("B download (resumed)", mSyncB).error);
+    }
+
+    @After
+    public void tearDown() {
+        mHelperA.close();
+        mHelperB.close();
+        mContext.deleteDatabase(DATABASE_A);
+        mContext.deleteDatabase(DATABASE_B);
+    }
+
+    @Test
+    public void initialSyncConverges() {
+        assertEquals(PET_COUNT, mServer.getPetCount());
+        assertConverged();
+    }
+
+    @Test
+    public void changesOfBothDevicesConverge() {
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, CHANGED_WEIGHT);
+        int changed = mStoreA.update(weight, PetEntry._ID + " % 100 = 0", null);
+        // Outros pets mudam em B, escolhidos em A para não coincidirem
+        ContentValues breed = new ContentValues();
+        breed.put(PetEntry.COLUMN_PET_BREED, "Vira-lata");
+        mStoreB.update(breed, selectSyncIds(mHelperA, PetEntry._ID + " % 250 = 3"), null);
+
+        sync("A delta", mSyncA);
+        assertEquals(0, sync("B delta", mSyncB).conflicts);
+        sync("A delta", mSyncA);
+        assertConverged();
+        assertEquals(changed, countPets(mHelperB,
+                PetEntry.COLUMN_PET_WEIGHT + " = " + CHANGED_WEIGHT));
+    }
+
+    @Test
+    public void deletedPetsLeaveNoTombstonesAndReachTheOtherDevice() {
+        String deleted = selectSyncIds(mHelperA, PetEntry._ID + " % 100 = 1");
+        int deletedCount = mStoreA.delete(deleted, null);
+        assertEquals(deletedCount, countRows(mHelperA, TombstoneEntry.TABLE_NAME, null));
+
+        sync("A delta (deletes)", mSyncA);
+        sync("B delta", mSyncB);
+        assertConverged();
+        assertEquals(PET_COUNT - deletedCount, mServer.getPetCount());
+        assertEquals(0, countPets(mHelperB, deleted));
+    }
+
+    @Test
+    public void conflictingChangesEndWithTheServerVersion() {
+        // Os mesmos pets mudam nos dois dispositivos; A envia primeiro, então vence
+        String both = selectSyncIds(mHelperA, PetEntry._ID + " % 1000 = 0");
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, CHANGED_WEIGHT);
+        int changed = mStoreA.update(weight, both, null);
+        ContentValues name = new ContentValues();
+        name.put(PetEntry.COLUMN_PET_NAME, "Conflict");
+        assertEquals(changed, mStoreB.update(name, both, null));
+
+        sync("A delta", mSyncA);
+        assertEquals(changed, sync("B delta (conflicts)", mSyncB).conflicts);
+        sync("A delta", mSyncA);
+        assertConverged();
+        assertEquals(changed, countPets(mHelperB, "(" + both + ") AND "
+                + PetEntry.COLUMN_PET_WEIGHT + " = " + CHANGED_WEIGHT));
+        assertEquals(0, countPets(mHelperB, PetEntry.COLUMN_PET_NAME + " = 'Conflict'"));
+    }
+
+    @Test
+    public void changesMadeDuringThePullArePushedNextTime() {
+        final String both = selectSyncIds(mHelperA, PetEntry._ID + " % 1000 = 0");
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, CHANGED_WEIGHT);
+        final int changed = mStoreA.update(weight, both, null);
+        sync("A delta", mSyncA);
+
+        // B muda os mesmos pets depois de enviar e antes de receber: o pull não os sobrescreve
+        mServer.beforeNextPull(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues name = new ContentValues();
+                name.put(PetEntry.COLUMN_PET_NAME, "Conflict");
+                assertEquals(changed, mStoreB.update(name, both, null));
+            }
+        });
+        assertEquals(0, sync("B delta (changed during pull)", mSyncB).pulled);
+        assertEquals(changed, countPets(mHelperB, "(" + both + ") AND "
+                + PetEntry.COLUMN_SYNC_DIRTY + " > 0"));
+
+        // O próximo envio de B encontra as versões de A no servidor, que vencem
+        assertEquals(changed, sync("B delta (conflicts)", mSyncB).conflicts);
+        sync("A delta", mSyncA);
+        assertConverged();
+        assertEquals(changed, countPets(mHelperB, "(" + both + ") AND "
+                + PetEntry.COLUMN_PET_WEIGHT + " = " + CHANGED_WEIGHT));
+        assertEquals(0, countPets(mHelperB, PetEntry.COLUMN_PET_NAME + " = 'Conflict'"));
+    }
+
+    private PetSyncEngine.Result sync(String label, PetSyncEngine engine) {
+        long start = SystemClock.elapsedRealtime();
+        PetSyncEngine.Result result = engine.sync();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        long linkMillis = (result.bytesSent + result.bytesReceived) * 8 * 1000
+                / LINK_BITS_PER_SECOND + result.exchanges * LINK_ROUND_TRIP_MILLIS;
+        Log.i(LOG_TAG, String.format(Locale.US, "%-26s %s local=%dms slowLink=%.1fs", label,
+                result, elapsed, linkMillis / 1000.0));
+        return result;
+    }
+
+    /**
+     * Returns a selection of the pets of both devices that are the pets of the given selection
+     * on one of them, by their sync IDs.
+     */
+    private static String selectSyncIds(PetDbHelper helper, String selection) {
+        List<String> ids = new ArrayList<String>();
+        Cursor cursor = helper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                new String[] { PetEntry.COLUMN_SYNC_ID }, selection, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertFalse("No pet matches " + selection, ids.isEmpty());
+        return PetEntry.COLUMN_SYNC_ID + " IN (" + TextUtils.join(",", ids) + ")";
+    }
+
+    private static long countPets(PetDbHelper helper, String selection) {
+        return countRows(helper, PetEntry.TABLE_NAME, selection);
+    }
+
+    private static long countRows(PetDbHelper helper, String table, String selection) {
+        return DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), table, selection,
+                null);
+    }
+
+    /**
+     * Checks that both devices hold the same pets as the server, with nothing left to push.
+     */
+    private void assertConverged() {
+        SQLiteDatabase a = mHelperA.getReadableDatabase();
+        SQLiteDatabase b = mHelperB.getReadableDatabase();
+        for (SQLiteDatabase database : new SQLiteDatabase[] { a, b }) {
+            assertEquals("Dirty pets left after sync", 0, DatabaseUtils.queryNumEntries(database,
+                    PetEntry.TABLE_NAME, PetEntry.COLUMN_SYNC_DIRTY + " > 0", null));
+            assertEquals("Tombstones left after sync", 0,
+                    DatabaseUtils.queryNumEntries(database, TombstoneEntry.TABLE_NAME));
+        }
+
+        String sql = "SELECT p." + PetEntry.COLUMN_SYNC_ID + ", p." + PetEntry.COLUMN_PET_NAME
+                + ", b." + BreedEntry.COLUMN_BREED_NAME + ", p." + PetEntry.COLUMN_PET_GENDER
+                + ", p." + PetEntry.COLUMN_PET_WEIGHT + ", p." + PetEntry.COLUMN_SYNC_VERSION
+                + " FROM " + PetEntry.TABLE_NAME + " p LEFT JOIN " + BreedEntry.TABLE_NAME
+                + " b ON b." + BreedEntry._ID + " = p." + PetEntry.COLUMN_PET_BREED_ID
+                + " ORDER BY p." + PetEntry.COLUMN_SYNC_ID;
+        Cursor petsA = a.rawQuery(sql, null);
+        Cursor petsB = b.rawQuery(sql, null);
+        try {
+            assertEquals("Pets of device A", mServer.getPetCount(), petsA.getCount());
+            assertEquals("Pets of device B", mServer.getPetCount(), petsB.getCount());
+            while (petsA.moveToNext() && petsB.moveToNext()) {
+                for (int column = 0; column < petsA.getColumnCount(); column++) {
+                    assertEquals("Pet " + petsA.getLong(0) + ", " + petsA.getColumnName(column),
+                            petsA.getString(column), petsB.getString(column));
+                }
+            }
+        } finally {
+            petsA.close();
+            petsB.close();
+        }
+    }
+}
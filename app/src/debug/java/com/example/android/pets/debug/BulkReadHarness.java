@@ -0,0 +1,164 @@
+package com.example.android.pets.debug;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.pets.data.PackedPets;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.BulkRead;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compares the time to read every pet of {@link com.example.android.pets.data.PetProvider}
+ * through a cursor with {@link PetContract#METHOD_READ_ALL}. Both paths read every column of
+ * every row, and must read the same pets. Run it off the main thread, from the process whose IPC
+ * cost is of interest: from the process of the provider there is no Binder in the way, only the
+ * copies. {@link BulkReadService} runs it from a process of its own.
+ */
+public final class BulkReadHarness {
+
+    /** Number of timed runs of every path; the median is reported */
+    private static final int RUNS = 5;
+
+    private static final String[] FULL_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Keys of the Bundle of a {@link Report} */
+    private static final String KEY_CURSOR_ROWS = "cursorRows";
+    private static final String KEY_CURSOR_CHECKSUM = "cursorChecksum";
+    private static final String KEY_CURSOR_NANOS = "cursorNanos";
+    private static final String KEY_PACKED_ROWS = "packedRows";
+    private static final String KEY_PACKED_CHECKSUM = "packedChecksum";
+    private static final String KEY_PACKED_NANOS = "packedNanos";
+    private static final String KEY_PACKED_BYTES = "packedBytes";
+
+    /**
+     * Outcome of a run. The checksums don't depend on the order of the pets, so both paths
+     * read the same pets if they have the same rows and checksum.
+     */
+    public static final class Report {
+        public int cursorRows;
+        public long cursorChecksum;
+        /** Median time of the cursor path */
+        public long cursorNanos;
+        public int packedRows;
+        public long packedChecksum;
+        /** Median time of the packed path */
+        public long packedNanos;
+        /** Size of the packed file */
+        public long packedBytes;
+
+        public Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putInt(KEY_CURSOR_ROWS, cursorRows);
+            bundle.putLong(KEY_CURSOR_CHECKSUM, cursorChecksum);
+            bundle.putLong(KEY_CURSOR_NANOS, cursorNanos);
+            bundle.putInt(KEY_PACKED_ROWS, packedRows);
+            bundle.putLong(KEY_PACKED_CHECKSUM, packedChecksum);
+            bundle.putLong(KEY_PACKED_NANOS, packedNanos);
+            bundle.putLong(KEY_PACKED_BYTES, packedBytes);
+            return bundle;
+        }
+
+        public static Report fromBundle(Bundle bundle) {
+            Report report = new Report();
+            report.cursorRows = bundle.getInt(KEY_CURSOR_ROWS);
+            report.cursorChecksum = bundle.getLong(KEY_CURSOR_CHECKSUM);
+            report.cursorNanos = bundle.getLong(KEY_CURSOR_NANOS);
+            report.packedRows = bundle.getInt(KEY_PACKED_ROWS);
+            report.packedChecksum = bundle.getLong(KEY_PACKED_CHECKSUM);
+            report.packedNanos = bundle.getLong(KEY_PACKED_NANOS);
+            report.packedBytes = bundle.getLong(KEY_PACKED_BYTES);
+            return report;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d pets, median of %d runs: cursor %.1fms, readAll %.1fms (%d bytes packed)",
+                    cursorRows, RUNS, cursorNanos / 1e6, packedNanos / 1e6, packedBytes);
+        }
+    }
+
+    private BulkReadHarness() {}
+
+    /**
+     * Reads all the pets through both paths and returns the report.
+     *
+     * @throws IOException if the packed file can't be read
+     */
+    public static Report run(ContentResolver resolver) throws IOException {
+        Report report = new Report();
+        long[] cursorTimes = new long[RUNS];
+        long[] packedTimes = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            // Uma seleção diferente a cada vez, para a consulta não sair do cache do provider
+            String selection = PetEntry._ID + " > ?";
+            String[] selectionArgs = new String[] { String.valueOf(-1 - run) };
+
+            long start = System.nanoTime();
+            long checksum = 0;
+            Cursor cursor = resolver.query(PetEntry.CONTENT_URI, FULL_PROJECTION, selection,
+                    selectionArgs, null);
+            try {
+                while (cursor.moveToNext()) {
+                    checksum += checksum(cursor.getLong(0), cursor.getString(1),
+                            cursor.getString(2), cursor.getInt(3), cursor.getInt(4));
+                }
+                report.cursorRows = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            cursorTimes[run] = System.nanoTime() - start;
+            report.cursorChecksum = checksum;
+
+            start = System.nanoTime();
+            checksum = 0;
+            Bundle extras = new Bundle();
+            extras.putString(BulkRead.SELECTION, selection);
+            extras.putStringArray(BulkRead.SELECTION_ARGS, selectionArgs);
+            Bundle result = resolver.call(PetContract.BASE_CONTENT_URI,
+                    PetContract.METHOD_READ_ALL, null, extras);
+            if (result == null) {
+                throw new IOException("The provider failed to pack the pets");
+            }
+            ParcelFileDescriptor file = result.getParcelable(BulkRead.FILE);
+            report.packedBytes = file.getStatSize();
+            PackedPets pets = PackedPets.map(file);
+            for (int row = 0; row < pets.getCount(); row++) {
+                checksum += checksum(pets.getId(row), pets.getName(row), pets.getBreed(row),
+                        pets.getGender(row), pets.getWeight(row));
+            }
+            packedTimes[run] = System.nanoTime() - start;
+            report.packedRows = pets.getCount();
+            report.packedChecksum = checksum;
+        }
+        report.cursorNanos = median(cursorTimes);
+        report.packedNanos = median(packedTimes);
+        return report;
+    }
+
+    private static long checksum(long id, String name, String breed, int gender, int weight) {
+        long hash = id;
+        hash = 31 * hash + (name == null ? 0 : name.hashCode());
+        hash = 31 * hash + (breed == null ? 0 : breed.hashCode());
+        hash = 31 * hash + gender;
+        return 31 * hash + weight;
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
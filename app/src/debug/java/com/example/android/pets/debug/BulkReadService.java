@@ -0,0 +1,56 @@
+package com.example.android.pets.debug;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.ResultReceiver;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Runs the {@link BulkReadHarness} in a process of its own, declared in the manifest of the debug
+ * build, so that both read paths cross Binder to reach the provider, like a client app would.
+ * The report goes back to the {@link ResultReceiver} of the intent, with the ID of the process
+ * it was measured from.
+ */
+public class BulkReadService extends IntentService {
+
+    public static final String LOG_TAG = BulkReadService.class.getSimpleName();
+
+    /** Where the report is sent. Type: ResultReceiver */
+    public static final String EXTRA_RECEIVER = "receiver";
+
+    /** Result codes sent to the receiver */
+    public static final int RESULT_DONE = 0;
+    public static final int RESULT_FAILED = 1;
+
+    /** ID of the process the report was measured from, in the result. Type: int */
+    public static final String KEY_PID = "pid";
+
+    /** Why the run failed, in the result of {@link #RESULT_FAILED}. Type: String */
+    public static final String KEY_ERROR = "error";
+
+    public BulkReadService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        ResultReceiver receiver = intent.getParcelableExtra(EXTRA_RECEIVER);
+        Bundle result;
+        int code;
+        try {
+            result = BulkReadHarness.run(getContentResolver()).toBundle();
+            code = RESULT_DONE;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Bulk read failed", e);
+            result = new Bundle();
+            result.putString(KEY_ERROR, e.toString());
+            code = RESULT_FAILED;
+        }
+        result.putInt(KEY_PID, Process.myPid());
+        receiver.send(code, result);
+    }
+}
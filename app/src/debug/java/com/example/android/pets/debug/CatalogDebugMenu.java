@@ -0,0 +1,148 @@
+package com.example.android.pets.debug;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.Toast;
+
+import com.example.android.pets.R;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Options of the catalog menu that only debug builds have: inserting sample pets made by the
+ * {@link PetDatasetGenerator}, in the amounts of the submenu, up to a million for scale tests,
+ * and recording a trace with the {@link PetTraceRecorder}.
+ *
+ * The release build has a version of this class that adds no option, so the catalog calls it
+ * the same way in both builds and release code never references the generator, nor starts the
+ * recorder.
+ */
+public final class CatalogDebugMenu {
+
+    private static final String LOG_TAG = CatalogDebugMenu.class.getSimpleName();
+
+    /** Submenu options and the number of sample pets each one inserts */
+    private static final int[] SAMPLE_PET_ACTIONS = {
+            R.id.action_insert_sample_pets_1k,
+            R.id.action_insert_sample_pets_10k,
+            R.id.action_insert_sample_pets_100k,
+            R.id.action_insert_sample_pets_1m };
+    private static final int[] SAMPLE_PET_COUNTS = { 1000, 10000, 100000, 1000000 };
+
+    private CatalogDebugMenu() {}
+
+    /**
+     * Adds the debug options to the menu of the activity.
+     */
+    public static void onCreateOptionsMenu(Activity activity, Menu menu) {
+        activity.getMenuInflater().inflate(R.menu.menu_catalog_debug, menu);
+    }
+
+    /**
+     * Handles the item if it is a debug option, and returns whether it was.
+     */
+    public static boolean onOptionsItemSelected(Activity activity, MenuItem item) {
+        if (item.getItemId() == R.id.action_record_trace) {
+            toggleTraceRecording(activity);
+            return true;
+        }
+        for (int i = 0; i < SAMPLE_PET_ACTIONS.length; i++) {
+            if (item.getItemId() == SAMPLE_PET_ACTIONS[i]) {
+                Context context = activity.getApplicationContext();
+                Toast.makeText(context, context.getString(R.string.catalog_sample_pets_inserting,
+                        SAMPLE_PET_COUNTS[i]), Toast.LENGTH_SHORT).show();
+                // Um milhão de pets leva minutos: fora da fila serial das outras AsyncTasks
+                new InsertSamplePetsTask(context).executeOnExecutor(
+                        AsyncTask.THREAD_POOL_EXECUTOR, SAMPLE_PET_COUNTS[i]);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts recording a trace of the catalog, or stops the recording and saves it to the app's
+     * external files directory, from where it can be pulled and opened in chrome://tracing.
+     */
+    private static void toggleTraceRecording(Activity activity) {
+        if (!PetTraceRecorder.isRecording()) {
+            PetTraceRecorder.start(PetTraceRecorder.DEFAULT_CAPACITY);
+            Toast.makeText(activity, R.string.catalog_trace_recording, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        PetTraceRecorder.stop();
+        File directory = activity.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = activity.getFilesDir();
+        }
+        File file = new File(directory, "catalog-" + System.currentTimeMillis() + ".json");
+        new SaveTraceTask(activity.getApplicationContext()).execute(file);
+    }
+
+    /**
+     * Grava o trace em segundo plano e informa onde ele foi salvo.
+     */
+    private static class SaveTraceTask extends AsyncTask<File, Void, File> {
+
+        /** Application context, so the task doesn't hold on to the activity */
+        private final Context mContext;
+
+        SaveTraceTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected File doInBackground(File... files) {
+            try {
+                PetTraceRecorder.writeTo(files[0]);
+                return files[0];
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to save trace to " + files[0], e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            if (file == null) {
+                Toast.makeText(mContext, R.string.catalog_trace_failed, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(mContext,
+                        mContext.getString(R.string.catalog_trace_saved, file.getPath()),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * Insere pets gerados pelo {@link PetDatasetGenerator} em segundo plano. A semente muda a
+     * cada chamada, para que cada lote seja diferente.
+     */
+    private static class InsertSamplePetsTask extends AsyncTask<Integer, Void, Integer> {
+
+        /** Application context, so the task doesn't hold on to the activity */
+        private final Context mContext;
+
+        InsertSamplePetsTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected Integer doInBackground(Integer... counts) {
+            return PetDatasetGenerator.load(mContext.getContentResolver(), counts[0],
+                    System.currentTimeMillis());
+        }
+
+        @Override
+        protected void onPostExecute(Integer inserted) {
+            Toast.makeText(mContext,
+                    mContext.getString(R.string.catalog_sample_pets_inserted, inserted),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+}
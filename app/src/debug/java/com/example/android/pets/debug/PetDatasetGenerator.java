@@ -0,0 +1,168 @@
+package com.example.android.pets.debug;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic pets for scale testing. The same seed always produces the same pets, so a
+ * catalog of any size can be rebuilt exactly from tests, benchmarks or the debug menu.
+ *
+ * Names and breeds follow a skewed (Zipf-like) popularity, a few of them covering most pets as in
+ * a real shelter. The weight of each pet is drawn around the typical weight of its breed, and a
+ * small share of pets has an unknown gender or no breed at all.
+ *
+ * Only in debug builds, where the catalog menu loads them through {@link CatalogDebugMenu}.
+ */
+public final class PetDatasetGenerator {
+
+    /** Number of pets sent to the provider per bulk insert */
+    public static final int BATCH_SIZE = 5000;
+
+    private static final String[] NAMES = {
+            "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Buddy", "Lola", "Rocky",
+            "Molly", "Bear", "Sadie", "Duke", "Maggie", "Tucker", "Bailey", "Jack", "Sophie",
+            "Toby", "Chloe", "Oliver", "Stella", "Milo", "Penny", "Leo", "Zoe", "Teddy", "Lily",
+            "Bentley", "Coco", "Zeus", "Rosie", "Winston", "Ruby", "Murphy", "Gracie", "Oscar",
+            "Roxy", "Loki", "Nala", "Simba", "Mia", "Thor", "Pepper", "Bruno", "Lulu", "Toto",
+            "Mel", "Pipoca", "Bolinha", "Scooby", "Pandora", "Fred", "Nina", "Mike", "Amora", "Bob",
+            "Frida", "Paçoca" };
+
+    /** Breeds with their typical weight and spread, in kg */
+    private static final String[] BREEDS = {
+            "Mixed", "Labrador Retriever", "Domestic Shorthair", "German Shepherd", "Poodle",
+            "Golden Retriever", "Siamese", "Bulldog", "Beagle", "Persian", "Dachshund",
+            "Rottweiler", "Yorkshire Terrier", "Maine Coon", "Boxer", "Shih Tzu", "Chihuahua",
+            "Pit Bull Terrier", "Border Collie", "Siberian Husky", "Pug", "Ragdoll",
+            "Cocker Spaniel", "Doberman", "Bengal", "Great Dane", "Pomeranian", "Terrier",
+            "Sphynx", "Maltese", "Lhasa Apso", "Schnauzer", "Shiba Inu", "Akita",
+            "Bernese Mountain Dog", "Whippet", "Basset Hound", "Dalmatian", "Weimaraner",
+            "Saint Bernard" };
+    private static final int[] BREED_WEIGHTS = {
+            15, 30, 4, 32, 20, 30, 4, 23, 10, 4, 9,
+            50, 3, 7, 29, 6, 2,
+            25, 18, 23, 7, 7,
+            13, 40, 5, 60, 2, 8,
+            4, 3, 6, 15, 10, 40,
+            45, 12, 26, 25, 32,
+            75 };
+    private static final int[] BREED_SPREADS = {
+            8, 5, 1, 5, 8, 4, 1, 3, 2, 1, 3,
+            8, 1, 2, 4, 1, 1,
+            5, 3, 4, 1, 2,
+            2, 6, 1, 10, 1, 3,
+            1, 1, 1, 5, 2, 6,
+            6, 3, 4, 4, 4,
+            12 };
+
+    /** Share of pets, in percent, with an unknown gender and with no breed */
+    private static final int UNKNOWN_GENDER_PERCENT = 6;
+    private static final int NO_BREED_PERCENT = 3;
+
+    private final Random mRandom;
+    private final double[] mNameCumulative = cumulativeZipf(NAMES.length);
+    private final double[] mBreedCumulative = cumulativeZipf(BREEDS.length);
+
+    /**
+     * Constructs a new generator. Two generators with the same seed produce the same pets.
+     */
+    public PetDatasetGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Returns the next generated pet, as the content values to insert into the provider.
+     */
+    public ContentValues next() {
+        ContentValues values = new ContentValues(4);
+        values.put(PetEntry.COLUMN_PET_NAME, NAMES[pick(mNameCumulative)]);
+
+        int gender;
+        int roll = mRandom.nextInt(100);
+        if (roll < UNKNOWN_GENDER_PERCENT) {
+            gender = PetEntry.GENDER_UNKNOWN;
+        } else if (roll % 2 == 0) {
+            gender = PetEntry.GENDER_MALE;
+        } else {
+            gender = PetEntry.GENDER_FEMALE;
+        }
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+
+        int breed = pick(mBreedCumulative);
+        if (mRandom.nextInt(100) >= NO_BREED_PERCENT) {
+            values.put(PetEntry.COLUMN_PET_BREED, BREEDS[breed]);
+        }
+        double weight = BREED_WEIGHTS[breed] + mRandom.nextGaussian() * BREED_SPREADS[breed];
+        values.put(PetEntry.COLUMN_PET_WEIGHT, (int) Math.max(1, Math.round(weight)));
+        return values;
+    }
+
+    /**
+     * Returns the next {@code count} generated pets.
+     */
+    public ContentValues[] next(int count) {
+        ContentValues[] pets = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            pets[i] = next();
+        }
+        return pets;
+    }
+
+    /**
+     * Generates {@code count} pets from the given seed and inserts them through the provider's
+     * bulk insert, {@link #BATCH_SIZE} pets per transaction. Must not be called on the main thread.
+     *
+     * @return the number of pets inserted
+     */
+    public static int load(ContentResolver resolver, int count, long seed) {
+        PetDatasetGenerator generator = new PetDatasetGenerator(seed);
+        int inserted = 0;
+        while (inserted < count) {
+            int batch = Math.min(BATCH_SIZE, count - inserted);
+            int result = resolver.bulkInsert(PetEntry.CONTENT_URI, generator.next(batch));
+            if (result != batch) {
+                break;
+            }
+            inserted += result;
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns the index of an entry drawn from the cumulative distribution.
+     */
+    private int pick(double[] cumulative) {
+        double value = mRandom.nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the cumulative Zipf distribution (exponent 1) over {@code size} entries, the first
+     * entry being the most likely.
+     */
+    private static double[] cumulativeZipf(int size) {
+        double[] cumulative = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+}
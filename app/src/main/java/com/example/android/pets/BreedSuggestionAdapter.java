@@ -0,0 +1,80 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.BreedSuggestions;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link BreedSuggestionAdapter} suggests breeds for the breed field of the editor, the most
+ * common breeds starting with what was typed first. Suggestions come from the in-memory index of
+ * the provider ({@link PetContract#METHOD_SUGGEST_BREEDS}), so no keystroke queries the database.
+ */
+public class BreedSuggestionAdapter extends ArrayAdapter<String> {
+
+    /** Maximum number of breeds shown in the dropdown */
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final ContentResolver mResolver;
+
+    private final Filter mFilter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            List<String> breeds = suggest(constraint == null ? "" : constraint.toString());
+            FilterResults results = new FilterResults();
+            results.values = breeds;
+            results.count = breeds.size();
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            setNotifyOnChange(false);
+            clear();
+            if (results.values != null) {
+                addAll((List<String>) results.values);
+            }
+            notifyDataSetChanged();
+        }
+    };
+
+    /**
+     * Constructs a new {@link BreedSuggestionAdapter}.
+     *
+     * @param context The context
+     */
+    public BreedSuggestionAdapter(Context context) {
+        super(context, android.R.layout.simple_dropdown_item_1line);
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Asks the provider to prepare its breed index, so that suggestions are ready by the time the
+     * user types. Cheap enough for the main thread.
+     */
+    public void prepare() {
+        suggest("");
+    }
+
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+
+    private List<String> suggest(String prefix) {
+        Bundle extras = new Bundle();
+        extras.putInt(BreedSuggestions.LIMIT, MAX_SUGGESTIONS);
+        Bundle result = mResolver.call(PetContract.BASE_CONTENT_URI,
+                PetContract.METHOD_SUGGEST_BREEDS, prefix, extras);
+        String[] breeds = result == null ? null : result.getStringArray(BreedSuggestions.BREEDS);
+        return breeds == null ? Arrays.<String>asList() : Arrays.asList(breeds);
+    }
+}
@@ -29,12 +29,16 @@ import android.support.v7.app.AppCompatActivity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract.PetEntry;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetDbMaintenance;
+import com.example.android.pets.debug.CatalogDebugMenu;
+import com.example.android.pets.debug.PetTrace;
 
 import java.net.URI;
 
@@ -48,6 +52,9 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     PetCursorAdapter mPetCursorAdapter;
 
+    /** List of the pets, whose visible rows are prefetched for the editor */
+    private ListView mPetListView;
+
     private  static final int PET_LOADER = 0;
 
     @Override
@@ -67,6 +74,7 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
         // Find the ListView which will be populated with the pet data
         ListView petListView = (ListView) findViewById(R.id.list);
+        mPetListView = petListView;
 
         // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
         View emptyView = findViewById(R.id.empty_view);
@@ -88,8 +96,24 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 startActivity(intent);
             }
         });
+        petListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // Só quando a rolagem para, para não consultar a cada linha que passa
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    prefetchVisiblePets();
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+            }
+        });
         getSupportLoaderManager().initLoader(PET_LOADER, null,this);
 
+        // Manutenção diária do banco de dados, com o aparelho ocioso e carregando
+        PetDbMaintenance.schedule(this);
     }
 
    /* @Override
@@ -155,6 +179,8 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        // Opções que só os builds de debug têm, como os pets de exemplo e o trace
+        CatalogDebugMenu.onCreateOptionsMenu(this, menu);
         return true;
     }
 
@@ -171,17 +197,39 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 // Do nothing for now
                 return true;
         }
+        if (CatalogDebugMenu.onOptionsItemSelected(this, item)) {
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Prefetches the full rows of the visible pets and of the ones around them, so the editor
+     * can show them right away.
+     */
+    private void prefetchVisiblePets() {
+        int count = mPetCursorAdapter.getCount();
+        if (count == 0) {
+            return;
+        }
+        int first = Math.max(0, mPetListView.getFirstVisiblePosition() - PetPrefetcher.MARGIN);
+        int last = Math.min(count - 1,
+                mPetListView.getLastVisiblePosition() + PetPrefetcher.MARGIN);
+        if (last < first) {
+            return;
+        }
+        long[] ids = new long[last - first + 1];
+        for (int position = first; position <= last; position++) {
+            ids[position - first] = mPetCursorAdapter.getItemId(position);
+        }
+        PetPrefetcher.get(this).prefetch(ids);
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED,};
+        // As colunas do catálogo: o provider já roda esta consulta enquanto inicia, então a
+        // primeira carga encontra os pets lidos
+        String[] projection = PetEntry.CATALOG_PROJECTION;
 
         // Perform a query on the provider using the ContentResolver.
         // Use the {@link PetEntry#CONTENT_URI} to access the pet data.
@@ -195,7 +243,17 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        long section = PetTrace.begin("CatalogActivity.swapCursor", null);
         mPetCursorAdapter.swapCursor(data);
+        PetTrace.end(section, "rows", data == null ? 0 : data.getCount());
+
+        // As posições visíveis só são conhecidas depois do layout da lista
+        mPetListView.post(new Runnable() {
+            @Override
+            public void run() {
+                prefetchVisiblePets();
+            }
+        });
     }
 
     @Override
@@ -15,6 +15,7 @@
  */
 package com.example.android.pets;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.database.Cursor;
@@ -32,13 +33,16 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetRow;
 
 import java.net.URI;
 
@@ -63,10 +67,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private EditText mNameEditText;
 
     /**
-     * EditText field to enter the pet's breed
-     * Campo EditText para inserir a raça do animal de estimação
+     * EditText field to enter the pet's breed, suggesting the breeds already in use
+     * Campo EditText para inserir a raça do animal de estimação, sugerindo as raças já usadas
      */
-    private EditText mBreedEditText;
+    private AutoCompleteTextView mBreedEditText;
 
     /**
      * EditText field to enter the pet's weight
@@ -93,6 +97,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      * Database helper que nos dará acesso ao banco de dados */
     private PetDbHelper mDbHelper;
 
+    /**
+     * Pet prefetched by the catalog, shown without a loader (null if none or stale)
+     * Pet pré-carregado pelo catálogo, mostrado sem loader (nulo se não houver ou for velho) */
+    private Pet mPrefetchedPet;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -132,14 +141,19 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // and display the current values in the editor
 
             // Inicialize um carregador para ler os dados do animal de estimação do banco de dados
-            // e exibir os valores atuais no editor
-            getSupportLoaderManager().initLoader(EXISTING_PET_LOADER, null, this);
+            // e exibir os valores atuais no editor, a menos que o catálogo já os tenha
+            // carregado e eles ainda estejam atuais
+            mPrefetchedPet = PetPrefetcher.get(this)
+                    .getIfCurrent(ContentUris.parseId(mCurrentPetUri));
+            if (mPrefetchedPet == null) {
+                getSupportLoaderManager().initLoader(EXISTING_PET_LOADER, null, this);
+            }
         }
 
         // Find all relevant views that we will need to read user input from
         // Encontre todas as visualizações relevantes que precisaremos para ler a entrada do usuário de
         mNameEditText = (EditText) findViewById(R.id.edit_pet_name);
-        mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
+        mBreedEditText = (AutoCompleteTextView) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
 
@@ -150,6 +164,26 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
 
         setupSpinner();
+        setupBreedSuggestions();
+
+        // Pet pré-carregado: os campos são preenchidos já na primeira tela, sem esperar o
+        // loader. Depois de uma rotação, as views restauram o que o usuário digitou.
+        if (mPrefetchedPet != null && savedInstanceState == null) {
+            showPet(mPrefetchedPet.getName(), mPrefetchedPet.getBreed(),
+                    mPrefetchedPet.getGender(), mPrefetchedPet.getWeight());
+        }
+    }
+
+    /**
+     * Setup the suggestions of the breed field, so the same breed is always spelled the same way.
+     * Configura as sugestões do campo de raça, para que a mesma raça seja escrita sempre igual.
+     */
+    private void setupBreedSuggestions() {
+        BreedSuggestionAdapter breedAdapter = new BreedSuggestionAdapter(this);
+        mBreedEditText.setAdapter(breedAdapter);
+
+        // Prepara o índice de raças enquanto o usuário preenche o nome
+        breedAdapter.prepare();
     }
 
     /**
@@ -290,41 +324,38 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // Procede movendo o primeiro registro do cursor e lendo data dele
         // (Esta deveria ser o único registro do cursor)
         if (cursor.moveToFirst()) {
-            // Acha as colunas de atributos pet em que estamos interessados
-            int nameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
-            int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
-            int genderColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
-            int weightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
-
-            // Extrai o valor do Cursor para o índice de coluna dado
-            String name = cursor.getString(nameColumnIndex);
-            String breed = cursor.getString(breedColumnIndex);
-            int gender = cursor.getInt(genderColumnIndex);
-            int weight = cursor.getInt(weightColumnIndex);
-
-            // Atualize as views na tela com os valores do banco de dados
-            mNameEditText.setText(name);
-            mBreedEditText.setText(breed);
-            mWeightEditText.setText(Integer.toString(weight));
-
-            // Gênero é um spinner dropdown, então mapeie o valor da constante do banco de dados
-            // em uma das opções de dropdown (0 é Desconhecida, 1 é Masculino, 2 é Feminino).
-            // Então chame setSelection() para que a opção seja mostrada na tela como a seleção corrente.
-            switch (gender) {
-                case PetEntry.GENDER_MALE:
-                    mGenderSpinner.setSelection(1);
-                    break;
-                case PetEntry.GENDER_FEMALE:
-                    mGenderSpinner.setSelection(2);
-                    break;
-                default:
-                    mGenderSpinner.setSelection(0);
-                    break;
-            }
+            // Extrai os atributos do pet do registro atual
+            PetRow pet = new PetRow(cursor);
+            showPet(pet.getName(), pet.getBreed(), pet.getGender(), pet.getWeight());
         }
 
     }
 
+    /**
+     * Atualiza as views na tela com os valores do pet.
+     */
+    private void showPet(String name, String breed, int gender, int weight) {
+        // Atualize as views na tela com os valores do banco de dados
+        mNameEditText.setText(name);
+        mBreedEditText.setText(breed);
+        mWeightEditText.setText(Integer.toString(weight));
+
+        // Gênero é um spinner dropdown, então mapeie o valor da constante do banco de dados
+        // em uma das opções de dropdown (0 é Desconhecida, 1 é Masculino, 2 é Feminino).
+        // Então chame setSelection() para que a opção seja mostrada na tela como a seleção corrente.
+        switch (gender) {
+            case PetEntry.GENDER_MALE:
+                mGenderSpinner.setSelection(1);
+                break;
+            case PetEntry.GENDER_FEMALE:
+                mGenderSpinner.setSelection(2);
+                break;
+            default:
+                mGenderSpinner.setSelection(0);
+                break;
+        }
+    }
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
 
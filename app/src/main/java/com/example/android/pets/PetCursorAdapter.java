@@ -5,6 +5,7 @@ package com.example.android.pets;
  */
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.support.v4.widget.CursorAdapter;
 import android.view.LayoutInflater;
@@ -12,7 +13,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetRow;
+import com.example.android.pets.debug.PetTrace;
 
 /**
  * {@link PetCursorAdapter} is an adapter for a list or grid view
@@ -21,6 +23,28 @@ import com.example.android.pets.data.PetContract.PetEntry;
  */
 public class PetCursorAdapter extends CursorAdapter {
 
+    /** Initial size of the text buffers of a list item, enough for most names and breeds */
+    private static final int TEXT_BUFFER_SIZE = 32;
+
+    /**
+     * Views of a list item and the buffers their texts are copied into. A TextView keeps the
+     * array given to {@link TextView#setText(char[], int, int)}, so every item has its own.
+     */
+    private static final class ViewHolder {
+        final TextView name;
+        final TextView summary;
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+        final CharArrayBuffer breedBuffer = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+
+        ViewHolder(View view) {
+            name = (TextView) view.findViewById(R.id.name);
+            summary = (TextView) view.findViewById(R.id.summary);
+        }
+    }
+
+    /** Reads the rows of the cursor being bound; its column indices are found once per cursor */
+    private PetRow mRow;
+
     /**
      * Constructs a new {@link PetCursorAdapter}.
      *
@@ -42,8 +66,9 @@ public class PetCursorAdapter extends CursorAdapter {
      */
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        // TODO: Fill out this method and return the list item view (instead of null)
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        view.setTag(new ViewHolder(view));
+        return view;
     }
 
     /**
@@ -58,15 +83,19 @@ public class PetCursorAdapter extends CursorAdapter {
      */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
-        // TODO: Fill out this method
-        // Find fields to populate in inflated template
-        TextView tvNome = (TextView) view.findViewById(R.id.name);
-        TextView tvSummary = (TextView) view.findViewById(R.id.summary);
-
-        String name = cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME));
-        String weight = cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED));
+        long section = PetTrace.begin("PetCursorAdapter.bindView", null);
+        ViewHolder holder = (ViewHolder) view.getTag();
+        if (mRow == null) {
+            mRow = new PetRow(cursor);
+        } else {
+            mRow.wrap(cursor);
+        }
 
-        tvNome.setText(name);
-        tvSummary.setText(weight);
+        // Os textos são copiados nos buffers do item, sem criar Strings durante a rolagem
+        mRow.copyName(holder.nameBuffer);
+        mRow.copyBreed(holder.breedBuffer);
+        holder.name.setText(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
+        holder.summary.setText(holder.breedBuffer.data, 0, holder.breedBuffer.sizeCopied);
+        PetTrace.end(section, "position", cursor.getPosition());
     }
 }
@@ -0,0 +1,144 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.WriteGeneration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the full rows of the pets around the visible part of the catalog ahead of time, so that
+ * {@link EditorActivity} can show a pet as soon as it opens instead of waiting for its loader.
+ *
+ * Every prefetched pet is tagged with the write generation of the provider read before the
+ * query. It is only handed out while the generation is unchanged, so the editor never shows a
+ * pet that changed since it was prefetched. One instance per process, shared by the activities.
+ */
+public final class PetPrefetcher {
+
+    public static final String LOG_TAG = PetPrefetcher.class.getSimpleName();
+
+    /** Number of rows prefetched above and below the visible ones */
+    public static final int MARGIN = 10;
+
+    /** Number of pets kept in memory, the least recently used are dropped */
+    private static final int MAX_PETS = 200;
+
+    /** A prefetched pet and the write generation it was read at */
+    private static final class Entry {
+        final Pet pet;
+        final long generation;
+
+        Entry(Pet pet, long generation) {
+            this.pet = pet;
+            this.generation = generation;
+        }
+    }
+
+    private static PetPrefetcher sInstance;
+
+    private final ContentResolver mResolver;
+    private final LruCache<Long, Entry> mPets = new LruCache<Long, Entry>(MAX_PETS);
+    private final Handler mWorker;
+
+    private PetPrefetcher(Context context) {
+        mResolver = context.getContentResolver();
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWorker = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Returns the prefetcher of the process.
+     */
+    public static synchronized PetPrefetcher get(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetPrefetcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Loads the pets with the given IDs in the background, unless they are already prefetched
+     * and current. Replaces the prefetch asked for before, if it hasn't started yet: only the
+     * latest window of the catalog matters.
+     */
+    public void prefetch(final long[] ids) {
+        mWorker.removeCallbacksAndMessages(null);
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                load(ids);
+            }
+        });
+    }
+
+    /**
+     * Returns the prefetched pet with the given ID if it is still current, or null otherwise.
+     * Only reads memory, so it can be called on the main thread.
+     */
+    public Pet getIfCurrent(long id) {
+        Entry entry = mPets.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.generation != readGeneration()) {
+            mPets.remove(id);
+            return null;
+        }
+        return entry.pet;
+    }
+
+    private void load(long[] ids) {
+        // A generation é lida antes da consulta: uma escrita durante a consulta deixa os pets
+        // marcados com a generation antiga, e eles não são entregues
+        long generation = readGeneration();
+        List<String> missing = new ArrayList<String>(ids.length);
+        for (long id : ids) {
+            Entry entry = mPets.get(id);
+            if (entry == null || entry.generation != generation) {
+                missing.add(String.valueOf(id));
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+        for (int i = 0; i < missing.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, Pet.PROJECTION,
+                selection.toString(), missing.toArray(new String[missing.size()]), null);
+        if (cursor == null) {
+            Log.w(LOG_TAG, "Failed to prefetch " + missing.size() + " pets");
+            return;
+        }
+        try {
+            for (Pet pet : Pet.listFrom(cursor)) {
+                mPets.put(pet.getId(), new Entry(pet, generation));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long readGeneration() {
+        Bundle result = mResolver.call(PetContract.BASE_CONTENT_URI,
+                PetContract.METHOD_WRITE_GENERATION, null, null);
+        return result.getLong(WriteGeneration.GENERATION);
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Map;
+
+/**
+ * Encodes breeds into their codes in {@link BreedEntry} on write, and decodes them on read
+ * through an in-memory copy of the dictionary.
+ *
+ * The copy is an array indexed by code, reloaded from the database whenever a code is missing
+ * from it. Codes only ever reach the copy from committed rows, so an entry never goes stale:
+ * breeds are never renamed or deleted.
+ */
+final class BreedDictionary {
+
+    /** Names of the breeds, indexed by code; null for codes not loaded (or unused) */
+    private volatile String[] mNames = new String[0];
+
+    /**
+     * Returns the values with {@link PetEntry#COLUMN_PET_BREED} replaced by the code of the breed
+     * in {@link PetEntry#COLUMN_PET_BREED_ID}, adding the breed to the dictionary if it is new.
+     * Must be called in the transaction of the write.
+     *
+     * @param codes codes already looked up in the current transaction, or null
+     */
+    static ContentValues encode(SQLiteDatabase database, ContentValues values,
+                                Map<String, Long> codes) {
+        if (!values.containsKey(PetEntry.COLUMN_PET_BREED)) {
+            return values;
+        }
+        ContentValues encoded = new ContentValues(values);
+        String breed = encoded.getAsString(PetEntry.COLUMN_PET_BREED);
+        encoded.remove(PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            encoded.putNull(PetEntry.COLUMN_PET_BREED_ID);
+            return encoded;
+        }
+
+        encoded.put(PetEntry.COLUMN_PET_BREED_ID, code(database, breed, codes));
+        return encoded;
+    }
+
+    /**
+     * Returns the code of the breed, adding it to the dictionary if it is new. Must be called in
+     * the transaction of the write.
+     *
+     * @param codes codes already looked up in the current transaction, or null
+     */
+    static long code(SQLiteDatabase database, String breed, Map<String, Long> codes) {
+        Long code = codes == null ? null : codes.get(breed);
+        if (code == null) {
+            String[] args = { breed };
+            database.execSQL("INSERT OR IGNORE INTO " + BreedEntry.TABLE_NAME + " ("
+                    + BreedEntry.COLUMN_BREED_NAME + ") VALUES (?);", args);
+            code = DatabaseUtils.longForQuery(database, "SELECT " + BreedEntry._ID + " FROM "
+                    + BreedEntry.TABLE_NAME + " WHERE " + BreedEntry.COLUMN_BREED_NAME + " = ?",
+                    args);
+            if (codes != null) {
+                codes.put(breed, code);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Wraps a cursor whose column {@code breedColumn} holds breed codes so that it reads as the
+     * breed names, like {@link PetEntry#VIEW_NAME} would. The in-memory copy is brought up to
+     * date first, so that reading the cursor later, maybe on the main thread, doesn't have to
+     * query the dictionary.
+     */
+    Cursor decode(SQLiteDatabase database, Cursor cursor, int breedColumn) {
+        long maxCode = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                + BreedEntry._ID + "), 0) FROM " + BreedEntry.TABLE_NAME, null);
+        if (maxCode >= mNames.length) {
+            reload(database);
+        }
+        return new DecodingCursor(cursor, breedColumn, database);
+    }
+
+    /**
+     * Returns the name of the breed with the given code, reloading the dictionary if needed.
+     */
+    private String name(SQLiteDatabase database, long code) {
+        String[] names = mNames;
+        if (code >= 0 && code < names.length && names[(int) code] != null) {
+            return names[(int) code];
+        }
+        names = reload(database);
+        if (code >= 0 && code < names.length && names[(int) code] != null) {
+            return names[(int) code];
+        }
+        throw new IllegalStateException("Unknown breed code " + code);
+    }
+
+    private synchronized String[] reload(SQLiteDatabase database) {
+        // Códigos são lidos de uma conexão fora de transações de escrita, então só de raças
+        // já gravadas
+        Cursor cursor = database.query(BreedEntry.TABLE_NAME,
+                new String[] { BreedEntry._ID, BreedEntry.COLUMN_BREED_NAME },
+                null, null, null, null, BreedEntry._ID + " DESC");
+        try {
+            String[] names = new String[0];
+            while (cursor.moveToNext()) {
+                int code = cursor.getInt(0);
+                if (names.length == 0) {
+                    // Maior código primeiro, para dimensionar o array de uma vez
+                    names = new String[code + 1];
+                }
+                names[code] = cursor.getString(1);
+            }
+            mNames = names;
+            return names;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Cursor that reads one column of breed codes as breed names. The other columns are passed
+     * through.
+     */
+    private final class DecodingCursor extends CursorWrapper {
+
+        private final int mBreedColumn;
+        private final SQLiteDatabase mDatabase;
+
+        DecodingCursor(Cursor cursor, int breedColumn, SQLiteDatabase database) {
+            super(cursor);
+            mBreedColumn = breedColumn;
+            mDatabase = database;
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            if (columnIndex != mBreedColumn) {
+                return super.getString(columnIndex);
+            }
+            return super.isNull(columnIndex) ? null : name(mDatabase, super.getLong(columnIndex));
+        }
+
+        @Override
+        public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+            if (columnIndex != mBreedColumn) {
+                super.copyStringToBuffer(columnIndex, buffer);
+                return;
+            }
+            String breed = getString(columnIndex);
+            char[] data = buffer.data;
+            if (breed == null) {
+                buffer.sizeCopied = 0;
+                return;
+            }
+            if (data == null || data.length < breed.length()) {
+                buffer.data = breed.toCharArray();
+            } else {
+                breed.getChars(0, breed.length(), data, 0);
+            }
+            buffer.sizeCopied = breed.length();
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            if (columnIndex != mBreedColumn) {
+                return super.getType(columnIndex);
+            }
+            return super.isNull(columnIndex) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+        }
+
+        // Como no SQLite, o texto de uma raça lido como número vale 0
+
+        @Override
+        public short getShort(int columnIndex) {
+            return columnIndex == mBreedColumn ? 0 : super.getShort(columnIndex);
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            return columnIndex == mBreedColumn ? 0 : super.getInt(columnIndex);
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            return columnIndex == mBreedColumn ? 0 : super.getLong(columnIndex);
+        }
+
+        @Override
+        public float getFloat(int columnIndex) {
+            return columnIndex == mBreedColumn ? 0 : super.getFloat(columnIndex);
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            return columnIndex == mBreedColumn ? 0 : super.getDouble(columnIndex);
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            if (columnIndex != mBreedColumn) {
+                return super.getBlob(columnIndex);
+            }
+            String breed = getString(columnIndex);
+            return breed == null ? null : breed.getBytes();
+        }
+    }
+}
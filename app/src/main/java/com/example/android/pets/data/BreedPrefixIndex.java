@@ -0,0 +1,336 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.debug.PetTrace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory prefix index over the distinct breeds of the store, ranked by the number of pets of
+ * each breed, to suggest breeds as they are typed.
+ *
+ * The index is a sorted array of the breeds by their lowercase form: the breeds starting with a
+ * prefix are one contiguous range, found by binary search, and the most frequent ones are picked
+ * from that range. A lookup takes microseconds and never touches the database, so it is safe on
+ * the main thread.
+ *
+ * It is built on a background thread the first time it is asked for suggestions, with one scan of
+ * the breed column, and kept up to date afterwards by the provider, which passes the breeds
+ * gained and lost by every write to {@link #apply}. The breeds lost are only known by querying
+ * the pets about to be updated or deleted, which the provider skips until the index is built.
+ * That query is not in the transaction of the write: when the write affects another number of
+ * pets than the query found, a concurrent write got in between and the provider asks for a
+ * rebuild instead. Published versions are immutable, so lookups take no lock.
+ *
+ * A write during the scan of a build makes the scan start over, at most {@link #MAX_SCANS}
+ * times. Under writes that never stop, the last scan is published anyway, so suggestions don't
+ * wait for the writes to end, and the next suggestion asked for after it starts a new build.
+ */
+final class BreedPrefixIndex {
+
+    private static final String LOG_TAG = BreedPrefixIndex.class.getSimpleName();
+
+    private static final String[] BREED_PROJECTION = { PetEntry.COLUMN_PET_BREED };
+
+    /** Number of scans a build makes before publishing one that writes may have overlapped */
+    static final int MAX_SCANS = 3;
+
+    /** Orders breeds by their key, then by the exact text */
+    private static final Comparator<String> BREED_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            int byKey = key(a).compareTo(key(b));
+            return byKey != 0 ? byKey : a.compareTo(b);
+        }
+    };
+
+    /**
+     * One version of the index: the breeds sorted by {@link #BREED_ORDER} with their counts.
+     */
+    private static final class Snapshot {
+        final String[] keys;
+        final String[] breeds;
+        final int[] counts;
+
+        Snapshot(String[] keys, String[] breeds, int[] counts) {
+            this.keys = keys;
+            this.breeds = breeds;
+            this.counts = counts;
+        }
+
+        static Snapshot of(Map<String, Integer> counts) {
+            String[] breeds = counts.keySet().toArray(new String[counts.size()]);
+            Arrays.sort(breeds, BREED_ORDER);
+            String[] keys = new String[breeds.length];
+            int[] breedCounts = new int[breeds.length];
+            for (int i = 0; i < breeds.length; i++) {
+                keys[i] = key(breeds[i]);
+                breedCounts[i] = counts.get(breeds[i]);
+            }
+            return new Snapshot(keys, breeds, breedCounts);
+        }
+
+        /**
+         * Returns the version with the counts changed by the deltas. Only the counts are copied
+         * when no breed appears or disappears, which is the common case.
+         */
+        Snapshot with(Map<String, Integer> deltas) {
+            int[] counts = this.counts.clone();
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                int i = Arrays.binarySearch(breeds, delta.getKey(), BREED_ORDER);
+                if (i < 0 || counts[i] + delta.getValue() <= 0) {
+                    return rebuiltWith(deltas);
+                }
+                counts[i] += delta.getValue();
+            }
+            return new Snapshot(keys, breeds, counts);
+        }
+
+        private Snapshot rebuiltWith(Map<String, Integer> deltas) {
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            for (int i = 0; i < breeds.length; i++) {
+                counts.put(breeds[i], this.counts[i]);
+            }
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                add(counts, delta.getKey(), delta.getValue());
+            }
+            return of(counts);
+        }
+    }
+
+    /**
+     * The breeds of the pets matched by a selection, as found by {@link #countBreeds}.
+     */
+    static final class Lookup {
+        /** Number of pets of each breed; empty breeds are not counted */
+        final Map<String, Integer> counts;
+        /** Number of pets matched, including the ones with an empty breed */
+        final int pets;
+
+        Lookup(Map<String, Integer> counts, int pets) {
+            this.counts = counts;
+            this.pets = pets;
+        }
+    }
+
+    private final PetStore mStore;
+
+    private final Object mLock = new Object();
+
+    /** Current version of the index, null until built */
+    private volatile Snapshot mSnapshot;
+
+    /** Whether the current version may have missed writes made during its scan */
+    private volatile boolean mStale;
+
+    // Guardados por mLock
+    private boolean mBuildStarted;
+    /** Number of writes applied, to tell whether one happened during a build */
+    private long mChanges;
+
+    BreedPrefixIndex(PetStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Returns true once the index is built. Until then, writes don't need to look up the breeds
+     * they remove.
+     */
+    boolean isBuilt() {
+        return mSnapshot != null;
+    }
+
+    /**
+     * Returns at most {@code limit} breeds starting with the prefix, ignoring case, the most
+     * frequent first. Returns an empty list while the index is not built, and starts building it
+     * on the first call.
+     */
+    List<String> suggest(String prefix, int limit) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            buildInBackground();
+            return Collections.emptyList();
+        }
+        if (mStale) {
+            buildInBackground();
+        }
+        String key = key(prefix);
+        String[] keys = snapshot.keys;
+        int[] counts = snapshot.counts;
+
+        // Busca binária do início do intervalo de chaves com o prefixo
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        // As mais frequentes do intervalo, em ordem; empates ficam em ordem alfabética
+        int[] best = new int[Math.max(limit, 0)];
+        int found = 0;
+        for (int i = low; i < keys.length && keys[i].startsWith(key); i++) {
+            if (found == best.length && (found == 0 || counts[i] <= counts[best[found - 1]])) {
+                continue;
+            }
+            int position = found == best.length ? found - 1 : found++;
+            while (position > 0 && counts[best[position - 1]] < counts[i]) {
+                best[position] = best[position - 1];
+                position--;
+            }
+            best[position] = i;
+        }
+
+        List<String> breeds = new ArrayList<String>(found);
+        for (int i = 0; i < found; i++) {
+            breeds.add(snapshot.breeds[best[i]]);
+        }
+        return breeds;
+    }
+
+    /**
+     * Changes the counts of the breeds by the deltas, the number of pets of each breed added
+     * (positive) or removed (negative) by a write. Breeds left without pets are dropped. Must be
+     * called after every write that may change breeds, even before the index is built, so that a
+     * build running concurrently sees it.
+     *
+     * @param deltas the changes, or null if they are unknown because the index was not built
+     *               when the write started
+     */
+    void apply(Map<String, Integer> deltas) {
+        synchronized (mLock) {
+            mChanges++;
+            Snapshot snapshot = mSnapshot;
+            if (snapshot == null || (deltas != null && deltas.isEmpty())) {
+                return;
+            }
+            if (deltas != null) {
+                mSnapshot = snapshot.with(deltas);
+                return;
+            }
+            // O índice ficou pronto durante a escrita, cujas raças não são conhecidas: as
+            // sugestões atuais continuam valendo até a nova varredura, que uma construção em
+            // andamento já vai fazer
+        }
+        buildInBackground();
+    }
+
+    /**
+     * Returns the number of pets of each breed among the pets matching the selection (all of them
+     * if it is null), with the number of pets matched.
+     */
+    Lookup countBreeds(String selection, String[] selectionArgs) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Cursor cursor = mStore.query(BREED_PROJECTION, selection, selectionArgs, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                add(counts, cursor.getString(0), 1);
+            }
+            return new Lookup(counts, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds {@code n} pets of the breed to the counts. Empty breeds are not indexed.
+     */
+    static void add(Map<String, Integer> counts, String breed, int n) {
+        if (breed == null || breed.trim().length() == 0 || n == 0) {
+            return;
+        }
+        Integer count = counts.get(breed);
+        int total = (count == null ? 0 : count) + n;
+        if (total == 0) {
+            counts.remove(breed);
+        } else {
+            counts.put(breed, total);
+        }
+    }
+
+    /**
+     * Returns the counts with the opposite sign, the deltas of removing those pets.
+     */
+    static Map<String, Integer> negate(Map<String, Integer> counts) {
+        Map<String, Integer> negated = new HashMap<String, Integer>(counts.size());
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            negated.put(count.getKey(), -count.getValue());
+        }
+        return negated;
+    }
+
+    private void buildInBackground() {
+        synchronized (mLock) {
+            if (mBuildStarted) {
+                return;
+            }
+            mBuildStarted = true;
+            mStale = false;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                build();
+            }
+        }, LOG_TAG).start();
+    }
+
+    private void build() {
+        long section = PetTrace.begin("BreedPrefixIndex.build", null);
+        int breeds = 0;
+        try {
+            // Uma escrita durante a varredura pode ou não estar nela: nesse caso, varre de novo
+            for (int scan = 1; ; scan++) {
+                long changes;
+                synchronized (mLock) {
+                    changes = mChanges;
+                }
+                Map<String, Integer> counts = countBreeds(null, null).counts;
+                synchronized (mLock) {
+                    boolean overlapped = changes != mChanges;
+                    if (!overlapped || scan == MAX_SCANS) {
+                        if (overlapped) {
+                            Log.w(LOG_TAG, "Writes overlapped " + scan + " scans, publishing the"
+                                    + " last one until the next build");
+                            mStale = true;
+                        }
+                        mSnapshot = Snapshot.of(counts);
+                        breeds = counts.size();
+                        mBuildStarted = false;
+                        return;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to build the breed index", e);
+            synchronized (mLock) {
+                mBuildStarted = false;
+            }
+        } finally {
+            PetTrace.end(section, "breeds", breeds);
+        }
+    }
+
+    /**
+     * Returns the form of the breed compared with prefixes.
+     */
+    private static String key(String breed) {
+        return breed.trim().toLowerCase(Locale.ROOT);
+    }
+}
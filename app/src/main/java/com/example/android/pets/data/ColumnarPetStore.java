@@ -0,0 +1,637 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.CancellationSignal;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory, column-oriented {@link PetStore}.
+ *
+ * Every column is a primitive array indexed by row, rows being kept in ascending ID order. Genders
+ * and weights are stored as plain numbers, names and breeds as codes into a pool holding each
+ * distinct string once. Scans and counts therefore walk a few dense arrays instead of decoding
+ * database pages, and conditions on names and breeds are evaluated once per distinct string.
+ *
+ * Nothing is persisted: the store starts empty, or with a copy of another store through
+ * {@link #copyOf(PetStore)}. Selections are limited to what {@link ColumnarSelection} understands.
+ */
+public class ColumnarPetStore implements PetStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Column indexes, in the order of {@link #ALL_COLUMNS} */
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_BREED = 2;
+    private static final int COLUMN_GENDER = 3;
+    private static final int COLUMN_WEIGHT = 4;
+
+    private static final String[] ALL_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Code of a null string in the name and breed columns */
+    private static final int NULL_CODE = -1;
+
+    /** Code looked up for a string that is not in the pool, so it matches no row */
+    private static final int MISSING_CODE = -2;
+
+    /** Number of rows scanned between two checks of the cancellation signal */
+    private static final int CANCELLATION_CHECK_ROWS = 4096;
+
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /** Pool of distinct names and breeds, a string's code being its index in the list */
+    private final List<String> mStrings = new ArrayList<String>();
+    private final Map<String, Integer> mStringCodes = new HashMap<String, Integer>();
+
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int[] mNames = new int[INITIAL_CAPACITY];
+    private int[] mBreeds = new int[INITIAL_CAPACITY];
+    private byte[] mGenders = new byte[INITIAL_CAPACITY];
+    private int[] mWeights = new int[INITIAL_CAPACITY];
+    private int mSize;
+    private long mNextId = 1;
+
+    /**
+     * Returns a new columnar store holding a copy of all the pets of the given store, with the
+     * same IDs.
+     */
+    public static ColumnarPetStore copyOf(PetStore source) {
+        ColumnarPetStore store = new ColumnarPetStore();
+        Cursor cursor = source.query(ALL_COLUMNS, null, null, PetEntry._ID, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.clear();
+                values.put(PetEntry._ID, cursor.getLong(COLUMN_ID));
+                values.put(PetEntry.COLUMN_PET_NAME, cursor.getString(COLUMN_NAME));
+                values.put(PetEntry.COLUMN_PET_BREED, cursor.getString(COLUMN_BREED));
+                values.put(PetEntry.COLUMN_PET_GENDER, cursor.getInt(COLUMN_GENDER));
+                values.put(PetEntry.COLUMN_PET_WEIGHT, cursor.getInt(COLUMN_WEIGHT));
+                store.insert(values);
+            }
+        } finally {
+            cursor.close();
+        }
+        return store;
+    }
+
+    @Override
+    public Cursor query(String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        if (projection == null) {
+            projection = ALL_COLUMNS;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = columnIndex(projection[i]);
+        }
+        List<ColumnarSelection.SortKey> sortKeys = ColumnarSelection.parseSortOrder(sortOrder);
+
+        mLock.readLock().lock();
+        try {
+            int[] rows = matchingRows(selection, selectionArgs, cancellationSignal);
+            if (!sortKeys.isEmpty()) {
+                rows = sort(rows, sortKeys);
+                throwIfCanceled(cancellationSignal);
+            }
+            MatrixCursor cursor = new MatrixCursor(projection, rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                if (i % CANCELLATION_CHECK_ROWS == 0) {
+                    throwIfCanceled(cancellationSignal);
+                }
+                int row = rows[i];
+                Object[] values = new Object[columns.length];
+                for (int column = 0; column < columns.length; column++) {
+                    values[column] = value(row, columns[column]);
+                }
+                cursor.addRow(values);
+            }
+            return cursor;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long insert(ContentValues values) {
+        mLock.writeLock().lock();
+        try {
+            return insertLocked(values);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int insertAll(ContentValues[] values) {
+        mLock.writeLock().lock();
+        try {
+            // Checa todas as linhas antes de inserir, para inserir todas ou nenhuma: as colunas,
+            // e os IDs explícitos, que são recusados pelo insertLocked fora de ordem
+            long nextId = mNextId;
+            for (ContentValues pet : values) {
+                checkColumns(pet);
+                Long requestedId = pet.getAsLong(PetEntry._ID);
+                if (requestedId != null && requestedId < nextId) {
+                    return 0;
+                }
+                nextId = (requestedId != null ? requestedId : nextId) + 1;
+            }
+            for (ContentValues pet : values) {
+                insertLocked(pet);
+            }
+            return values.length;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    private long insertLocked(ContentValues values) {
+        checkColumns(values);
+        long id;
+        Long requestedId = values.getAsLong(PetEntry._ID);
+        if (requestedId != null) {
+            // IDs explícitos só são aceitos em ordem crescente, para manter as linhas ordenadas
+            if (requestedId < mNextId) {
+                return -1;
+            }
+            id = requestedId;
+        } else {
+            id = mNextId;
+        }
+        ensureCapacity(mSize + 1);
+        int row = mSize++;
+        mIds[row] = id;
+        mNames[row] = encode(values.getAsString(PetEntry.COLUMN_PET_NAME));
+        mBreeds[row] = encode(values.getAsString(PetEntry.COLUMN_PET_BREED));
+        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        mGenders[row] = (byte) (gender == null ? PetEntry.GENDER_UNKNOWN : gender);
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        mWeights[row] = weight == null ? 0 : weight;
+        mNextId = id + 1;
+        return id;
+    }
+
+    @Override
+    public int update(ContentValues values, String selection, String[] selectionArgs) {
+        checkColumns(values);
+        if (values.containsKey(PetEntry._ID)) {
+            throw new IllegalArgumentException("The columnar store can't change pet IDs");
+        }
+        mLock.writeLock().lock();
+        try {
+            int[] rows = matchingRows(selection, selectionArgs, null);
+            for (int row : rows) {
+                if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+                    mNames[row] = encode(values.getAsString(PetEntry.COLUMN_PET_NAME));
+                }
+                if (values.containsKey(PetEntry.COLUMN_PET_BREED)) {
+                    mBreeds[row] = encode(values.getAsString(PetEntry.COLUMN_PET_BREED));
+                }
+                if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+                    mGenders[row] = values.getAsInteger(PetEntry.COLUMN_PET_GENDER).byteValue();
+                }
+                if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
+                    Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+                    mWeights[row] = weight == null ? 0 : weight;
+                }
+            }
+            return rows.length;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int delete(String selection, String[] selectionArgs) {
+        mLock.writeLock().lock();
+        try {
+            int[] rows = matchingRows(selection, selectionArgs, null);
+            if (rows.length == 0) {
+                return 0;
+            }
+            // Compacta as colunas numa única passada, mantendo a ordem das linhas
+            int target = rows[0];
+            int next = 0;
+            for (int row = rows[0]; row < mSize; row++) {
+                if (next < rows.length && rows[next] == row) {
+                    next++;
+                    continue;
+                }
+                mIds[target] = mIds[row];
+                mNames[target] = mNames[row];
+                mBreeds[target] = mBreeds[row];
+                mGenders[target] = mGenders[row];
+                mWeights[target] = mWeights[row];
+                target++;
+            }
+            mSize = target;
+            return rows.length;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long count(String selection, String[] selectionArgs) {
+        mLock.readLock().lock();
+        try {
+            if (selection == null) {
+                return mSize;
+            }
+            RowFilter[] filters = compile(selection, selectionArgs);
+            long count = 0;
+            for (int row = 0; row < mSize; row++) {
+                if (matches(filters, row)) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the rows matching the selection, in ascending order. Must hold the lock.
+     */
+    private int[] matchingRows(String selection, String[] selectionArgs,
+                               CancellationSignal cancellationSignal) {
+        List<ColumnarSelection.Clause> clauses = ColumnarSelection.parse(selection, selectionArgs);
+
+        // Busca binária para "_id = ?", o caso de PET_ID
+        if (clauses.size() == 1 && clauses.get(0).op == ColumnarSelection.OP_EQ
+                && columnIndex(clauses.get(0).column) == COLUMN_ID) {
+            int row = Arrays.binarySearch(mIds, 0, mSize, parseLong(clauses.get(0).values[0]));
+            return row >= 0 ? new int[] { row } : new int[0];
+        }
+
+        RowFilter[] filters = compile(clauses);
+        int[] rows = new int[mSize];
+        int count = 0;
+        for (int row = 0; row < mSize; row++) {
+            if (row % CANCELLATION_CHECK_ROWS == 0) {
+                throwIfCanceled(cancellationSignal);
+            }
+            if (matches(filters, row)) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    private static void throwIfCanceled(CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+    }
+
+    private static boolean matches(RowFilter[] filters, int row) {
+        for (RowFilter filter : filters) {
+            if (!filter.matches(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private RowFilter[] compile(String selection, String[] selectionArgs) {
+        return compile(ColumnarSelection.parse(selection, selectionArgs));
+    }
+
+    private RowFilter[] compile(List<ColumnarSelection.Clause> clauses) {
+        RowFilter[] filters = new RowFilter[clauses.size()];
+        for (int i = 0; i < filters.length; i++) {
+            ColumnarSelection.Clause clause = clauses.get(i);
+            int column = columnIndex(clause.column);
+            if (column == COLUMN_NAME || column == COLUMN_BREED) {
+                filters[i] = new StringFilter(column, clause);
+            } else {
+                filters[i] = new NumberFilter(column, clause);
+            }
+        }
+        return filters;
+    }
+
+    private int[] sort(int[] rows, final List<ColumnarSelection.SortKey> sortKeys) {
+        final int[] keyColumns = new int[sortKeys.size()];
+        for (int i = 0; i < keyColumns.length; i++) {
+            keyColumns[i] = columnIndex(sortKeys.get(i).column);
+        }
+        Integer[] boxed = new Integer[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            boxed[i] = rows[i];
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                for (int i = 0; i < keyColumns.length; i++) {
+                    int result = compareValues(a, b, keyColumns[i]);
+                    if (result != 0) {
+                        return sortKeys.get(i).descending ? -result : result;
+                    }
+                }
+                return 0;
+            }
+        });
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = boxed[i];
+        }
+        return rows;
+    }
+
+    /**
+     * Compares the column of two rows the way SQLite does by default: nulls first, numbers by
+     * value and strings by their characters.
+     */
+    private int compareValues(int a, int b, int column) {
+        switch (column) {
+            case COLUMN_ID:
+                return compareLongs(mIds[a], mIds[b]);
+            case COLUMN_GENDER:
+                return compareLongs(mGenders[a], mGenders[b]);
+            case COLUMN_WEIGHT:
+                return compareLongs(mWeights[a], mWeights[b]);
+            default:
+                int[] codes = column == COLUMN_NAME ? mNames : mBreeds;
+                int codeA = codes[a];
+                int codeB = codes[b];
+                if (codeA == codeB) {
+                    return 0;
+                } else if (codeA == NULL_CODE) {
+                    return -1;
+                } else if (codeB == NULL_CODE) {
+                    return 1;
+                }
+                return mStrings.get(codeA).compareTo(mStrings.get(codeB));
+        }
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private Object value(int row, int column) {
+        switch (column) {
+            case COLUMN_ID:
+                return mIds[row];
+            case COLUMN_NAME:
+                return decode(mNames[row]);
+            case COLUMN_BREED:
+                return decode(mBreeds[row]);
+            case COLUMN_GENDER:
+                return (int) mGenders[row];
+            default:
+                return mWeights[row];
+        }
+    }
+
+    private int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = mStringCodes.get(value);
+        if (code == null) {
+            code = mStrings.size();
+            mStrings.add(value);
+            mStringCodes.put(value, code);
+        }
+        return code;
+    }
+
+    private String decode(int code) {
+        return code == NULL_CODE ? null : mStrings.get(code);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mNames = Arrays.copyOf(mNames, newCapacity);
+        mBreeds = Arrays.copyOf(mBreeds, newCapacity);
+        mGenders = Arrays.copyOf(mGenders, newCapacity);
+        mWeights = Arrays.copyOf(mWeights, newCapacity);
+    }
+
+    private static void checkColumns(ContentValues values) {
+        for (String key : values.keySet()) {
+            columnIndex(key);
+        }
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < ALL_COLUMNS.length; i++) {
+            if (ALL_COLUMNS[i].equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column for the columnar store: " + column);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    /**
+     * A compiled clause of a selection.
+     */
+    private interface RowFilter {
+        boolean matches(int row);
+    }
+
+    /**
+     * Clause on the ID, gender or weight column.
+     */
+    private final class NumberFilter implements RowFilter {
+        private final int mColumn;
+        private final int mOp;
+        private final long mValue;
+        private final long[] mValues;
+        private final Pattern mLike;
+
+        NumberFilter(int column, ColumnarSelection.Clause clause) {
+            mColumn = column;
+            mOp = clause.op;
+            if (mOp == ColumnarSelection.OP_IN) {
+                mValues = new long[clause.values.length];
+                for (int i = 0; i < mValues.length; i++) {
+                    mValues[i] = parseLong(clause.values[i]);
+                }
+                Arrays.sort(mValues);
+                mValue = 0;
+                mLike = null;
+            } else if (mOp == ColumnarSelection.OP_LIKE || mOp == ColumnarSelection.OP_NOT_LIKE) {
+                mLike = likePattern(clause.values[0]);
+                mValue = 0;
+                mValues = null;
+            } else {
+                mValue = clause.values.length == 0 ? 0 : parseLong(clause.values[0]);
+                mValues = null;
+                mLike = null;
+            }
+        }
+
+        @Override
+        public boolean matches(int row) {
+            long value;
+            if (mColumn == COLUMN_ID) {
+                value = mIds[row];
+            } else if (mColumn == COLUMN_GENDER) {
+                value = mGenders[row];
+            } else {
+                value = mWeights[row];
+            }
+            switch (mOp) {
+                case ColumnarSelection.OP_EQ:
+                    return value == mValue;
+                case ColumnarSelection.OP_NE:
+                    return value != mValue;
+                case ColumnarSelection.OP_LT:
+                    return value < mValue;
+                case ColumnarSelection.OP_LE:
+                    return value <= mValue;
+                case ColumnarSelection.OP_GT:
+                    return value > mValue;
+                case ColumnarSelection.OP_GE:
+                    return value >= mValue;
+                case ColumnarSelection.OP_IN:
+                    return Arrays.binarySearch(mValues, value) >= 0;
+                case ColumnarSelection.OP_LIKE:
+                    return mLike.matcher(Long.toString(value)).matches();
+                case ColumnarSelection.OP_NOT_LIKE:
+                    return !mLike.matcher(Long.toString(value)).matches();
+                case ColumnarSelection.OP_IS_NULL:
+                    return false;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Clause on the name or breed column. The outcome only depends on the string, so it is
+     * computed once per string code and remembered for the other rows.
+     */
+    private final class StringFilter implements RowFilter {
+        private static final byte UNKNOWN = 0;
+        private static final byte MATCH = 1;
+        private static final byte NO_MATCH = 2;
+
+        private final int[] mCodes;
+        private final ColumnarSelection.Clause mClause;
+        private final Pattern mLike;
+        private final int mEqualCode;
+        private final byte[] mOutcomes = new byte[mStrings.size()];
+
+        StringFilter(int column, ColumnarSelection.Clause clause) {
+            mCodes = column == COLUMN_NAME ? mNames : mBreeds;
+            mClause = clause;
+            boolean like = clause.op == ColumnarSelection.OP_LIKE
+                    || clause.op == ColumnarSelection.OP_NOT_LIKE;
+            mLike = like ? likePattern(clause.values[0]) : null;
+            Integer code = clause.values.length == 0 ? null : mStringCodes.get(clause.values[0]);
+            mEqualCode = code == null ? MISSING_CODE : code;
+        }
+
+        @Override
+        public boolean matches(int row) {
+            int code = mCodes[row];
+            switch (mClause.op) {
+                case ColumnarSelection.OP_IS_NULL:
+                    return code == NULL_CODE;
+                case ColumnarSelection.OP_NOT_NULL:
+                    return code != NULL_CODE;
+                case ColumnarSelection.OP_EQ:
+                    return code == mEqualCode;
+                case ColumnarSelection.OP_NE:
+                    return code != NULL_CODE && code != mEqualCode;
+                default:
+                    if (code == NULL_CODE) {
+                        return false;
+                    }
+                    byte outcome = mOutcomes[code];
+                    if (outcome == UNKNOWN) {
+                        outcome = evaluate(mStrings.get(code)) ? MATCH : NO_MATCH;
+                        mOutcomes[code] = outcome;
+                    }
+                    return outcome == MATCH;
+            }
+        }
+
+        private boolean evaluate(String value) {
+            switch (mClause.op) {
+                case ColumnarSelection.OP_LIKE:
+                    return mLike.matcher(value).matches();
+                case ColumnarSelection.OP_NOT_LIKE:
+                    return !mLike.matcher(value).matches();
+                case ColumnarSelection.OP_IN:
+                    for (String candidate : mClause.values) {
+                        if (candidate.equals(value)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                default:
+                    int result = value.compareTo(mClause.values[0]);
+                    switch (mClause.op) {
+                        case ColumnarSelection.OP_LT:
+                            return result < 0;
+                        case ColumnarSelection.OP_LE:
+                            return result <= 0;
+                        case ColumnarSelection.OP_GT:
+                            return result > 0;
+                        default:
+                            return result >= 0;
+                    }
+            }
+        }
+    }
+
+    /**
+     * Translates a SQL LIKE pattern into a regular expression: {@code %} matches any run of
+     * characters, {@code _} any single character, and the match ignores case like SQLite does.
+     */
+    private static Pattern likePattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    }
+}
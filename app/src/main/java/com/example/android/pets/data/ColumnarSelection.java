@@ -0,0 +1,288 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parser of the selections and sort orders understood by {@link ColumnarPetStore}.
+ *
+ * Only the subset of SQL used against the pets table is supported: comparisons of a column with a
+ * value ({@code = == != <> < <= > >=}), {@code [NOT] LIKE}, {@code IS [NOT] NULL} and
+ * {@code IN (...)}, joined by {@code AND} and optionally parenthesized. Values are {@code ?}
+ * placeholders, integers or quoted strings. Anything else is rejected with an
+ * {@link IllegalArgumentException}, so a selection is never silently misread.
+ */
+final class ColumnarSelection {
+
+    /** Comparison operators */
+    static final int OP_EQ = 0;
+    static final int OP_NE = 1;
+    static final int OP_LT = 2;
+    static final int OP_LE = 3;
+    static final int OP_GT = 4;
+    static final int OP_GE = 5;
+    static final int OP_LIKE = 6;
+    static final int OP_NOT_LIKE = 7;
+    static final int OP_IS_NULL = 8;
+    static final int OP_NOT_NULL = 9;
+    static final int OP_IN = 10;
+
+    /**
+     * One comparison of the selection. {@code values} holds the compared values, one for every
+     * operator except {@code IN} (several) and the null checks (none).
+     */
+    static final class Clause {
+        final String column;
+        final int op;
+        final String[] values;
+
+        Clause(String column, int op, String[] values) {
+            this.column = column;
+            this.op = op;
+            this.values = values;
+        }
+    }
+
+    /**
+     * One key of a sort order.
+     */
+    static final class SortKey {
+        final String column;
+        final boolean descending;
+
+        SortKey(String column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+    }
+
+    private final String mSource;
+    private final List<String> mTokens;
+    private final String[] mArgs;
+    private int mPosition;
+    private int mArgIndex;
+
+    private ColumnarSelection(String source, String[] args) {
+        mSource = source;
+        mTokens = tokenize(source);
+        mArgs = args;
+    }
+
+    /**
+     * Parses the selection into the list of clauses that must all hold, binding the arguments.
+     * A null or empty selection yields no clauses.
+     */
+    static List<Clause> parse(String selection, String[] selectionArgs) {
+        List<Clause> clauses = new ArrayList<Clause>();
+        if (selection == null || selection.trim().length() == 0) {
+            return clauses;
+        }
+        ColumnarSelection parser = new ColumnarSelection(selection, selectionArgs);
+        parser.parseConjunction(clauses);
+        if (parser.mPosition != parser.mTokens.size()) {
+            throw parser.unsupported();
+        }
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        if (parser.mArgIndex != argCount) {
+            throw new IllegalArgumentException("Selection " + selection + " has "
+                    + parser.mArgIndex + " placeholders but " + argCount + " arguments");
+        }
+        return clauses;
+    }
+
+    /**
+     * Parses a sort order made of columns, each optionally followed by ASC or DESC.
+     */
+    static List<SortKey> parseSortOrder(String sortOrder) {
+        List<SortKey> keys = new ArrayList<SortKey>();
+        if (sortOrder == null || sortOrder.trim().length() == 0) {
+            return keys;
+        }
+        for (String part : sortOrder.split(",")) {
+            String[] words = part.trim().split("\\s+");
+            if (words.length > 2 || !isIdentifier(words[0])) {
+                throw new IllegalArgumentException("Unsupported sort order: " + sortOrder);
+            }
+            boolean descending = false;
+            if (words.length == 2) {
+                if (words[1].equalsIgnoreCase("DESC")) {
+                    descending = true;
+                } else if (!words[1].equalsIgnoreCase("ASC")) {
+                    throw new IllegalArgumentException("Unsupported sort order: " + sortOrder);
+                }
+            }
+            keys.add(new SortKey(words[0], descending));
+        }
+        return keys;
+    }
+
+    private void parseConjunction(List<Clause> clauses) {
+        parseTerm(clauses);
+        while (acceptKeyword("AND")) {
+            parseTerm(clauses);
+        }
+    }
+
+    private void parseTerm(List<Clause> clauses) {
+        if (accept("(")) {
+            parseConjunction(clauses);
+            expect(")");
+            return;
+        }
+        String column = next();
+        if (!isIdentifier(column)) {
+            throw unsupported();
+        }
+        if (acceptKeyword("IS")) {
+            boolean not = acceptKeyword("NOT");
+            if (!acceptKeyword("NULL")) {
+                throw unsupported();
+            }
+            clauses.add(new Clause(column, not ? OP_NOT_NULL : OP_IS_NULL, new String[0]));
+        } else if (acceptKeyword("NOT")) {
+            if (!acceptKeyword("LIKE")) {
+                throw unsupported();
+            }
+            clauses.add(new Clause(column, OP_NOT_LIKE, new String[] { value() }));
+        } else if (acceptKeyword("LIKE")) {
+            clauses.add(new Clause(column, OP_LIKE, new String[] { value() }));
+        } else if (acceptKeyword("IN")) {
+            expect("(");
+            List<String> values = new ArrayList<String>();
+            do {
+                values.add(value());
+            } while (accept(","));
+            expect(")");
+            clauses.add(new Clause(column, OP_IN, values.toArray(new String[values.size()])));
+        } else {
+            clauses.add(new Clause(column, operator(next()), new String[] { value() }));
+        }
+    }
+
+    private int operator(String token) {
+        if (token.equals("=") || token.equals("==")) {
+            return OP_EQ;
+        } else if (token.equals("!=") || token.equals("<>")) {
+            return OP_NE;
+        } else if (token.equals("<")) {
+            return OP_LT;
+        } else if (token.equals("<=")) {
+            return OP_LE;
+        } else if (token.equals(">")) {
+            return OP_GT;
+        } else if (token.equals(">=")) {
+            return OP_GE;
+        }
+        throw unsupported();
+    }
+
+    /**
+     * Returns the next value: a bound argument, an integer or the content of a quoted string.
+     */
+    private String value() {
+        String token = next();
+        if (token.equals("?")) {
+            if (mArgs == null || mArgIndex >= mArgs.length) {
+                throw new IllegalArgumentException("Missing argument in selection " + mSource);
+            }
+            return mArgs[mArgIndex++];
+        } else if (token.startsWith("'")) {
+            return token.substring(1, token.length() - 1).replace("''", "'");
+        } else if (token.matches("-?\\d+")) {
+            return token;
+        }
+        throw unsupported();
+    }
+
+    private String next() {
+        if (mPosition >= mTokens.size()) {
+            throw unsupported();
+        }
+        return mTokens.get(mPosition++);
+    }
+
+    private boolean accept(String token) {
+        if (mPosition < mTokens.size() && mTokens.get(mPosition).equals(token)) {
+            mPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (mPosition < mTokens.size() && mTokens.get(mPosition).equalsIgnoreCase(keyword)) {
+            mPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw unsupported();
+        }
+    }
+
+    private IllegalArgumentException unsupported() {
+        return new IllegalArgumentException("Unsupported selection for the columnar store: "
+                + mSource);
+    }
+
+    private static boolean isIdentifier(String token) {
+        return token.matches("[A-Za-z_][A-Za-z0-9_]*")
+                && !token.toUpperCase(Locale.US).equals("AND");
+    }
+
+    /**
+     * Splits the selection into identifiers, numbers, quoted strings, operators and punctuation.
+     */
+    private static List<String> tokenize(String source) {
+        List<String> tokens = new ArrayList<String>();
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            } else if (Character.isLetter(c) || c == '_') {
+                while (i < length && (Character.isLetterOrDigit(source.charAt(i))
+                        || source.charAt(i) == '_')) {
+                    i++;
+                }
+            } else if (Character.isDigit(c) || (c == '-' && i + 1 < length
+                    && Character.isDigit(source.charAt(i + 1)))) {
+                i++;
+                while (i < length && Character.isDigit(source.charAt(i))) {
+                    i++;
+                }
+            } else if (c == '\'') {
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new IllegalArgumentException("Unterminated string in " + source);
+                    }
+                    if (source.charAt(i) == '\'') {
+                        if (i + 1 < length && source.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+            } else if (i + 1 < length && (source.startsWith("<=", i) || source.startsWith(">=", i)
+                    || source.startsWith("!=", i) || source.startsWith("<>", i)
+                    || source.startsWith("==", i))) {
+                i += 2;
+            } else {
+                i++;
+            }
+            tokens.add(source.substring(start, i));
+        }
+        return tokens;
+    }
+}
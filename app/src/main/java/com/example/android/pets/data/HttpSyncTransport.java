@@ -0,0 +1,75 @@
+package com.example.android.pets.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * {@link SyncTransport} that posts every request to the shelter server over HTTP(S). The payloads
+ * are already compressed, so they are sent as they are.
+ */
+public class HttpSyncTransport implements SyncTransport {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /** Generous, for slow links: a page of changes can take a while to arrive */
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+
+    private final URL mUrl;
+
+    /**
+     * Constructs a new {@link HttpSyncTransport}.
+     *
+     * @param url address of the sync endpoint of the shelter server
+     */
+    public HttpSyncTransport(String url) {
+        try {
+            mUrl = new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid sync server URL " + url, e);
+        }
+    }
+
+    @Override
+    public byte[] exchange(byte[] request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setFixedLengthStreamingMode(request.length);
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(request);
+            } finally {
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Sync server answered " + status);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    response.write(buffer, 0, read);
+                }
+                return response.toByteArray();
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.pets.data;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Detects database accesses made on the main thread through {@link PetProvider} and
+ * {@link PetDbHelper}, where they block the UI and cause jank.
+ *
+ * In {@link #MODE_RECORD}, the default of debug builds, every main-thread access is logged and
+ * kept with its duration and the stack trace of the caller, to be read back with
+ * {@link #getAccesses()}. In {@link #MODE_THROW}, meant for tests, the access fails with an
+ * {@link IllegalStateException} before touching the database. Release builds default to
+ * {@link #MODE_OFF}, where the checks cost one volatile read.
+ *
+ * Nested accesses, like the database opened by a provider insert, are reported once, as the
+ * outermost one.
+ */
+public final class MainThreadDbAccessDetector {
+
+    public static final String LOG_TAG = MainThreadDbAccessDetector.class.getSimpleName();
+
+    /** No detection */
+    public static final int MODE_OFF = 0;
+    /** Main-thread accesses are logged and recorded */
+    public static final int MODE_RECORD = 1;
+    /** Main-thread accesses throw an {@link IllegalStateException} */
+    public static final int MODE_THROW = 2;
+
+    /** Maximum number of accesses kept; the oldest are dropped first */
+    private static final int MAX_RECORDED = 100;
+
+    /** Tokens returned by {@link #begin} for accesses that are not timed */
+    private static final long NOT_TRACKED = -1;
+    private static final long NESTED = -2;
+
+    /**
+     * A database access made on the main thread.
+     */
+    public static final class Access {
+        /** What was accessed, like "insert content://com.example.android.pets/pets" */
+        public final String operation;
+        /** How long the access blocked the main thread */
+        public final long durationMillis;
+        /** Where the access came from */
+        public final Throwable stackTrace;
+
+        Access(String operation, long durationMillis, Throwable stackTrace) {
+            this.operation = operation;
+            this.durationMillis = durationMillis;
+            this.stackTrace = stackTrace;
+        }
+
+        @Override
+        public String toString() {
+            return operation + " took " + durationMillis + "ms on the main thread";
+        }
+    }
+
+    private static volatile int sMode = BuildConfig.DEBUG ? MODE_RECORD : MODE_OFF;
+
+    private static final LinkedList<Access> sAccesses = new LinkedList<Access>();
+
+    // Estado da chamada em andamento; só é tocado pela thread principal
+    private static int sDepth;
+    private static String sOperation;
+    private static Throwable sStackTrace;
+
+    private MainThreadDbAccessDetector() {}
+
+    /**
+     * Sets the detection mode, one of {@link #MODE_OFF}, {@link #MODE_RECORD} or
+     * {@link #MODE_THROW}.
+     */
+    public static void setMode(int mode) {
+        if (mode != MODE_OFF && mode != MODE_RECORD && mode != MODE_THROW) {
+            throw new IllegalArgumentException("Unknown detection mode " + mode);
+        }
+        sMode = mode;
+    }
+
+    public static int getMode() {
+        return sMode;
+    }
+
+    /**
+     * Returns the recorded main-thread accesses, oldest first.
+     */
+    public static List<Access> getAccesses() {
+        synchronized (sAccesses) {
+            return new ArrayList<Access>(sAccesses);
+        }
+    }
+
+    /**
+     * Forgets the recorded accesses.
+     */
+    public static void clear() {
+        synchronized (sAccesses) {
+            sAccesses.clear();
+        }
+    }
+
+    /**
+     * Marks the start of a database access. Must be paired with {@link #end} in a finally block,
+     * passing the returned token.
+     *
+     * @param operation kind of access, like "query"
+     * @param target    what is accessed, like the URI; only turned into a string on the main
+     *                  thread
+     * @throws IllegalStateException on the main thread in {@link #MODE_THROW}
+     */
+    static long begin(String operation, Object target) {
+        int mode = sMode;
+        if (mode == MODE_OFF || Looper.myLooper() != Looper.getMainLooper()) {
+            return NOT_TRACKED;
+        }
+        if (sDepth++ > 0) {
+            return NESTED;
+        }
+        String description = target == null ? operation : operation + " " + target;
+        if (mode == MODE_THROW) {
+            sDepth--;
+            throw new IllegalStateException("Database access on the main thread: " + description);
+        }
+        sOperation = description;
+        sStackTrace = new Throwable("Main thread database access");
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Marks the end of the access started by {@link #begin}, recording it if it was the
+     * outermost main-thread access.
+     */
+    static void end(long token) {
+        if (token == NOT_TRACKED) {
+            return;
+        }
+        sDepth--;
+        if (token == NESTED) {
+            return;
+        }
+        Access access = new Access(sOperation, SystemClock.uptimeMillis() - token, sStackTrace);
+        sOperation = null;
+        sStackTrace = null;
+        Log.w(LOG_TAG, access.toString(), access.stackTrace);
+        synchronized (sAccesses) {
+            if (sAccesses.size() == MAX_RECORDED) {
+                sAccesses.removeFirst();
+            }
+            sAccesses.add(access);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pets packed column by column into one file, the result of {@link PetContract#METHOD_READ_ALL}.
+ * The consumer maps the file once and reads the values in place, instead of receiving them in
+ * {@link android.database.CursorWindow} chunks, one Binder transaction each.
+ *
+ * Layout, little-endian, every section aligned to its element size:
+ * <pre>
+ * int     magic, format, rows, breeds
+ * long    _id[rows]
+ * int     weight[rows]
+ * int     breed[rows]             index into the breeds, -1 for no breed
+ * int     nameStart[rows + 1]     offsets into the name bytes
+ * int     breedStart[breeds + 1]  offsets into the breed bytes
+ * byte    gender[rows]
+ * byte    name bytes, UTF-8
+ * byte    breed bytes, UTF-8
+ * </pre>
+ * The breeds are stored once each, like in the breed dictionary of the database.
+ *
+ * A {@link PackedPets} reads a mapped file. It is not thread safe.
+ */
+public final class PackedPets {
+
+    /** Columns of the pets packed into the file, in this order */
+    static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** "PETS", first int of the file */
+    private static final int MAGIC = 0x53544550;
+
+    /** Version of the layout, second int of the file */
+    private static final int FORMAT = 1;
+
+    private static final int HEADER_BYTES = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    /** View of the buffer positioned on the text being decoded */
+    private final ByteBuffer mText;
+    private final int mRows;
+    private final String[] mBreeds;
+
+    // Início de cada seção no arquivo
+    private final int mIds;
+    private final int mWeights;
+    private final int mBreedCodes;
+    private final int mNameStarts;
+    private final int mGenders;
+    private final int mNameBytes;
+
+    /** Holds the bytes of one name while it is decoded */
+    private byte[] mScratch = new byte[64];
+
+    private PackedPets(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        mText = buffer.duplicate();
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a packed pets file");
+        }
+        if (buffer.getInt(4) != FORMAT) {
+            throw new IOException("Unknown packed pets format " + buffer.getInt(4));
+        }
+        mRows = buffer.getInt(8);
+        int breedCount = buffer.getInt(12);
+
+        mIds = HEADER_BYTES;
+        mWeights = mIds + 8 * mRows;
+        mBreedCodes = mWeights + 4 * mRows;
+        mNameStarts = mBreedCodes + 4 * mRows;
+        int breedStarts = mNameStarts + 4 * (mRows + 1);
+        mGenders = breedStarts + 4 * (breedCount + 1);
+        mNameBytes = mGenders + mRows;
+        int breedBytes = mNameBytes + nameStart(mRows);
+        if (breedBytes + buffer.getInt(breedStarts + 4 * breedCount) > buffer.capacity()) {
+            throw new IOException("Truncated packed pets file");
+        }
+
+        // Poucas raças: decodificadas uma vez, compartilhadas por todos os pets
+        mBreeds = new String[breedCount];
+        for (int i = 0; i < breedCount; i++) {
+            int start = buffer.getInt(breedStarts + 4 * i);
+            int end = buffer.getInt(breedStarts + 4 * (i + 1));
+            mBreeds[i] = decode(breedBytes + start, end - start);
+        }
+    }
+
+    /**
+     * Maps the file returned by {@link PetContract#METHOD_READ_ALL}. The file descriptor is
+     * closed; the mapping stays valid until the {@link PackedPets} is garbage collected.
+     */
+    public static PackedPets map(ParcelFileDescriptor file) throws IOException {
+        FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return new PackedPets(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Packs all the rows of the cursor, which has the {@link #COLUMNS}, into a new file in the
+     * directory and returns it opened for reading. The file is already deleted, so it goes away
+     * with the last descriptor. The cursor is read once: past one window, every rewind would
+     * run the query again.
+     */
+    static ParcelFileDescriptor write(Cursor cursor, File directory) throws IOException {
+        int rows = cursor.getCount();
+        long[] ids = new long[rows];
+        int[] weights = new int[rows];
+        byte[] genders = new byte[rows];
+        byte[][] names = new byte[rows][];
+        int[] breedCodes = new int[rows];
+        Map<String, Integer> breedIndex = new HashMap<String, Integer>();
+        byte[][] breeds = new byte[16][];
+        int nameBytes = 0;
+        int breedBytes = 0;
+
+        // Única passada: guarda as colunas e codifica os textos para saber o tamanho do arquivo
+        cursor.moveToPosition(-1);
+        for (int row = 0; cursor.moveToNext(); row++) {
+            ids[row] = cursor.getLong(0);
+            weights[row] = cursor.getInt(4);
+            genders[row] = (byte) cursor.getInt(3);
+            names[row] = cursor.getString(1).getBytes(UTF_8);
+            nameBytes += names[row].length;
+            String breed = cursor.getString(2);
+            if (breed == null) {
+                breedCodes[row] = -1;
+                continue;
+            }
+            Integer code = breedIndex.get(breed);
+            if (code == null) {
+                code = breedIndex.size();
+                breedIndex.put(breed, code);
+                if (code == breeds.length) {
+                    byte[][] grown = new byte[code * 2][];
+                    System.arraycopy(breeds, 0, grown, 0, code);
+                    breeds = grown;
+                }
+                breeds[code] = breed.getBytes(UTF_8);
+                breedBytes += breeds[code].length;
+            }
+            breedCodes[row] = code;
+        }
+        int breedCount = breedIndex.size();
+        long size = HEADER_BYTES + 17L * rows + 4L * (rows + 1) + 4L * (breedCount + 1)
+                + nameBytes + breedBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too many pets to pack: " + rows);
+        }
+
+        File file = File.createTempFile("pets", ".packed", directory);
+        try {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer buffer = out.getChannel()
+                        .map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(FORMAT).putInt(rows).putInt(breedCount);
+
+                for (long id : ids) {
+                    buffer.putLong(id);
+                }
+                for (int weight : weights) {
+                    buffer.putInt(weight);
+                }
+                for (int code : breedCodes) {
+                    buffer.putInt(code);
+                }
+                int offset = 0;
+                for (byte[] name : names) {
+                    buffer.putInt(offset);
+                    offset += name.length;
+                }
+                buffer.putInt(offset);
+                offset = 0;
+                for (int i = 0; i < breedCount; i++) {
+                    buffer.putInt(offset);
+                    offset += breeds[i].length;
+                }
+                buffer.putInt(offset);
+                buffer.put(genders);
+                for (byte[] name : names) {
+                    buffer.put(name);
+                }
+                for (int i = 0; i < breedCount; i++) {
+                    buffer.put(breeds[i]);
+                }
+            } finally {
+                out.close();
+            }
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** Returns the number of pets */
+    public int getCount() {
+        return mRows;
+    }
+
+    public long getId(int row) {
+        return mBuffer.getLong(mIds + 8 * checkRow(row));
+    }
+
+    public String getName(int row) {
+        int start = nameStart(checkRow(row));
+        return decode(mNameBytes + start, nameStart(row + 1) - start);
+    }
+
+    /** Returns the breed of the pet, or null */
+    public String getBreed(int row) {
+        int code = mBuffer.getInt(mBreedCodes + 4 * checkRow(row));
+        return code < 0 ? null : mBreeds[code];
+    }
+
+    public int getGender(int row) {
+        return mBuffer.get(mGenders + checkRow(row));
+    }
+
+    public int getWeight(int row) {
+        return mBuffer.getInt(mWeights + 4 * checkRow(row));
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= mRows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + mRows);
+        }
+        return row;
+    }
+
+    private int nameStart(int row) {
+        return mBuffer.getInt(mNameStarts + 4 * row);
+    }
+
+    private String decode(int position, int length) {
+        if (mScratch.length < length) {
+            mScratch = new byte[Math.max(length, mScratch.length * 2)];
+        }
+        mText.position(position);
+        mText.get(mScratch, 0, length);
+        return new String(mScratch, 0, length, UTF_8);
+    }
+}
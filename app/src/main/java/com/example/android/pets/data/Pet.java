@@ -0,0 +1,106 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable pet read from the pets table, as delivered by {@link PetQueryStream}.
+ */
+public final class Pet {
+
+    /** Columns read by {@link #listFrom(Cursor)}, in the order of the pets table */
+    public static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private final long mId;
+    private final String mName;
+    private final String mBreed;
+    private final int mGender;
+    private final int mWeight;
+
+    public Pet(long id, String name, String breed, int gender, int weight) {
+        mId = id;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /** Breed of the pet, or null if unknown */
+    public String getBreed() {
+        return mBreed;
+    }
+
+    /**
+     * Gender of the pet, one of {@link PetEntry#GENDER_UNKNOWN}, {@link PetEntry#GENDER_MALE}
+     * or {@link PetEntry#GENDER_FEMALE}.
+     */
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+
+    /**
+     * Reads every row of the cursor, which must contain the columns of {@link #PROJECTION}.
+     * The cursor is left open.
+     */
+    public static List<Pet> listFrom(Cursor cursor) {
+        PetRow row = new PetRow(cursor);
+        List<Pet> pets = new ArrayList<Pet>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            pets.add(row.toPet());
+        }
+        return pets;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pet)) {
+            return false;
+        }
+        Pet other = (Pet) o;
+        return mId == other.mId
+                && mGender == other.mGender
+                && mWeight == other.mWeight
+                && (mName == null ? other.mName == null : mName.equals(other.mName))
+                && (mBreed == null ? other.mBreed == null : mBreed.equals(other.mBreed));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mId ^ (mId >>> 32));
+        result = 31 * result + (mName != null ? mName.hashCode() : 0);
+        result = 31 * result + (mBreed != null ? mBreed.hashCode() : 0);
+        result = 31 * result + mGender;
+        result = 31 * result + mWeight;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Pet{" + mId + ", " + mName + ", " + mBreed + ", " + mGender + ", " + mWeight + "}";
+    }
+}
@@ -0,0 +1,494 @@
+package com.example.android.pets.data;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of pet IDs, for {@link PetFacetIndex}.
+ *
+ * The IDs are split by their high 16 bits into chunks of 65536 possible IDs. A chunk is stored as
+ * the sorted array of the low 16 bits of its IDs while it holds at most {@link #ARRAY_MAX} of
+ * them, and as a bitmap of its 65536 possible IDs otherwise, which is never bigger than the
+ * array: a sparse set costs 2 bytes per ID and a dense one 1 bit per possible ID (the layout of
+ * Roaring bitmaps). Intersections and unions go chunk by chunk, 64 IDs per operation between
+ * bitmaps.
+ *
+ * IDs are non-negative ints. Not thread safe.
+ */
+final class PetBitmap {
+
+    /** Largest number of IDs of a chunk stored as an array, 8 KB like a bitmap */
+    private static final int ARRAY_MAX = 4096;
+
+    /** Number of words of a chunk stored as a bitmap */
+    private static final int BITMAP_WORDS = 65536 / 64;
+
+    /** Ratio of array sizes above which an intersection searches instead of merging */
+    private static final int GALLOP_RATIO = 16;
+
+    // Chunks em ordem de chave (os 16 bits altos): o conteúdo é char[] ou long[]
+    private int[] mKeys = new int[4];
+    private Object[] mChunks = new Object[4];
+    private int[] mCounts = new int[4];
+    private int mSize;
+
+    /**
+     * Adds the ID. Returns false if it was already in the set.
+     */
+    boolean add(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative pet ID " + id);
+        }
+        int key = id >>> 16;
+        char low = (char) id;
+        int i = findChunk(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, key, new char[4], 0);
+        }
+        Object chunk = mChunks[i];
+        if (chunk instanceof long[]) {
+            long[] bits = (long[]) chunk;
+            long bit = 1L << low;
+            if ((bits[low >>> 6] & bit) != 0) {
+                return false;
+            }
+            bits[low >>> 6] |= bit;
+            mCounts[i]++;
+            return true;
+        }
+
+        char[] values = (char[]) chunk;
+        int count = mCounts[i];
+        int at = Arrays.binarySearch(values, 0, count, low);
+        if (at >= 0) {
+            return false;
+        }
+        at = -at - 1;
+        if (count == ARRAY_MAX) {
+            long[] bits = toBits(values, count);
+            bits[low >>> 6] |= 1L << low;
+            mChunks[i] = bits;
+        } else {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(count * 2, ARRAY_MAX));
+                mChunks[i] = values;
+            }
+            // Em ordem crescente de ID, o caso da construção do índice, nada é deslocado
+            System.arraycopy(values, at, values, at + 1, count - at);
+            values[at] = low;
+        }
+        mCounts[i]++;
+        return true;
+    }
+
+    /**
+     * Removes the ID. Returns false if it was not in the set.
+     */
+    boolean remove(int id) {
+        int i = id < 0 ? -1 : findChunk(id >>> 16);
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) id;
+        Object chunk = mChunks[i];
+        if (chunk instanceof long[]) {
+            long[] bits = (long[]) chunk;
+            long bit = 1L << low;
+            if ((bits[low >>> 6] & bit) == 0) {
+                return false;
+            }
+            bits[low >>> 6] &= ~bit;
+            if (--mCounts[i] <= ARRAY_MAX) {
+                mChunks[i] = toValues(bits, mCounts[i]);
+            }
+            return true;
+        }
+
+        char[] values = (char[]) chunk;
+        int count = mCounts[i];
+        int at = Arrays.binarySearch(values, 0, count, low);
+        if (at < 0) {
+            return false;
+        }
+        System.arraycopy(values, at + 1, values, at, count - at - 1);
+        if (--mCounts[i] == 0) {
+            removeChunk(i);
+        }
+        return true;
+    }
+
+    boolean contains(int id) {
+        int i = id < 0 ? -1 : findChunk(id >>> 16);
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) id;
+        Object chunk = mChunks[i];
+        if (chunk instanceof long[]) {
+            return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) chunk, 0, mCounts[i], low) >= 0;
+    }
+
+    /** Returns the number of IDs in the set */
+    int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < mSize; i++) {
+            cardinality += mCounts[i];
+        }
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /** Returns the IDs of the set in ascending order */
+    long[] toIds() {
+        long[] ids = new long[getCardinality()];
+        int n = 0;
+        for (int i = 0; i < mSize; i++) {
+            long high = (long) mKeys[i] << 16;
+            Object chunk = mChunks[i];
+            if (chunk instanceof long[]) {
+                long[] bits = (long[]) chunk;
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    long w = bits[word];
+                    while (w != 0) {
+                        ids[n++] = high | (word << 6) | Long.numberOfTrailingZeros(w);
+                        w &= w - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) chunk;
+                for (int j = 0; j < mCounts[i]; j++) {
+                    ids[n++] = high | values[j];
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns a copy of the set with all its chunks stored as bitmaps. Intersecting it with
+     * another set then takes time in proportion to the size of the other set only, which pays
+     * off for a filter intersected with many sets.
+     */
+    PetBitmap toDense() {
+        PetBitmap dense = new PetBitmap();
+        for (int i = 0; i < mSize; i++) {
+            Object chunk = mChunks[i];
+            dense.appendChunk(mKeys[i], chunk instanceof long[] ? ((long[]) chunk).clone()
+                    : toBits((char[]) chunk, mCounts[i]), mCounts[i]);
+        }
+        return dense;
+    }
+
+    /**
+     * Returns the IDs in both sets.
+     */
+    static PetBitmap and(PetBitmap a, PetBitmap b) {
+        PetBitmap result = new PetBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.mSize && j < b.mSize) {
+            if (a.mKeys[i] < b.mKeys[j]) {
+                i++;
+            } else if (a.mKeys[i] > b.mKeys[j]) {
+                j++;
+            } else {
+                result.andChunks(a.mKeys[i], a.mChunks[i], a.mCounts[i], b.mChunks[j],
+                        b.mCounts[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of IDs in both sets, without building their intersection.
+     */
+    static int andCardinality(PetBitmap a, PetBitmap b) {
+        int cardinality = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.mSize && j < b.mSize) {
+            if (a.mKeys[i] < b.mKeys[j]) {
+                i++;
+            } else if (a.mKeys[i] > b.mKeys[j]) {
+                j++;
+            } else {
+                Object x = a.mChunks[i];
+                Object y = b.mChunks[j];
+                if (x instanceof long[] && y instanceof long[]) {
+                    long[] xBits = (long[]) x;
+                    long[] yBits = (long[]) y;
+                    for (int word = 0; word < BITMAP_WORDS; word++) {
+                        cardinality += Long.bitCount(xBits[word] & yBits[word]);
+                    }
+                } else if (x instanceof long[]) {
+                    cardinality += countIn((long[]) x, (char[]) y, b.mCounts[j]);
+                } else if (y instanceof long[]) {
+                    cardinality += countIn((long[]) y, (char[]) x, a.mCounts[i]);
+                } else {
+                    cardinality += intersect((char[]) x, a.mCounts[i], (char[]) y, b.mCounts[j],
+                            null);
+                }
+                i++;
+                j++;
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * Returns the IDs in either set.
+     */
+    static PetBitmap or(PetBitmap a, PetBitmap b) {
+        PetBitmap result = new PetBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.mSize || j < b.mSize) {
+            if (j == b.mSize || (i < a.mSize && a.mKeys[i] < b.mKeys[j])) {
+                result.appendChunk(a.mKeys[i], copy(a.mChunks[i], a.mCounts[i]), a.mCounts[i]);
+                i++;
+            } else if (i == a.mSize || a.mKeys[i] > b.mKeys[j]) {
+                result.appendChunk(b.mKeys[j], copy(b.mChunks[j], b.mCounts[j]), b.mCounts[j]);
+                j++;
+            } else {
+                result.orChunks(a.mKeys[i], a.mChunks[i], a.mCounts[i], b.mChunks[j],
+                        b.mCounts[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private void andChunks(int key, Object x, int xCount, Object y, int yCount) {
+        if (x instanceof long[] && y instanceof long[]) {
+            long[] xBits = (long[]) x;
+            long[] yBits = (long[]) y;
+            long[] bits = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                bits[word] = xBits[word] & yBits[word];
+                count += Long.bitCount(bits[word]);
+            }
+            if (count > ARRAY_MAX) {
+                appendChunk(key, bits, count);
+            } else if (count > 0) {
+                appendChunk(key, toValues(bits, count), count);
+            }
+            return;
+        }
+        if (y instanceof long[]) {
+            Object swap = x;
+            x = y;
+            y = swap;
+            yCount = xCount;
+        }
+        char[] yValues = (char[]) y;
+        char[] values = new char[yCount];
+        int count;
+        if (x instanceof long[]) {
+            long[] bits = (long[]) x;
+            count = 0;
+            for (int k = 0; k < yCount; k++) {
+                char low = yValues[k];
+                if ((bits[low >>> 6] & (1L << low)) != 0) {
+                    values[count++] = low;
+                }
+            }
+        } else {
+            count = intersect((char[]) x, xCount, yValues, yCount, values);
+        }
+        if (count > 0) {
+            appendChunk(key, values, count);
+        }
+    }
+
+    private void orChunks(int key, Object x, int xCount, Object y, int yCount) {
+        if (x instanceof long[] || y instanceof long[]) {
+            if (y instanceof long[]) {
+                Object swap = x;
+                x = y;
+                y = swap;
+                yCount = xCount;
+            }
+            long[] bits = ((long[]) x).clone();
+            if (y instanceof long[]) {
+                long[] yBits = (long[]) y;
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    bits[word] |= yBits[word];
+                }
+            } else {
+                char[] yValues = (char[]) y;
+                for (int k = 0; k < yCount; k++) {
+                    bits[yValues[k] >>> 6] |= 1L << yValues[k];
+                }
+            }
+            int count = 0;
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                count += Long.bitCount(bits[word]);
+            }
+            appendChunk(key, bits, count);
+            return;
+        }
+
+        // Junção de duas listas ordenadas
+        char[] xValues = (char[]) x;
+        char[] yValues = (char[]) y;
+        char[] values = new char[xCount + yCount];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < xCount || j < yCount) {
+            if (j == yCount || (i < xCount && xValues[i] < yValues[j])) {
+                values[count++] = xValues[i++];
+            } else if (i == xCount || xValues[i] > yValues[j]) {
+                values[count++] = yValues[j++];
+            } else {
+                values[count++] = xValues[i++];
+                j++;
+            }
+        }
+        appendChunk(key, count > ARRAY_MAX ? toBits(values, count) : values, count);
+    }
+
+    /**
+     * Intersects two sorted arrays into {@code out}, if not null, and returns the number of values
+     * in both.
+     */
+    private static int intersect(char[] x, int xCount, char[] y, int yCount, char[] out) {
+        if (xCount > yCount) {
+            return intersect(y, yCount, x, xCount, out);
+        }
+        if (xCount * GALLOP_RATIO < yCount) {
+            return gallop(x, xCount, y, yCount, out);
+        }
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < xCount && j < yCount) {
+            if (x[i] < y[j]) {
+                i++;
+            } else if (x[i] > y[j]) {
+                j++;
+            } else {
+                if (out != null) {
+                    out[count] = x[i];
+                }
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Intersects a short sorted array with a much longer one, looking up each value of the short
+     * one by exponential then binary search from the position of the previous one, instead of
+     * walking the whole long one.
+     */
+    private static int gallop(char[] x, int xCount, char[] y, int yCount, char[] out) {
+        int count = 0;
+        int low = 0;
+        for (int i = 0; i < xCount && low < yCount; i++) {
+            char value = x[i];
+            int step = 1;
+            int high = low;
+            while (high < yCount && y[high] < value) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int at = Arrays.binarySearch(y, low, Math.min(high + 1, yCount), value);
+            if (at >= 0) {
+                if (out != null) {
+                    out[count] = value;
+                }
+                count++;
+                low = at + 1;
+            } else {
+                low = -at - 1;
+            }
+        }
+        return count;
+    }
+
+    private static int countIn(long[] bits, char[] values, int count) {
+        int found = 0;
+        for (int k = 0; k < count; k++) {
+            if ((bits[values[k] >>> 6] & (1L << values[k])) != 0) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static long[] toBits(char[] values, int count) {
+        long[] bits = new long[BITMAP_WORDS];
+        for (int k = 0; k < count; k++) {
+            bits[values[k] >>> 6] |= 1L << values[k];
+        }
+        return bits;
+    }
+
+    private static char[] toValues(long[] bits, int count) {
+        char[] values = new char[count];
+        int n = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            long w = bits[word];
+            while (w != 0) {
+                values[n++] = (char) ((word << 6) | Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+        return values;
+    }
+
+    private static Object copy(Object chunk, int count) {
+        if (chunk instanceof long[]) {
+            return ((long[]) chunk).clone();
+        }
+        return Arrays.copyOf((char[]) chunk, count);
+    }
+
+    private int findChunk(int key) {
+        // Atalho para o último chunk, onde caem os pets mais novos
+        if (mSize > 0 && mKeys[mSize - 1] == key) {
+            return mSize - 1;
+        }
+        return Arrays.binarySearch(mKeys, 0, mSize, key);
+    }
+
+    private void appendChunk(int key, Object chunk, int count) {
+        insertChunk(mSize, key, chunk, count);
+    }
+
+    private void insertChunk(int i, int key, Object chunk, int count) {
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2);
+            mChunks = Arrays.copyOf(mChunks, mSize * 2);
+            mCounts = Arrays.copyOf(mCounts, mSize * 2);
+        }
+        System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+        System.arraycopy(mChunks, i, mChunks, i + 1, mSize - i);
+        System.arraycopy(mCounts, i, mCounts, i + 1, mSize - i);
+        mKeys[i] = key;
+        mChunks[i] = chunk;
+        mCounts[i] = count;
+        mSize++;
+    }
+
+    private void removeChunk(int i) {
+        System.arraycopy(mKeys, i + 1, mKeys, i, mSize - i - 1);
+        System.arraycopy(mChunks, i + 1, mChunks, i, mSize - i - 1);
+        System.arraycopy(mCounts, i + 1, mCounts, i, mSize - i - 1);
+        mSize--;
+        mChunks[mSize] = null;
+    }
+}
@@ -55,6 +55,103 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path appended to a single pet URI to reach that pet's weight history, for instance
+     * content://com.example.android.pets/pets/3/weights
+     */
+    public static final String PATH_WEIGHTS = "weights";
+
+    /**
+     * Path to the log of the database maintenance, for instance
+     * content://com.example.android.pets/maintenance
+     */
+    public static final String PATH_MAINTENANCE = "maintenance";
+
+    /**
+     * Path to the candidate duplicate pets, for instance
+     * content://com.example.android.pets/duplicates
+     */
+    public static final String PATH_DUPLICATES = "duplicates";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that returns the counters
+     * of the provider's query cache. The keys of the returned Bundle are in {@link QueryCacheStats}.
+     */
+    public static final String METHOD_QUERY_CACHE_STATS = "queryCacheStats";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that suggests breeds for
+     * what the user typed, the most common breeds first. The argument is the typed prefix; the
+     * keys of the extras and of the returned Bundle are in {@link BreedSuggestions}. It only reads
+     * memory, so it can be called on the main thread.
+     */
+    public static final String METHOD_SUGGEST_BREEDS = "suggestBreeds";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that returns how long the
+     * provider took to start and to answer its first query. It only reads memory, so it can be
+     * called on the main thread. The keys of the returned Bundle are in {@link StartupStats}.
+     */
+    public static final String METHOD_STARTUP_STATS = "startupStats";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that synchronizes the pets
+     * with the shelter server: local changes are pushed and remote ones pulled. It blocks on the
+     * network, so it must not be called on the main thread. The keys of the returned Bundle are in
+     * {@link SyncStats}.
+     */
+    public static final String METHOD_SYNC = "sync";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that runs the database
+     * maintenance tasks within a time budget, logging each one in {@link MaintenanceEntry}. It
+     * blocks until the tasks are done or cancelled, so it must not be called on the main thread.
+     * The keys of the extras and of the returned Bundle are in {@link MaintenanceRun}.
+     */
+    public static final String METHOD_RUN_MAINTENANCE = "runMaintenance";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that cancels the running
+     * {@link #METHOD_RUN_MAINTENANCE}, if any. The task in progress is interrupted and logged as
+     * cancelled, the remaining ones don't run.
+     */
+    public static final String METHOD_CANCEL_MAINTENANCE = "cancelMaintenance";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that returns the pets
+     * matching a selection all at once, packed column by column into a file, for consumers that
+     * read large results. The file is mapped with {@link PackedPets#map} and read in place, with
+     * no further copies or round trips. The keys of the extras and of the returned Bundle are in
+     * {@link BulkRead}. It reads the database, so it must not be called on the main thread.
+     */
+    public static final String METHOD_READ_ALL = "readAll";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that returns the write
+     * generation of the provider, a counter bumped by every change of the pets. Pets read at a
+     * given generation are still current while it is unchanged. It only reads memory, so it can
+     * be called on the main thread. The keys of the returned Bundle are in
+     * {@link WriteGeneration}.
+     */
+    public static final String METHOD_WRITE_GENERATION = "writeGeneration";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that looks for pets entered
+     * more than once and replaces the candidate groups listed by {@link DuplicateEntry}. It reads
+     * every pet, so it must not be called on the main thread. The keys of the returned Bundle are
+     * in {@link DuplicateScan}.
+     */
+    public static final String METHOD_FIND_DUPLICATES = "findDuplicates";
+
+    /**
+     * Name of the provider method, for {@link ContentResolver#call}, that counts the pets by
+     * gender, breed and weight bucket, within the filters given in the extras, and optionally
+     * lists their IDs. It reads an in-memory index, so it can be called on the main thread and
+     * as often as the filters change. The keys of the extras and of the returned Bundle are in
+     * {@link FacetCounts}.
+     */
+    public static final String METHOD_COUNT_FACETS = "countFacets";
+
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
@@ -76,6 +173,12 @@ public final class PetContract {
 
         /** Name of database table for pets */
         public final static String TABLE_NAME = "pets";
+
+        /**
+         * Name of the database view that joins the pets table with the breed dictionary, so that
+         * {@link #COLUMN_PET_BREED} reads as text. Queries go through the view.
+         */
+        public final static String VIEW_NAME = "pets_view";
         /**
          * Unique ID number for the pet (only for use in the database table).
          *
@@ -94,6 +197,13 @@ public final class PetContract {
          * Type: TEXT
          */
         public final static String COLUMN_PET_BREED = "breed";
+        /**
+         * Code of the breed in {@link BreedEntry}, as stored in the pets table (only for use in
+         * the database). Provider callers read and write {@link #COLUMN_PET_BREED} instead.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_BREED_ID = "breed_id";
         /**
          * Gender of the pet.
          *
@@ -110,6 +220,38 @@ public final class PetContract {
          */
         public final static String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * ID of the pet shared by all the devices of the shelter (only for use in the database).
+         * It is the ID of the device that created the pet in the high 32 bits and the local
+         * {@link #_ID} there in the low ones.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+        /**
+         * Version of the pet on the shelter server when it was last synchronized, 0 if it never
+         * was (only for use in the database).
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SYNC_VERSION = "version";
+        /**
+         * Number of local changes of the pet not yet pushed to the server, 0 if there is none
+         * (only for use in the database).
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SYNC_DIRTY = "dirty";
+
+        /**
+         * Columns shown by the catalog. The provider runs the catalog query while it starts, so
+         * the first query with these columns finds the pets already read.
+         */
+        public static final String[] CATALOG_PROJECTION = {
+                _ID,
+                COLUMN_PET_NAME,
+                COLUMN_PET_BREED };
+
         /**
          * Possible values for the gender of the pet.
          */
@@ -129,5 +271,503 @@ public final class PetContract {
         }
     }
 
-}
+    /**
+     * Inner class that defines constant values for the breed dictionary table.
+     * Each entry in the table is one distinct breed; pets refer to it by its ID, so the text of a
+     * breed is stored once however many pets share it.
+     */
+    public static final class BreedEntry implements BaseColumns {
+
+        /** Name of database table for the breed dictionary */
+        public final static String TABLE_NAME = "breeds";
 
+        /**
+         * Name of the breed, unique.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_BREED_NAME = "name";
+    }
+
+    /**
+     * Inner class that defines constant values for the table of deleted pets not yet pushed to
+     * the shelter server. Rows are written by the database itself when a pet is deleted.
+     */
+    public static final class TombstoneEntry {
+
+        /** Name of database table for the deleted pets */
+        public final static String TABLE_NAME = "pet_tombstones";
+
+        /**
+         * {@link PetEntry#COLUMN_SYNC_ID} of the deleted pet, the primary key.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+        /**
+         * {@link PetEntry#COLUMN_SYNC_VERSION} of the pet when it was deleted.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SYNC_VERSION = "version";
+    }
+
+    /**
+     * Inner class that defines constant values for the sync state table, which has a single row.
+     */
+    public static final class SyncStateEntry {
+
+        /** Name of database table for the sync state */
+        public final static String TABLE_NAME = "sync_state";
+
+        /**
+         * ID of this device for the shelter server, random.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DEVICE_ID = "device_id";
+        /**
+         * Server version up to which remote changes have been pulled.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PULLED_VERSION = "pulled_version";
+    }
+
+    /**
+     * Inner class that defines constant values for the weight history table.
+     * Each entry in the table is one weight reading of one pet. Rows are written by the database
+     * itself whenever {@link PetEntry#COLUMN_PET_WEIGHT} changes, and old ones are downsampled by
+     * {@link MaintenanceEntry#TASK_DOWNSAMPLE}. A reading is identified by its pet, time and
+     * weight: since Android 5.0 the table has no {@link #_ID}.
+     */
+    public static final class WeightEntry implements BaseColumns {
+
+        /**
+         * O tipo MIME de {@link #buildWeightsUri(long)} para uma lista de leituras de peso.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEIGHTS;
+
+        /** Name of database table for the weight history */
+        public final static String TABLE_NAME = "weight_history";
+
+        /**
+         * ID of the pet the reading belongs to.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_ID = "pet_id";
+        /**
+         * Time of the reading, in seconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORDED_AT = "recorded_at";
+        /**
+         * Weight of the pet at {@link #COLUMN_RECORDED_AT}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_WEIGHT = "weight";
+
+        /**
+         * Columns returned instead of the raw readings when {@link #PARAM_BUCKET} is given.
+         * {@link #COLUMN_BUCKET_START} is the start of the bucket (seconds since the epoch) and
+         * {@link #COLUMN_SAMPLES} the number of readings that fell into it.
+         */
+        public final static String COLUMN_BUCKET_START = "bucket_start";
+        public final static String COLUMN_MIN_WEIGHT = "min_weight";
+        public final static String COLUMN_AVG_WEIGHT = "avg_weight";
+        public final static String COLUMN_MAX_WEIGHT = "max_weight";
+        public final static String COLUMN_SAMPLES = "samples";
+
+        /**
+         * Optional query parameters of the weights URI. {@link #PARAM_FROM} and {@link #PARAM_TO}
+         * bound the time range (seconds since the epoch, inclusive), {@link #PARAM_BUCKET} is the
+         * bucket width in seconds. Without a bucket the raw readings are returned.
+         */
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        public static final String PARAM_BUCKET = "bucket";
+
+        /**
+         * Retorna o URI de conteúdo do histórico de peso do pet com o ID dado.
+         */
+        public static Uri buildWeightsUri(long petId) {
+            return PetEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(petId))
+                    .appendPath(PATH_WEIGHTS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the maintenance log table.
+     * Each entry in the table is one maintenance task of one run, with the state of the database
+     * file before and after it. The log is read-only for provider callers and keeps the latest
+     * entries only.
+     */
+    public static final class MaintenanceEntry implements BaseColumns {
+
+        /** The content URI to read the maintenance log in the provider */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MAINTENANCE);
+
+        /**
+         * O tipo MIME do {@link #CONTENT_URI} para uma lista de tarefas de manutenção.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_MAINTENANCE;
+
+        /** Name of database table for the maintenance log */
+        public final static String TABLE_NAME = "maintenance_log";
+
+        /**
+         * Start of the run the task belongs to, in milliseconds since the epoch. Tasks of the
+         * same run share it.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RUN = "run";
+        /**
+         * The task: {@link #TASK_DOWNSAMPLE}, {@link #TASK_CHECKPOINT}, {@link #TASK_ANALYZE},
+         * {@link #TASK_OPTIMIZE} or {@link #TASK_VACUUM}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TASK = "task";
+        /**
+         * What became of the task: {@link #OUTCOME_DONE}, {@link #OUTCOME_SKIPPED},
+         * {@link #OUTCOME_CANCELLED} or {@link #OUTCOME_FAILED}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OUTCOME = "outcome";
+        /**
+         * Time the task took, in milliseconds.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DURATION = "duration";
+
+        /**
+         * State of the database before and after the task: size of the database file and its
+         * write-ahead log in bytes, number of pages, number of free pages, and the time in
+         * microseconds taken by a fixed set of typical queries. A task that didn't run has the
+         * same values before and after. The query time is -1 when the run was cancelled or out
+         * of time before the queries were timed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SIZE_BEFORE = "size_before";
+        public final static String COLUMN_SIZE_AFTER = "size_after";
+        public final static String COLUMN_PAGES_BEFORE = "pages_before";
+        public final static String COLUMN_PAGES_AFTER = "pages_after";
+        public final static String COLUMN_FREE_PAGES_BEFORE = "free_pages_before";
+        public final static String COLUMN_FREE_PAGES_AFTER = "free_pages_after";
+        public final static String COLUMN_QUERY_MICROS_BEFORE = "query_micros_before";
+        public final static String COLUMN_QUERY_MICROS_AFTER = "query_micros_after";
+
+        /**
+         * Possible values for the task. The downsample keeps one average weight reading per pet
+         * and day past {@link MaintenanceRun#DOWNSAMPLE_AGE_SECONDS}; the checkpoint copies the
+         * write-ahead log into the database file; analyze refreshes the statistics of the query
+         * planner; optimize lets SQLite refresh what it thinks is stale; vacuum rebuilds the file
+         * without its free pages.
+         */
+        public static final String TASK_DOWNSAMPLE = "downsample";
+        public static final String TASK_CHECKPOINT = "checkpoint";
+        public static final String TASK_ANALYZE = "analyze";
+        public static final String TASK_OPTIMIZE = "optimize";
+        public static final String TASK_VACUUM = "vacuum";
+
+        /**
+         * Possible values for the outcome of a task. A task is skipped when it has nothing to do,
+         * like a vacuum with few free pages, and cancelled when the run is cancelled or out of
+         * time.
+         */
+        public static final int OUTCOME_DONE = 0;
+        public static final int OUTCOME_SKIPPED = 1;
+        public static final int OUTCOME_CANCELLED = 2;
+        public static final int OUTCOME_FAILED = 3;
+    }
+
+    /**
+     * Inner class that defines constant values for the candidate duplicate pets, found by
+     * {@link #METHOD_FIND_DUPLICATES}. Each entry is one pet that is probably the same animal as
+     * the other pets of its group. The list is read-only for provider callers; it reflects the
+     * pets as they were at the last search, minus the ones deleted since.
+     */
+    public static final class DuplicateEntry implements BaseColumns {
+
+        /** The content URI to read the candidate duplicates in the provider */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_DUPLICATES);
+
+        /**
+         * O tipo MIME do {@link #CONTENT_URI} para uma lista de pets possivelmente duplicados.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_DUPLICATES;
+
+        /** Name of database table for the candidate duplicates (only for use in the database) */
+        public final static String TABLE_NAME = "duplicate_candidates";
+
+        /**
+         * Name of the database view that lists the candidate duplicates with the columns of the
+         * pets, as returned by the provider.
+         */
+        public final static String VIEW_NAME = "duplicates_view";
+
+        /**
+         * ID of the pet. In the view, {@link #_ID} is the ID of the pet too, next to
+         * {@link PetEntry#COLUMN_PET_NAME}, {@link PetEntry#COLUMN_PET_BREED},
+         * {@link PetEntry#COLUMN_PET_GENDER} and {@link PetEntry#COLUMN_PET_WEIGHT}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_ID = "pet_id";
+        /**
+         * Group of the pet, the smallest pet ID in the group.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_GROUP = "group_id";
+        /**
+         * Similarity of the pet to the closest pet of its group, from 0 to 1.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_SIMILARITY = "similarity";
+    }
+
+    /**
+     * Keys of the Bundle returned by {@link #METHOD_QUERY_CACHE_STATS}.
+     */
+    public static final class QueryCacheStats {
+
+        private QueryCacheStats() {}
+
+        /** Number of queries answered from memory. Type: long */
+        public static final String HITS = "hits";
+        /** Number of queries that went to the database. Type: long */
+        public static final String MISSES = "misses";
+        /** Number of cached results dropped because a write happened after them. Type: long */
+        public static final String STALE = "stale";
+        /** Number of cached results dropped to stay within the memory budget. Type: long */
+        public static final String EVICTIONS = "evictions";
+        /** Number of results too big to be cached. Type: long */
+        public static final String UNCACHEABLE = "uncacheable";
+        /** Number of results currently cached. Type: int */
+        public static final String ENTRIES = "entries";
+        /** Estimated memory used by the cached results, in bytes. Type: long */
+        public static final String BYTES = "bytes";
+        /** Memory budget of the cache, in bytes. Type: long */
+        public static final String MAX_BYTES = "maxBytes";
+    }
+
+    /**
+     * Keys of the Bundle returned by {@link #METHOD_STARTUP_STATS}. Times are in milliseconds
+     * since the provider was created, early in the start of the process, or -1 if not yet known.
+     */
+    public static final class StartupStats {
+
+        private StartupStats() {}
+
+        /** When the database was opened, its schema checked and the catalog read. Type: long */
+        public static final String WARM_UP_DONE = "warmUpDone";
+        /** When the first query returned. Type: long */
+        public static final String FIRST_QUERY_DONE = "firstQueryDone";
+        /** Time the first query spent waiting for the warm-up to finish. Type: long */
+        public static final String FIRST_QUERY_WAIT = "firstQueryWait";
+        /** Whether the first query was answered from the pets read by the warm-up. Type: boolean */
+        public static final String FIRST_QUERY_WARM = "firstQueryWarm";
+    }
+
+    /**
+     * Keys of the extras and of the Bundle returned by {@link #METHOD_SUGGEST_BREEDS}.
+     */
+    public static final class BreedSuggestions {
+
+        private BreedSuggestions() {}
+
+        /** Maximum number of breeds to return, in the extras. Type: int */
+        public static final String LIMIT = "limit";
+        /** The suggested breeds, the most common first. Type: String[] */
+        public static final String BREEDS = "breeds";
+        /**
+         * False while the suggestions are still being prepared, in which case no breeds are
+         * returned yet. Type: boolean
+         */
+        public static final String READY = "ready";
+    }
+
+    /**
+     * Keys of the Bundle returned by {@link #METHOD_SYNC}.
+     */
+    public static final class SyncStats {
+
+        private SyncStats() {}
+
+        /**
+         * False if the sync stopped early, like on a network error; the next one resumes it.
+         * Type: boolean
+         */
+        public static final String COMPLETE = "complete";
+        /** Number of local changes accepted by the server. Type: int */
+        public static final String PUSHED = "pushed";
+        /** Number of remote changes applied locally. Type: int */
+        public static final String PULLED = "pulled";
+        /** Number of local changes replaced by newer changes of the server. Type: int */
+        public static final String CONFLICTS = "conflicts";
+        /** Size of the payloads sent, compressed. Type: long */
+        public static final String BYTES_SENT = "bytesSent";
+        /** Size of the payloads received, compressed. Type: long */
+        public static final String BYTES_RECEIVED = "bytesReceived";
+    }
+
+    /**
+     * Keys of the extras and of the Bundle returned by {@link #METHOD_RUN_MAINTENANCE}.
+     */
+    public static final class MaintenanceRun {
+
+        private MaintenanceRun() {}
+
+        /**
+         * Time budget of the whole run in milliseconds, in the extras. The task still running
+         * when it runs out is interrupted. Type: long
+         */
+        public static final String BUDGET_MILLIS = "budgetMillis";
+        /**
+         * Age in seconds past which the weight readings of a pet are downsampled to one per day,
+         * in the extras. Defaults to 90 days. Type: long
+         */
+        public static final String DOWNSAMPLE_AGE_SECONDS = "downsampleAgeSeconds";
+        /**
+         * False if the run was cancelled or ran out of time before the last task; the next run
+         * starts over. Type: boolean
+         */
+        public static final String COMPLETE = "complete";
+        /** Number of tasks done, not counting skipped ones. Type: int */
+        public static final String TASKS_DONE = "tasksDone";
+        /** Number of weight readings removed by the downsample. Type: int */
+        public static final String READINGS_REMOVED = "readingsRemoved";
+    }
+
+    /**
+     * Keys of the extras and of the Bundle returned by {@link #METHOD_READ_ALL}.
+     */
+    public static final class BulkRead {
+
+        private BulkRead() {}
+
+        /** Selection of the pets, in the extras, like for a query. Type: String */
+        public static final String SELECTION = "selection";
+        /** Arguments of the selection, in the extras. Type: String[] */
+        public static final String SELECTION_ARGS = "selectionArgs";
+        /** Order of the pets, in the extras, like for a query. Type: String */
+        public static final String SORT_ORDER = "sortOrder";
+        /**
+         * The packed pets, read-only. The caller owns the descriptor; {@link PackedPets#map}
+         * closes it. Type: ParcelFileDescriptor
+         */
+        public static final String FILE = "file";
+        /** Number of pets in the file. Type: int */
+        public static final String ROWS = "rows";
+    }
+
+    /**
+     * Keys of the Bundle returned by {@link #METHOD_WRITE_GENERATION}.
+     */
+    public static final class WriteGeneration {
+
+        private WriteGeneration() {}
+
+        /** The write generation of the provider. Type: long */
+        public static final String GENERATION = "generation";
+    }
+
+    /**
+     * Keys of the Bundle returned by {@link #METHOD_FIND_DUPLICATES}.
+     */
+    public static final class DuplicateScan {
+
+        private DuplicateScan() {}
+
+        /** Number of candidate groups found. Type: int */
+        public static final String GROUPS = "groups";
+        /** Number of pets in the groups. Type: int */
+        public static final String PETS = "pets";
+        /** Number of pairs of pets compared, out of all possible pairs. Type: long */
+        public static final String COMPARISONS = "comparisons";
+    }
+
+    /**
+     * Keys of the extras and of the Bundle returned by {@link #METHOD_COUNT_FACETS}, and the
+     * weight buckets it counts.
+     *
+     * A filter left out of the extras doesn't filter. The count of each value of a facet applies
+     * the filters of the other facets but not its own, so the counts of the values that are not
+     * selected still say how many pets selecting them would add.
+     */
+    public static final class FacetCounts {
+
+        private FacetCounts() {}
+
+        /**
+         * Lowest weight, in kg, of each weight bucket. The last bucket has no upper bound.
+         */
+        private static final int[] WEIGHT_BUCKET_STARTS = { 0, 5, 10, 20, 40 };
+
+        /** Number of weight buckets */
+        public static final int WEIGHT_BUCKETS = WEIGHT_BUCKET_STARTS.length;
+
+        /** Genders to count, {@link PetEntry#GENDER_MALE} and so on, in the extras. Type: int[] */
+        public static final String GENDERS = "genders";
+        /** Breeds to count, in the extras. Type: String[] */
+        public static final String BREEDS = "breeds";
+        /** Weight buckets to count, see {@link #weightBucket}, in the extras. Type: int[] */
+        public static final String WEIGHTS = "weights";
+        /** Whether to return the IDs of the pets counted, in the extras. Type: boolean */
+        public static final String WITH_IDS = "withIds";
+
+        /** Number of pets matching all the filters. Type: int */
+        public static final String COUNT = "count";
+        /** Number of pets of each gender, indexed by gender. Type: int[] */
+        public static final String GENDER_COUNTS = "genderCounts";
+        /** Breeds with at least one pet, in alphabetical order. Type: String[] */
+        public static final String BREED_NAMES = "breedNames";
+        /** Number of pets of each breed of {@link #BREED_NAMES}. Type: int[] */
+        public static final String BREED_COUNTS = "breedCounts";
+        /** Number of pets in each weight bucket, indexed by bucket. Type: int[] */
+        public static final String WEIGHT_COUNTS = "weightCounts";
+        /** IDs of the pets matching all the filters, in ascending order. Type: long[] */
+        public static final String IDS = "ids";
+        /**
+         * False while the index is still being built, in which case nothing else is returned.
+         * Type: boolean
+         */
+        public static final String READY = "ready";
+
+        /**
+         * Returns the weight bucket of the weight in kg, from 0 to {@link #WEIGHT_BUCKETS} - 1.
+         */
+        public static int weightBucket(int weight) {
+            int bucket = WEIGHT_BUCKETS - 1;
+            while (bucket > 0 && weight < WEIGHT_BUCKET_STARTS[bucket]) {
+                bucket--;
+            }
+            return bucket;
+        }
+
+        /**
+         * Returns the lowest weight, in kg, of the weight bucket.
+         */
+        public static int weightBucketStart(int bucket) {
+            return WEIGHT_BUCKET_STARTS[bucket];
+        }
+    }
+}
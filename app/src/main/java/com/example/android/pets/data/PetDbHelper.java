@@ -1,10 +1,17 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.DuplicateEntry;
+import com.example.android.pets.data.PetContract.MaintenanceEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.SyncStateEntry;
+import com.example.android.pets.data.PetContract.TombstoneEntry;
+import com.example.android.pets.data.PetContract.WeightEntry;
 
 /**
  * Created by Weslley on 20/09/2017.
@@ -23,7 +30,13 @@ public class PetDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
+
+    /** First SQLite version with WITHOUT ROWID tables (Android 5.0) */
+    private static final int[] WITHOUT_ROWID_SQLITE_VERSION = { 3, 8, 2 };
+
+    /** Current time in seconds, as seen by SQLite */
+    private static final String SQL_NOW = "CAST(strftime('%s', 'now') AS INTEGER)";
 
     /**
      * Constructs a new instance of {@link PetDbHelper}.
@@ -33,21 +46,113 @@ public class PetDbHelper extends SQLiteOpenHelper {
     public PetDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
+
+    /**
+     * Constructs a new instance of {@link PetDbHelper} over another database file, for benchmarks
+     * and tests that must not touch the shelter database.
+     *
+     * @param context of the app
+     * @param databaseName name of the database file, or null for an in-memory database
+     */
+    public PetDbHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Returns the database opened for reading, reporting the call to the
+     * {@link MainThreadDbAccessDetector} when made on the main thread.
+     */
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        long access = MainThreadDbAccessDetector.begin("getReadableDatabase", null);
+        try {
+            return super.getReadableDatabase();
+        } finally {
+            MainThreadDbAccessDetector.end(access);
+        }
+    }
+
+    /**
+     * Returns the database opened for writing, reporting the call to the
+     * {@link MainThreadDbAccessDetector} when made on the main thread.
+     */
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        long access = MainThreadDbAccessDetector.begin("getWritableDatabase", null);
+        try {
+            return super.getWritableDatabase();
+        } finally {
+            MainThreadDbAccessDetector.end(access);
+        }
+    }
+
     /**
      * This is called when the database is created for the first time.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createBreedDictionary(db);
+
         // Create a String that contains the SQL statement to create the pets table
-        String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
+        String SQL_CREATE_PETS_TABLE = createPetsTableSql(PetEntry.TABLE_NAME);
+
+        // Execute the SQL statement
+        db.execSQL(SQL_CREATE_PETS_TABLE);
+        createPetsView(db);
+
+        createWeightHistory(db);
+        createSyncTables(db);
+        createMaintenanceLog(db);
+        createDuplicateCandidates(db);
+    }
+
+    /**
+     * Returns the statement that creates a pets table with the given name. The breed is stored
+     * as a code into the breed dictionary. New pets are dirty: they have never been pushed to the
+     * shelter server.
+     */
+    private static String createPetsTableSql(String tableName) {
+        return "CREATE TABLE " + tableName + " ("
                 + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
-                + PetEntry.COLUMN_PET_BREED + " TEXT, "
+                + PetEntry.COLUMN_PET_BREED_ID + " INTEGER REFERENCES "
+                + BreedEntry.TABLE_NAME + "(" + BreedEntry._ID + "), "
                 + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
-                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+                + PetEntry.COLUMN_SYNC_ID + " INTEGER, "
+                + PetEntry.COLUMN_SYNC_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                + PetEntry.COLUMN_SYNC_DIRTY + " INTEGER NOT NULL DEFAULT 1);";
+    }
 
-        // Execute the SQL statement
-        db.execSQL(SQL_CREATE_PETS_TABLE);
+    /**
+     * Creates the breed dictionary: one row per distinct breed, looked up by name through the
+     * unique index.
+     */
+    private static void createBreedDictionary(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + BreedEntry.TABLE_NAME + " ("
+                + BreedEntry._ID + " INTEGER PRIMARY KEY, "
+                + BreedEntry.COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE);");
+    }
+
+    /**
+     * Creates the view that decodes the breed, which has the columns callers of the provider
+     * know. There is no index on the breed code: it would cost more space than the encoding
+     * saves.
+     */
+    private static void createPetsView(SQLiteDatabase db) {
+        String pets = PetEntry.TABLE_NAME;
+        String breeds = BreedEntry.TABLE_NAME;
+        db.execSQL("CREATE VIEW " + PetEntry.VIEW_NAME + " AS SELECT "
+                + pets + "." + PetEntry._ID + " AS " + PetEntry._ID + ", "
+                + pets + "." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME + ", "
+                + breeds + "." + BreedEntry.COLUMN_BREED_NAME + " AS "
+                + PetEntry.COLUMN_PET_BREED + ", "
+                + pets + "." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER
+                + ", "
+                + pets + "." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT
+                + " FROM " + pets + " LEFT JOIN " + breeds
+                + " ON " + breeds + "." + BreedEntry._ID + " = "
+                + pets + "." + PetEntry.COLUMN_PET_BREED_ID + ";");
     }
 
     /**
@@ -55,7 +160,292 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        if (oldVersion < 2) {
+            createWeightHistory(db);
+            // Semeia o histórico com o peso atual de cada pet
+            db.execSQL("INSERT INTO " + WeightEntry.TABLE_NAME + " ("
+                    + WeightEntry.COLUMN_PET_ID + ", "
+                    + WeightEntry.COLUMN_RECORDED_AT + ", "
+                    + WeightEntry.COLUMN_WEIGHT + ") SELECT "
+                    + PetEntry._ID + ", " + SQL_NOW + ", " + PetEntry.COLUMN_PET_WEIGHT
+                    + " FROM " + PetEntry.TABLE_NAME + ";");
+        }
+        if (oldVersion < 3) {
+            migrateToBreedDictionary(db);
+        }
+        if (oldVersion < 4) {
+            // A tabela reconstruída na versão 3 já tem as colunas de sincronização
+            if (oldVersion == 3) {
+                db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_SYNC_ID + " INTEGER;");
+                db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_SYNC_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+                db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_SYNC_DIRTY + " INTEGER NOT NULL DEFAULT 1;");
+            }
+            createSyncTables(db);
+        }
+        if (oldVersion < 5) {
+            createMaintenanceLog(db);
+        }
+        if (oldVersion < 6) {
+            createDuplicateCandidates(db);
+        }
+        if (oldVersion < 7 && oldVersion >= 2) {
+            // Antes da versão 2 o histórico acabou de ser criado no formato atual
+            migrateWeightHistory(db);
+        }
     }
 
+    /**
+     * Creates the bookkeeping of the sync with the shelter server: the sync state, with a new
+     * random device ID, the tombstones of deleted pets and the triggers that maintain them and
+     * the sync columns of the pets table. Pets that already exist get their sync ID and stay
+     * dirty, to be pushed by the first sync.
+     *
+     * Every local change of a pet bumps its dirty counter, while the sync engine writes pets with
+     * a new {@link PetEntry#COLUMN_SYNC_VERSION}, which the trigger ignores.
+     */
+    private static void createSyncTables(SQLiteDatabase db) {
+        String pets = PetEntry.TABLE_NAME;
+        db.execSQL("CREATE TABLE " + SyncStateEntry.TABLE_NAME + " ("
+                + SyncStateEntry.COLUMN_DEVICE_ID + " INTEGER NOT NULL, "
+                + SyncStateEntry.COLUMN_PULLED_VERSION + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("INSERT INTO " + SyncStateEntry.TABLE_NAME + " ("
+                + SyncStateEntry.COLUMN_DEVICE_ID + ") VALUES (random() & 2147483647);");
+
+        db.execSQL("CREATE TABLE " + TombstoneEntry.TABLE_NAME + " ("
+                + TombstoneEntry.COLUMN_SYNC_ID + " INTEGER PRIMARY KEY, "
+                + TombstoneEntry.COLUMN_SYNC_VERSION + " INTEGER NOT NULL);");
+
+        String newSyncId = "(SELECT " + SyncStateEntry.COLUMN_DEVICE_ID + " FROM "
+                + SyncStateEntry.TABLE_NAME + ") * 4294967296 + ";
+        db.execSQL("UPDATE " + pets + " SET " + PetEntry.COLUMN_SYNC_ID + " = " + newSyncId
+                + PetEntry._ID + ";");
+        db.execSQL("CREATE UNIQUE INDEX pets_sync_id ON " + pets + " ("
+                + PetEntry.COLUMN_SYNC_ID + ");");
+
+        db.execSQL("CREATE TRIGGER pets_sync_insert AFTER INSERT ON " + pets
+                + " WHEN NEW." + PetEntry.COLUMN_SYNC_ID + " IS NULL"
+                + " BEGIN UPDATE " + pets + " SET " + PetEntry.COLUMN_SYNC_ID + " = " + newSyncId
+                + "NEW." + PetEntry._ID + " WHERE " + PetEntry._ID + " = NEW." + PetEntry._ID
+                + "; END;");
+
+        db.execSQL("CREATE TRIGGER pets_sync_update AFTER UPDATE OF "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED_ID + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                + " ON " + pets
+                + " WHEN NEW." + PetEntry.COLUMN_SYNC_VERSION + " = OLD."
+                + PetEntry.COLUMN_SYNC_VERSION
+                + " BEGIN UPDATE " + pets + " SET " + PetEntry.COLUMN_SYNC_DIRTY + " = "
+                + PetEntry.COLUMN_SYNC_DIRTY + " + 1 WHERE " + PetEntry._ID + " = NEW."
+                + PetEntry._ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER pets_sync_delete AFTER DELETE ON " + pets
+                + " BEGIN INSERT OR REPLACE INTO " + TombstoneEntry.TABLE_NAME + " ("
+                + TombstoneEntry.COLUMN_SYNC_ID + ", " + TombstoneEntry.COLUMN_SYNC_VERSION
+                + ") VALUES (OLD." + PetEntry.COLUMN_SYNC_ID + ", OLD."
+                + PetEntry.COLUMN_SYNC_VERSION + "); END;");
+    }
+
+    /**
+     * Creates the log of the database maintenance, written by {@link PetDbMaintenance}.
+     */
+    private static void createMaintenanceLog(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + MaintenanceEntry.TABLE_NAME + " ("
+                + MaintenanceEntry._ID + " INTEGER PRIMARY KEY, "
+                + MaintenanceEntry.COLUMN_RUN + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_TASK + " TEXT NOT NULL, "
+                + MaintenanceEntry.COLUMN_OUTCOME + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_DURATION + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_SIZE_BEFORE + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_SIZE_AFTER + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_PAGES_BEFORE + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_PAGES_AFTER + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_FREE_PAGES_BEFORE + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_FREE_PAGES_AFTER + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_QUERY_MICROS_BEFORE + " INTEGER NOT NULL, "
+                + MaintenanceEntry.COLUMN_QUERY_MICROS_AFTER + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Creates the table of candidate duplicate pets, written by {@link PetDuplicateDetector}, and
+     * the view that lists them with the columns of the pets. The view leaves out deleted pets,
+     * and the groups they leave with a single pet.
+     */
+    private static void createDuplicateCandidates(SQLiteDatabase db) {
+        String duplicates = DuplicateEntry.TABLE_NAME;
+        db.execSQL("CREATE TABLE " + duplicates + " ("
+                + DuplicateEntry.COLUMN_PET_ID + " INTEGER PRIMARY KEY, "
+                + DuplicateEntry.COLUMN_GROUP + " INTEGER NOT NULL, "
+                + DuplicateEntry.COLUMN_SIMILARITY + " REAL NOT NULL);");
+        db.execSQL("CREATE INDEX duplicate_candidates_group ON " + duplicates + " ("
+                + DuplicateEntry.COLUMN_GROUP + ");");
+
+        String pets = PetEntry.VIEW_NAME;
+        db.execSQL("CREATE VIEW " + DuplicateEntry.VIEW_NAME + " AS SELECT "
+                + pets + "." + PetEntry._ID + " AS " + DuplicateEntry._ID + ", "
+                + duplicates + "." + DuplicateEntry.COLUMN_GROUP + " AS "
+                + DuplicateEntry.COLUMN_GROUP + ", "
+                + duplicates + "." + DuplicateEntry.COLUMN_SIMILARITY + " AS "
+                + DuplicateEntry.COLUMN_SIMILARITY + ", "
+                + pets + "." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME + ", "
+                + pets + "." + PetEntry.COLUMN_PET_BREED + " AS " + PetEntry.COLUMN_PET_BREED
+                + ", "
+                + pets + "." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER
+                + ", "
+                + pets + "." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT
+                + " FROM " + duplicates + " JOIN " + pets
+                + " ON " + pets + "." + PetEntry._ID + " = "
+                + duplicates + "." + DuplicateEntry.COLUMN_PET_ID
+                + " WHERE " + duplicates + "." + DuplicateEntry.COLUMN_GROUP + " IN (SELECT d."
+                + DuplicateEntry.COLUMN_GROUP + " FROM " + duplicates + " d JOIN "
+                + PetEntry.TABLE_NAME + " p ON p." + PetEntry._ID + " = d."
+                + DuplicateEntry.COLUMN_PET_ID + " GROUP BY d." + DuplicateEntry.COLUMN_GROUP
+                + " HAVING COUNT(*) > 1);");
+    }
+
+    /**
+     * Moves the free-text breeds of the pets table into the breed dictionary. SQLite can't drop
+     * a column, so the pets table is rebuilt with the breed codes, keeping the IDs and the
+     * AUTOINCREMENT sequence, so the IDs of deleted pets are still never reused; its triggers go
+     * with the old table and are created again.
+     */
+    private static void migrateToBreedDictionary(SQLiteDatabase db) {
+        createBreedDictionary(db);
+        db.execSQL("INSERT INTO " + BreedEntry.TABLE_NAME + " (" + BreedEntry.COLUMN_BREED_NAME
+                + ") SELECT DISTINCT " + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME
+                + " WHERE " + PetEntry.COLUMN_PET_BREED + " IS NOT NULL;");
+
+        db.execSQL("DROP TRIGGER IF EXISTS pets_weight_insert;");
+        db.execSQL("DROP TRIGGER IF EXISTS pets_weight_update;");
+        db.execSQL("DROP TRIGGER IF EXISTS pets_weight_delete;");
+
+        db.execSQL(createPetsTableSql("pets_new"));
+        db.execSQL("INSERT INTO pets_new ("
+                + PetEntry._ID + ", "
+                + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED_ID + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + ") SELECT p." + PetEntry._ID + ", p."
+                + PetEntry.COLUMN_PET_NAME + ", b." + BreedEntry._ID + ", p."
+                + PetEntry.COLUMN_PET_GENDER + ", p." + PetEntry.COLUMN_PET_WEIGHT
+                + " FROM " + PetEntry.TABLE_NAME + " p LEFT JOIN " + BreedEntry.TABLE_NAME
+                + " b ON b." + BreedEntry.COLUMN_BREED_NAME + " = p." + PetEntry.COLUMN_PET_BREED
+                + ";");
+        // A sequência do AUTOINCREMENT some junto com a tabela antiga
+        long sequence = DatabaseUtils.longForQuery(db, "SELECT COALESCE(MAX(seq), 0) FROM "
+                + "sqlite_sequence WHERE name = ?", new String[] { PetEntry.TABLE_NAME });
+        db.execSQL("DROP TABLE " + PetEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE pets_new RENAME TO " + PetEntry.TABLE_NAME + ";");
+        db.execSQL("UPDATE sqlite_sequence SET seq = MAX(seq, ?) WHERE name = ?;",
+                new Object[] { sequence, PetEntry.TABLE_NAME });
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT ?, ? WHERE NOT EXISTS "
+                + "(SELECT 1 FROM sqlite_sequence WHERE name = ?);",
+                new Object[] { PetEntry.TABLE_NAME, sequence, PetEntry.TABLE_NAME });
+
+        createPetsView(db);
+        createWeightHistoryTriggers(db);
+    }
+
+    /**
+     * Creates the weight history table and the triggers that fill it.
+     *
+     * Readings are kept small: the time is stored in seconds and the table is keyed by
+     * (pet, time, weight) WITHOUT ROWID, so each reading is stored once, in the primary key, and
+     * range queries and min/avg/max buckets are answered in key order. SQLite before 3.8.2
+     * (Android 5.0) has no WITHOUT ROWID tables; there the table has a rowid and a covering index
+     * on the same columns instead.
+     */
+    private static void createWeightHistory(SQLiteDatabase db) {
+        createWeightHistoryTable(db, WeightEntry.TABLE_NAME);
+        createWeightHistoryTriggers(db);
+    }
+
+    private static void createWeightHistoryTable(SQLiteDatabase db, String tableName) {
+        if (isSqliteAtLeast(db, WITHOUT_ROWID_SQLITE_VERSION)) {
+            db.execSQL("CREATE TABLE " + tableName + " ("
+                    + WeightEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                    + WeightEntry.COLUMN_RECORDED_AT + " INTEGER NOT NULL, "
+                    + WeightEntry.COLUMN_WEIGHT + " INTEGER NOT NULL, "
+                    + "PRIMARY KEY (" + WeightEntry.COLUMN_PET_ID + ", "
+                    + WeightEntry.COLUMN_RECORDED_AT + ", "
+                    + WeightEntry.COLUMN_WEIGHT + ")) WITHOUT ROWID;");
+            return;
+        }
+        db.execSQL("CREATE TABLE " + tableName + " ("
+                + WeightEntry._ID + " INTEGER PRIMARY KEY, "
+                + WeightEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                + WeightEntry.COLUMN_RECORDED_AT + " INTEGER NOT NULL, "
+                + WeightEntry.COLUMN_WEIGHT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX weight_history_pet_time ON " + tableName + " ("
+                + WeightEntry.COLUMN_PET_ID + ", "
+                + WeightEntry.COLUMN_RECORDED_AT + ", "
+                + WeightEntry.COLUMN_WEIGHT + ");");
+    }
+
+    /**
+     * Rebuilds the weight history of version 6 and older, a rowid table with a covering index,
+     * as a WITHOUT ROWID table where SQLite has them. The triggers are created again either way,
+     * since the insert now ignores a reading the history already has.
+     */
+    private static void migrateWeightHistory(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS pets_weight_insert;");
+        db.execSQL("DROP TRIGGER IF EXISTS pets_weight_update;");
+        db.execSQL("DROP TRIGGER IF EXISTS pets_weight_delete;");
+
+        if (isSqliteAtLeast(db, WITHOUT_ROWID_SQLITE_VERSION)) {
+            String columns = WeightEntry.COLUMN_PET_ID + ", "
+                    + WeightEntry.COLUMN_RECORDED_AT + ", "
+                    + WeightEntry.COLUMN_WEIGHT;
+            createWeightHistoryTable(db, "weight_history_new");
+            db.execSQL("INSERT OR IGNORE INTO weight_history_new (" + columns + ") SELECT "
+                    + columns + " FROM " + WeightEntry.TABLE_NAME + ";");
+            db.execSQL("DROP TABLE " + WeightEntry.TABLE_NAME + ";");
+            db.execSQL("ALTER TABLE weight_history_new RENAME TO " + WeightEntry.TABLE_NAME
+                    + ";");
+        }
+        createWeightHistoryTriggers(db);
+    }
+
+    /**
+     * Records the weight of new pets and every change of weight, and drops the history of
+     * deleted pets. Done with triggers so that every writer of the pets table is covered. A
+     * reading the history already has, when the weight goes back within the same second, is not
+     * recorded again.
+     */
+    private static void createWeightHistoryTriggers(SQLiteDatabase db) {
+        String insertReading = "INSERT OR IGNORE INTO " + WeightEntry.TABLE_NAME + " ("
+                + WeightEntry.COLUMN_PET_ID + ", "
+                + WeightEntry.COLUMN_RECORDED_AT + ", "
+                + WeightEntry.COLUMN_WEIGHT + ") VALUES (NEW." + PetEntry._ID + ", "
+                + SQL_NOW + ", NEW." + PetEntry.COLUMN_PET_WEIGHT + ");";
+
+        db.execSQL("CREATE TRIGGER pets_weight_insert AFTER INSERT ON " + PetEntry.TABLE_NAME
+                + " BEGIN " + insertReading + " END;");
+
+        db.execSQL("CREATE TRIGGER pets_weight_update AFTER UPDATE OF "
+                + PetEntry.COLUMN_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                + " WHEN NEW." + PetEntry.COLUMN_PET_WEIGHT + " IS NOT OLD." + PetEntry.COLUMN_PET_WEIGHT
+                + " BEGIN " + insertReading + " END;");
+
+        db.execSQL("CREATE TRIGGER pets_weight_delete AFTER DELETE ON " + PetEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + WeightEntry.TABLE_NAME
+                + " WHERE " + WeightEntry.COLUMN_PET_ID + " = OLD." + PetEntry._ID + "; END;");
+    }
+
+    /**
+     * Returns true if the SQLite library of the database is at least the given version.
+     */
+    static boolean isSqliteAtLeast(SQLiteDatabase db, int[] version) {
+        String[] parts = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null)
+                .split("\\.");
+        for (int i = 0; i < version.length; i++) {
+            int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+            if (part != version[i]) {
+                return part > version[i];
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,449 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.MaintenanceEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.WeightEntry;
+
+import java.io.File;
+
+/**
+ * Upkeep of the shelter database, which otherwise only grows and drifts: the weight history
+ * keeps every reading, statistics of the query planner go stale as the pets change, deleted rows
+ * leave free pages behind and the write-ahead log is only checkpointed when SQLite decides to.
+ *
+ * A run goes through the tasks of {@link MaintenanceEntry} in order, within a time budget. The
+ * task in progress when the budget runs out, or when the run is cancelled, is interrupted by
+ * SQLite; interrupted work is rolled back, so the database is never left half done. Every task
+ * is logged with the size, pages and query times of the database before and after it. The query
+ * times are part of the budget too, and are not taken once the run is cancelled.
+ *
+ * {@link #schedule} has the system run it through {@link PetDbMaintenanceService} once a day,
+ * while the device is idle and charging.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public final class PetDbMaintenance {
+
+    public static final String LOG_TAG = PetDbMaintenance.class.getSimpleName();
+
+    /** Time budget of a run when the caller doesn't set one */
+    static final long DEFAULT_BUDGET_MILLIS = 2 * 60 * 1000;
+
+    /** Age past which weight readings are downsampled when the caller doesn't set one */
+    static final long DEFAULT_DOWNSAMPLE_AGE_SECONDS = 90L * 24 * 60 * 60;
+
+    /** Width of the buckets old weight readings are downsampled to: one reading per day */
+    private static final long DOWNSAMPLE_BUCKET_SECONDS = 24 * 60 * 60;
+
+    /** ID of the maintenance job, unique within the app */
+    private static final int JOB_ID = 1;
+
+    /** Time between two scheduled runs */
+    private static final long INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** Vacuum only once this percentage of the pages is free: a vacuum rewrites the whole file */
+    private static final int VACUUM_FREE_PERCENT = 20;
+
+    /** First SQLite version with {@code PRAGMA optimize} (Android 8.0) */
+    private static final int[] OPTIMIZE_SQLITE_VERSION = { 3, 18, 0 };
+
+    /**
+     * First SQLite version with the TRUNCATE checkpoint (Android 6.0). Before it the checkpoint
+     * is a RESTART, which leaves the write-ahead log file at its size, to be overwritten.
+     */
+    private static final int[] TRUNCATE_SQLITE_VERSION = { 3, 8, 8 };
+
+    /** Number of runs of the query probes; the fastest one counts */
+    private static final int PROBE_RUNS = 3;
+
+    /** Query time of a state measured after the run was cancelled, when the probes don't run */
+    static final long NOT_MEASURED = -1;
+
+    /** Number of tasks kept in the log, the oldest are dropped */
+    private static final int MAX_LOG_ROWS = 500;
+
+    /**
+     * Tasks of a run, in order: the downsample comes first so the others see the smaller weight
+     * history, the checkpoint comes last to also fold in what vacuum wrote
+     */
+    private static final String[] TASKS = {
+            MaintenanceEntry.TASK_DOWNSAMPLE,
+            MaintenanceEntry.TASK_ANALYZE,
+            MaintenanceEntry.TASK_OPTIMIZE,
+            MaintenanceEntry.TASK_VACUUM,
+            MaintenanceEntry.TASK_CHECKPOINT };
+
+    /**
+     * Typical queries of the app, timed before and after every task: the catalog scan, a breed
+     * filter through the breed dictionary and the weight history of a pet.
+     */
+    private static final String[] PROBES = {
+            "SELECT COUNT(" + PetEntry.COLUMN_PET_NAME + ") FROM " + PetEntry.TABLE_NAME,
+            "SELECT COUNT(*) FROM " + PetEntry.VIEW_NAME + " WHERE " + PetEntry.COLUMN_PET_BREED
+                    + " = (SELECT " + BreedEntry.COLUMN_BREED_NAME + " FROM "
+                    + BreedEntry.TABLE_NAME + " ORDER BY " + BreedEntry._ID + " LIMIT 1)",
+            "SELECT COUNT(*) FROM " + WeightEntry.TABLE_NAME + " WHERE "
+                    + WeightEntry.COLUMN_PET_ID + " = (SELECT MAX(" + PetEntry._ID + ") FROM "
+                    + PetEntry.TABLE_NAME + ")" };
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Result {
+        /** False if the run was cancelled or ran out of time before the last task */
+        public boolean complete = true;
+        /** Number of tasks done, not counting skipped ones */
+        public int tasksDone;
+        /** Number of weight readings removed by the downsample */
+        public int readingsRemoved;
+    }
+
+    /** State of the database at one point of a run */
+    private static final class Metrics {
+        long size;
+        long pages;
+        long freePages;
+        /** Or {@link #NOT_MEASURED} */
+        long queryMicros;
+    }
+
+    private final PetDbHelper mDbHelper;
+
+    /** Interrupts the statement of the current run; null between runs */
+    private volatile CancellationSignal mSignal;
+
+    /**
+     * Constructs a new {@link PetDbMaintenance}.
+     *
+     * @param dbHelper helper of the database to maintain
+     */
+    PetDbMaintenance(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Schedules the daily maintenance of the shelter database, if it isn't scheduled yet. It
+     * runs while the device is idle and charging, and keeps being scheduled across reboots.
+     * Before Android 5.0 there is no way to wait for that, so nothing is scheduled.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        scheduleJob(context);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, PetDbMaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(LOG_TAG, "Failed to schedule the database maintenance");
+        }
+    }
+
+    /**
+     * Runs the maintenance tasks within the time budget. Blocks until they are done, cancelled
+     * or out of time; one run at a time.
+     *
+     * @param downsampleAgeSeconds age past which the weight readings of a pet are downsampled to
+     *                             one per day
+     */
+    public synchronized Result run(long budgetMillis, long downsampleAgeSeconds) {
+        if (downsampleAgeSeconds < 0) {
+            throw new IllegalArgumentException("Negative downsample age: " + downsampleAgeSeconds);
+        }
+        // Alinhado a um bucket, para que uma nova execução não mude os buckets já reduzidos
+        long downsampleBefore = (System.currentTimeMillis() / 1000 - downsampleAgeSeconds)
+                / DOWNSAMPLE_BUCKET_SECONDS * DOWNSAMPLE_BUCKET_SECONDS;
+
+        final CancellationSignal signal = new CancellationSignal();
+        mSignal = signal;
+        // O orçamento vence pelo mesmo caminho do cancelamento, numa thread própria: a thread
+        // principal pode ser a que está bloqueada na execução
+        HandlerThread watchdogThread = new HandlerThread(LOG_TAG + ".watchdog");
+        watchdogThread.start();
+        Handler watchdog = new Handler(watchdogThread.getLooper());
+        Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                signal.cancel();
+            }
+        };
+        watchdog.postDelayed(expire, budgetMillis);
+
+        Result result = new Result();
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            long run = System.currentTimeMillis();
+            Metrics metrics = measure(db, signal);
+            for (String task : TASKS) {
+                metrics = runTask(db, run, task, downsampleBefore, signal, metrics, result);
+            }
+            trimLog(db);
+        } finally {
+            watchdog.removeCallbacks(expire);
+            watchdogThread.quit();
+            mSignal = null;
+        }
+        return result;
+    }
+
+    /**
+     * Cancels the current run, if any.
+     */
+    public void cancel() {
+        CancellationSignal signal = mSignal;
+        if (signal != null) {
+            signal.cancel();
+        }
+    }
+
+    /**
+     * Runs one task and logs it.
+     *
+     * @param downsampleBefore time, in seconds since the epoch, before which the weight readings
+     *                         are downsampled
+     * @param before state of the database before the task
+     * @return state of the database after the task
+     */
+    private Metrics runTask(SQLiteDatabase db, long run, String task, long downsampleBefore,
+                            CancellationSignal signal, Metrics before, Result result) {
+        long start = SystemClock.elapsedRealtime();
+        int outcome;
+        if (signal.isCanceled()) {
+            outcome = MaintenanceEntry.OUTCOME_CANCELLED;
+        } else {
+            try {
+                if (!isNeeded(db, task, downsampleBefore, before, signal)) {
+                    outcome = MaintenanceEntry.OUTCOME_SKIPPED;
+                } else if (MaintenanceEntry.TASK_DOWNSAMPLE.equals(task)) {
+                    result.readingsRemoved += downsampleWeightHistory(db, downsampleBefore,
+                            DOWNSAMPLE_BUCKET_SECONDS, signal);
+                    outcome = MaintenanceEntry.OUTCOME_DONE;
+                } else {
+                    execute(db, sqlFor(db, task), null, signal);
+                    outcome = MaintenanceEntry.OUTCOME_DONE;
+                }
+            } catch (OperationCanceledException e) {
+                outcome = MaintenanceEntry.OUTCOME_CANCELLED;
+            } catch (SQLiteException e) {
+                Log.w(LOG_TAG, "Maintenance task " + task + " failed", e);
+                outcome = MaintenanceEntry.OUTCOME_FAILED;
+            }
+        }
+        long duration = SystemClock.elapsedRealtime() - start;
+
+        if (outcome == MaintenanceEntry.OUTCOME_DONE) {
+            result.tasksDone++;
+        } else if (outcome == MaintenanceEntry.OUTCOME_CANCELLED) {
+            result.complete = false;
+        }
+        Metrics after = outcome == MaintenanceEntry.OUTCOME_DONE ? measure(db, signal) : before;
+
+        ContentValues values = new ContentValues();
+        values.put(MaintenanceEntry.COLUMN_RUN, run);
+        values.put(MaintenanceEntry.COLUMN_TASK, task);
+        values.put(MaintenanceEntry.COLUMN_OUTCOME, outcome);
+        values.put(MaintenanceEntry.COLUMN_DURATION, duration);
+        values.put(MaintenanceEntry.COLUMN_SIZE_BEFORE, before.size);
+        values.put(MaintenanceEntry.COLUMN_SIZE_AFTER, after.size);
+        values.put(MaintenanceEntry.COLUMN_PAGES_BEFORE, before.pages);
+        values.put(MaintenanceEntry.COLUMN_PAGES_AFTER, after.pages);
+        values.put(MaintenanceEntry.COLUMN_FREE_PAGES_BEFORE, before.freePages);
+        values.put(MaintenanceEntry.COLUMN_FREE_PAGES_AFTER, after.freePages);
+        values.put(MaintenanceEntry.COLUMN_QUERY_MICROS_BEFORE, before.queryMicros);
+        values.put(MaintenanceEntry.COLUMN_QUERY_MICROS_AFTER, after.queryMicros);
+        db.insert(MaintenanceEntry.TABLE_NAME, null, values);
+        return after;
+    }
+
+    /**
+     * Returns false if the task has nothing to do on the database as it is.
+     */
+    private static boolean isNeeded(SQLiteDatabase db, String task, long downsampleBefore,
+                                    Metrics metrics, CancellationSignal signal) {
+        if (MaintenanceEntry.TASK_DOWNSAMPLE.equals(task)) {
+            // Só há o que fazer se algum bucket antigo ainda tem mais de uma leitura
+            return longForQuery(db, "SELECT EXISTS (SELECT 1 FROM "
+                    + WeightEntry.TABLE_NAME + " WHERE " + WeightEntry.COLUMN_RECORDED_AT + " < ?"
+                    + " GROUP BY " + WeightEntry.COLUMN_PET_ID + ", "
+                    + bucketOf(DOWNSAMPLE_BUCKET_SECONDS) + " HAVING COUNT(*) > 1)",
+                    new String[] { String.valueOf(downsampleBefore) }, signal) != 0;
+        }
+        if (MaintenanceEntry.TASK_OPTIMIZE.equals(task)) {
+            return PetDbHelper.isSqliteAtLeast(db, OPTIMIZE_SQLITE_VERSION);
+        }
+        if (MaintenanceEntry.TASK_VACUUM.equals(task)) {
+            return metrics.freePages > 0
+                    && metrics.freePages * 100 >= metrics.pages * VACUUM_FREE_PERCENT;
+        }
+        if (MaintenanceEntry.TASK_CHECKPOINT.equals(task)) {
+            return db.isWriteAheadLoggingEnabled();
+        }
+        return true;
+    }
+
+    private static String sqlFor(SQLiteDatabase db, String task) {
+        if (MaintenanceEntry.TASK_ANALYZE.equals(task)) {
+            return "ANALYZE";
+        }
+        if (MaintenanceEntry.TASK_OPTIMIZE.equals(task)) {
+            return "PRAGMA optimize";
+        }
+        if (MaintenanceEntry.TASK_VACUUM.equals(task)) {
+            return "VACUUM";
+        }
+        if (MaintenanceEntry.TASK_CHECKPOINT.equals(task)) {
+            return PetDbHelper.isSqliteAtLeast(db, TRUNCATE_SQLITE_VERSION)
+                    ? "PRAGMA wal_checkpoint(TRUNCATE)" : "PRAGMA wal_checkpoint(RESTART)";
+        }
+        throw new IllegalArgumentException("Unknown maintenance task " + task);
+    }
+
+    /**
+     * Downsamples old weight readings. Every reading older than {@code olderThan} (seconds since
+     * the epoch) is collapsed, per pet, into one reading per {@code bucketSeconds} wide bucket,
+     * holding the average weight of the bucket and stamped with the bucket start. Done in one
+     * transaction, so an interrupted downsample leaves the history as it was.
+     *
+     * @return the number of readings removed
+     */
+    private static int downsampleWeightHistory(SQLiteDatabase db, long olderThan,
+                                               long bucketSeconds, CancellationSignal signal) {
+        String bucket = bucketOf(bucketSeconds);
+        String[] args = new String[] { String.valueOf(olderThan) };
+
+        db.beginTransaction();
+        try {
+            long before = DatabaseUtils.queryNumEntries(db, WeightEntry.TABLE_NAME);
+
+            execute(db, "CREATE TEMP TABLE weight_downsample AS SELECT "
+                    + WeightEntry.COLUMN_PET_ID + " AS pet_id, "
+                    + bucket + " AS recorded_at, "
+                    + "CAST(ROUND(AVG(" + WeightEntry.COLUMN_WEIGHT + ")) AS INTEGER) AS weight"
+                    + " FROM " + WeightEntry.TABLE_NAME
+                    + " WHERE " + WeightEntry.COLUMN_RECORDED_AT + " < ?"
+                    + " GROUP BY " + WeightEntry.COLUMN_PET_ID + ", " + bucket, args, signal);
+            execute(db, "DELETE FROM " + WeightEntry.TABLE_NAME
+                    + " WHERE " + WeightEntry.COLUMN_RECORDED_AT + " < ?", args, signal);
+            execute(db, "INSERT INTO " + WeightEntry.TABLE_NAME + " ("
+                    + WeightEntry.COLUMN_PET_ID + ", "
+                    + WeightEntry.COLUMN_RECORDED_AT + ", "
+                    + WeightEntry.COLUMN_WEIGHT + ") SELECT pet_id, recorded_at, weight"
+                    + " FROM weight_downsample", null, signal);
+            db.execSQL("DROP TABLE weight_downsample;");
+
+            long after = DatabaseUtils.queryNumEntries(db, WeightEntry.TABLE_NAME);
+            db.setTransactionSuccessful();
+            return (int) (before - after);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Start of the bucket of a weight reading, as an SQL expression */
+    private static String bucketOf(long bucketSeconds) {
+        return "(" + WeightEntry.COLUMN_RECORDED_AT + " / " + bucketSeconds + ") * "
+                + bucketSeconds;
+    }
+
+    /**
+     * Executes the statement so that the signal can interrupt it. Only queries take a
+     * {@link CancellationSignal}, so the statement runs as one: filling the cursor steps it to
+     * the end.
+     */
+    private static void execute(SQLiteDatabase db, String sql, String[] args,
+                                CancellationSignal signal) {
+        Cursor cursor = db.rawQuery(sql, args, signal);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the value of the first column of the first row of the query, which the signal can
+     * interrupt.
+     */
+    private static long longForQuery(SQLiteDatabase db, String sql, String[] args,
+                                     CancellationSignal signal) {
+        Cursor cursor = db.rawQuery(sql, args, signal);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the state of the database now. The query times are {@link #NOT_MEASURED} if the
+     * signal is cancelled before or while the probes run.
+     */
+    private static Metrics measure(SQLiteDatabase db, CancellationSignal signal) {
+        Metrics metrics = new Metrics();
+        String path = db.getPath();
+        metrics.size = new File(path).length() + new File(path + "-wal").length();
+        metrics.pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        metrics.freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        metrics.queryMicros = NOT_MEASURED;
+
+        long best = Long.MAX_VALUE;
+        try {
+            for (int i = 0; i < PROBE_RUNS; i++) {
+                signal.throwIfCanceled();
+                long start = System.nanoTime();
+                for (String probe : PROBES) {
+                    longForQuery(db, probe, null, signal);
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        } catch (OperationCanceledException e) {
+            // O tempo das consultas conta no orçamento: vencido, fica sem medida
+            return metrics;
+        }
+        metrics.queryMicros = best / 1000;
+        return metrics;
+    }
+
+    /**
+     * Drops the oldest tasks of the log, keeping the latest {@link #MAX_LOG_ROWS}.
+     */
+    private static void trimLog(SQLiteDatabase db) {
+        db.delete(MaintenanceEntry.TABLE_NAME, MaintenanceEntry._ID + " <= (SELECT MAX("
+                + MaintenanceEntry._ID + ") FROM " + MaintenanceEntry.TABLE_NAME + ") - ?",
+                new String[] { String.valueOf(MAX_LOG_ROWS) });
+    }
+}
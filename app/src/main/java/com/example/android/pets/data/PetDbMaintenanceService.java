@@ -0,0 +1,43 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.Process;
+
+/**
+ * Job that runs the {@link PetDbMaintenance} scheduled by {@link PetDbMaintenance#schedule}.
+ * The run goes through the provider, which owns the database connection, on a background thread;
+ * when the system stops the job, like when the device stops being idle, the run is cancelled.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PetDbMaintenanceService extends JobService {
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    getContentResolver().call(PetContract.BASE_CONTENT_URI,
+                            PetContract.METHOD_RUN_MAINTENANCE, null, null);
+                } finally {
+                    jobFinished(params, false);
+                }
+            }
+        }, PetDbMaintenance.LOG_TAG).start();
+        return true;
+    }
+
+    /**
+     * Cancels the run. It isn't retried: the next daily run does the whole maintenance again.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        getContentResolver().call(PetContract.BASE_CONTENT_URI,
+                PetContract.METHOD_CANCEL_MAINTENANCE, null, null);
+        return false;
+    }
+}
@@ -0,0 +1,411 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.DuplicateEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Finds pets that were probably entered more than once, like the same dog as "Rex, Labrador" and
+ * "rex, labrador retriever", without comparing every pair.
+ *
+ * Names and breeds are normalized: lower case, no accents, letters and digits only. Pets are then
+ * grouped into blocks of the same gender and a weight within {@link #WEIGHT_TOLERANCE} kg. Within
+ * a block, locality-sensitive hashing over MinHash signatures of the name bigrams puts pets with
+ * similar names into the same buckets. Only pets sharing a bucket are compared: their names must
+ * be similar and their breeds compatible, one breed being part of the other or similar enough.
+ * The work grows with the number of pets, not with the number of pairs.
+ *
+ * Pets linked by a match, directly or through other pets, form a group of candidates.
+ */
+final class PetDuplicateDetector {
+
+    /** Pets whose weights differ by up to this many kilos may be duplicates */
+    static final int WEIGHT_TOLERANCE = 2;
+
+    /** Minimum Jaccard similarity of the name bigrams for a match */
+    static final double NAME_THRESHOLD = 0.6;
+
+    /** Minimum Jaccard similarity of the breed bigrams, when neither breed contains the other */
+    static final double BREED_THRESHOLD = 0.5;
+
+    /**
+     * Bands and rows of the LSH: a pair becomes a candidate if its signatures agree on all rows of
+     * some band. With 8 x 4, names with a similarity of 0.6 are caught 67% of the time, of 0.8
+     * 98% of the time.
+     */
+    private static final int BANDS = 8;
+    private static final int ROWS = 4;
+
+    /**
+     * Members of a bucket compared with each new member, the latest ones. Bounds the work on
+     * buckets of very common names, which are mostly not duplicates of each other anyway.
+     */
+    private static final int MAX_COMPARISONS_PER_PET = 16;
+
+    /** Bits of a bucket entry for the index of the pet; the rest hold the bucket hash */
+    private static final int INDEX_BITS = 24;
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^a-z0-9]+");
+
+    /** Seeds of the MinHash functions, fixed so signatures are the same from run to run */
+    private static final long[] SEEDS = new long[BANDS * ROWS];
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < SEEDS.length; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /**
+     * Candidate groups found in a set of pets.
+     */
+    static final class Groups {
+        /** Group of every pet, the smallest ID of the group, or -1 if the pet has no candidate */
+        long[] groupOf;
+        /** Similarity of every pet to its closest candidate, 0 to 1 */
+        double[] similarity;
+        int groupCount;
+        int groupedPets;
+        /** Number of pairs of pets compared */
+        long comparisons;
+    }
+
+    private final PetDbHelper mDbHelper;
+
+    /**
+     * Constructs a new {@link PetDuplicateDetector}.
+     *
+     * @param dbHelper helper of the database whose pets are checked
+     */
+    PetDuplicateDetector(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Finds the candidate groups among all pets and replaces the ones in {@link DuplicateEntry}.
+     */
+    Groups run() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long[] ids;
+        String[] names;
+        String[] breeds;
+        int[] genders;
+        int[] weights;
+        Cursor cursor = db.query(PetEntry.VIEW_NAME, new String[] {
+                PetEntry._ID,
+                PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT }, null, null, null, null, null);
+        try {
+            int count = cursor.getCount();
+            ids = new long[count];
+            names = new String[count];
+            breeds = new String[count];
+            genders = new int[count];
+            weights = new int[count];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+                names[i] = cursor.getString(1);
+                breeds[i] = cursor.isNull(2) ? null : cursor.getString(2);
+                genders[i] = cursor.getInt(3);
+                weights[i] = cursor.getInt(4);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Groups groups = find(ids, names, breeds, genders, weights);
+
+        db.beginTransaction();
+        try {
+            db.delete(DuplicateEntry.TABLE_NAME, null, null);
+            SQLiteStatement insert = db.compileStatement("INSERT INTO "
+                    + DuplicateEntry.TABLE_NAME + " (" + DuplicateEntry.COLUMN_PET_ID + ", "
+                    + DuplicateEntry.COLUMN_GROUP + ", " + DuplicateEntry.COLUMN_SIMILARITY
+                    + ") VALUES (?, ?, ?)");
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    if (groups.groupOf[i] < 0) {
+                        continue;
+                    }
+                    insert.bindLong(1, ids[i]);
+                    insert.bindLong(2, groups.groupOf[i]);
+                    insert.bindDouble(3, groups.similarity[i]);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return groups;
+    }
+
+    /**
+     * Finds the candidate groups among the given pets, the arrays holding one value per pet.
+     */
+    static Groups find(long[] ids, String[] names, String[] breeds, int[] genders,
+                       int[] weights) {
+        int count = ids.length;
+        if (count >= 1 << INDEX_BITS) {
+            throw new IllegalArgumentException("Too many pets to check: " + count);
+        }
+        int[][] nameBigrams = new int[count][];
+        String[][] breedTokens = new String[count][];
+        int[][] breedBigrams = new int[count][];
+        // Poucas raças distintas: normalizadas uma vez cada
+        Map<String, String[]> tokensByBreed = new HashMap<String, String[]>();
+        Map<String, int[]> bigramsByBreed = new HashMap<String, int[]>();
+
+        // Cada pet entra em 2 grades de peso deslocadas, BANDS baldes em cada
+        long[] entries = new long[count * 2 * BANDS];
+        int entryCount = 0;
+        long[] signature = new long[BANDS * ROWS];
+        for (int i = 0; i < count; i++) {
+            nameBigrams[i] = bigrams(tokens(names[i]));
+            String[] tokens = tokensByBreed.get(breeds[i]);
+            if (tokens == null) {
+                tokens = tokens(breeds[i]);
+                tokensByBreed.put(breeds[i], tokens);
+                bigramsByBreed.put(breeds[i], bigrams(tokens));
+            }
+            breedTokens[i] = tokens;
+            breedBigrams[i] = bigramsByBreed.get(breeds[i]);
+            if (nameBigrams[i].length == 0) {
+                continue;
+            }
+
+            minHash(nameBigrams[i], signature);
+            for (int grid = 0; grid < 2; grid++) {
+                // Células de 2 x tolerância; a segunda grade é deslocada de meia célula, então
+                // dois pesos dentro da tolerância dividem uma célula em pelo menos uma grade.
+                // O provider só aceita pesos positivos.
+                long cell = (weights[i] + grid * WEIGHT_TOLERANCE) / (2 * WEIGHT_TOLERANCE);
+                long block = mix(mix(genders[i] * 31L + grid) ^ cell);
+                for (int band = 0; band < BANDS; band++) {
+                    long hash = mix(block + band);
+                    for (int row = 0; row < ROWS; row++) {
+                        hash = mix(hash ^ signature[band * ROWS + row]);
+                    }
+                    entries[entryCount++] = (hash << INDEX_BITS) | i;
+                }
+            }
+        }
+
+        // Ordenar junta os pets de cada balde
+        Arrays.sort(entries, 0, entryCount);
+
+        int[] parent = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+        }
+        double[] similarity = new double[count];
+        long comparisons = 0;
+        long mask = (1L << INDEX_BITS) - 1;
+        for (int start = 0; start < entryCount; ) {
+            long bucket = entries[start] >>> INDEX_BITS;
+            int end = start + 1;
+            while (end < entryCount && entries[end] >>> INDEX_BITS == bucket) {
+                end++;
+            }
+            for (int j = start + 1; j < end; j++) {
+                int b = (int) (entries[j] & mask);
+                for (int k = Math.max(start, j - MAX_COMPARISONS_PER_PET); k < j; k++) {
+                    int a = (int) (entries[k] & mask);
+                    if (a == b || find(parent, a) == find(parent, b)) {
+                        continue;
+                    }
+                    comparisons++;
+                    double score = match(a, b, weights, genders, nameBigrams, breedTokens,
+                            breedBigrams);
+                    if (score > 0) {
+                        parent[find(parent, a)] = find(parent, b);
+                        similarity[a] = Math.max(similarity[a], score);
+                        similarity[b] = Math.max(similarity[b], score);
+                    }
+                }
+            }
+            start = end;
+        }
+
+        Groups groups = new Groups();
+        groups.groupOf = new long[count];
+        groups.similarity = similarity;
+        groups.comparisons = comparisons;
+        // O grupo é identificado pelo menor ID entre seus pets
+        long[] smallestId = new long[count];
+        Arrays.fill(smallestId, Long.MAX_VALUE);
+        int[] size = new int[count];
+        for (int i = 0; i < count; i++) {
+            int root = find(parent, i);
+            smallestId[root] = Math.min(smallestId[root], ids[i]);
+            size[root]++;
+        }
+        for (int i = 0; i < count; i++) {
+            int root = find(parent, i);
+            if (size[root] < 2) {
+                groups.groupOf[i] = -1;
+                continue;
+            }
+            groups.groupOf[i] = smallestId[root];
+            groups.groupedPets++;
+            if (root == i) {
+                groups.groupCount++;
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the similarity of the two pets, 0 if they don't match.
+     */
+    private static double match(int a, int b, int[] weights, int[] genders, int[][] nameBigrams,
+                                String[][] breedTokens, int[][] breedBigrams) {
+        // Pets de grades diferentes podem dividir um balde por acaso
+        if (genders[a] != genders[b] || Math.abs(weights[a] - weights[b]) > WEIGHT_TOLERANCE) {
+            return 0;
+        }
+        double name = jaccard(nameBigrams[a], nameBigrams[b]);
+        if (name < NAME_THRESHOLD) {
+            return 0;
+        }
+        double breed = containsAll(breedTokens[a], breedTokens[b])
+                || containsAll(breedTokens[b], breedTokens[a])
+                ? 1 : jaccard(breedBigrams[a], breedBigrams[b]);
+        if (breed < BREED_THRESHOLD) {
+            return 0;
+        }
+        return (2 * name + breed) / 3;
+    }
+
+    /**
+     * Returns the normalized tokens of the text, sorted and distinct; none for null.
+     */
+    static String[] tokens(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        String normalized = Normalizer.normalize(text.toLowerCase(Locale.ROOT),
+                Normalizer.Form.NFD);
+        normalized = SEPARATORS.matcher(ACCENTS.matcher(normalized).replaceAll(""))
+                .replaceAll(" ").trim();
+        if (normalized.isEmpty()) {
+            return new String[0];
+        }
+        String[] tokens = normalized.split(" ");
+        Arrays.sort(tokens);
+        int distinct = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (i == 0 || !tokens[i].equals(tokens[distinct - 1])) {
+                tokens[distinct++] = tokens[i];
+            }
+        }
+        return Arrays.copyOf(tokens, distinct);
+    }
+
+    /**
+     * Returns the character bigrams of the tokens, each token padded with '#' at both ends, as
+     * sorted distinct ints. Normalized tokens are ASCII, so a bigram fits an int exactly.
+     */
+    private static int[] bigrams(String[] tokens) {
+        int total = 0;
+        for (String token : tokens) {
+            total += token.length() + 1;
+        }
+        int[] bigrams = new int[total];
+        int count = 0;
+        for (String token : tokens) {
+            char previous = '#';
+            for (int i = 0; i <= token.length(); i++) {
+                char next = i < token.length() ? token.charAt(i) : '#';
+                bigrams[count++] = previous << 16 | next;
+                previous = next;
+            }
+        }
+        Arrays.sort(bigrams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || bigrams[i] != bigrams[distinct - 1]) {
+                bigrams[distinct++] = bigrams[i];
+            }
+        }
+        return Arrays.copyOf(bigrams, distinct);
+    }
+
+    /**
+     * Fills the signature with, for every hash function, the smallest hash of the bigrams.
+     */
+    private static void minHash(int[] bigrams, long[] signature) {
+        for (int i = 0; i < signature.length; i++) {
+            long min = Long.MAX_VALUE;
+            for (int bigram : bigrams) {
+                min = Math.min(min, mix(bigram ^ SEEDS[i]));
+            }
+            signature[i] = min;
+        }
+    }
+
+    /** Jaccard similarity of two sorted distinct sets; 1 if both are empty */
+    private static double jaccard(int[] a, int[] b) {
+        if (a.length == 0 && b.length == 0) {
+            return 1;
+        }
+        int common = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (a.length + b.length - common);
+    }
+
+    /** Returns true if the sorted tokens {@code all} contain every one of {@code part} */
+    private static boolean containsAll(String[] all, String[] part) {
+        for (String token : part) {
+            if (Arrays.binarySearch(all, token) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /** Finalizer of MurmurHash3: spreads every input bit over the whole output */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,548 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.FacetCounts;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.debug.PetTrace;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory bitmap index of the pets by gender, breed and weight bucket, for
+ * {@link PetContract#METHOD_COUNT_FACETS}.
+ *
+ * Every value of every facet has the {@link PetBitmap} of the IDs of its pets. A filter is the
+ * union of the bitmaps of its values, the pets matching all the filters are the intersection of
+ * the filters, and the count of a value is the size of its intersection with the filters of the
+ * other facets: any combination of filters is answered with bitwise operations in memory,
+ * instead of one {@code COUNT(*)} scan of the table per combination.
+ *
+ * The index is built on a background thread when the provider starts, with one scan of the facet
+ * columns, and kept up to date afterwards by the provider, which passes the IDs of the pets
+ * touched by every write to {@link #reindex}; those pets are read again from the store, outside
+ * the lock that {@link #count} takes. A write of more than {@link #MAX_REINDEX_IDS} pets builds
+ * the index again instead, and the current version stays in use meanwhile.
+ *
+ * The writes made during the scan of a build are recorded, and their pets are read again after
+ * the scan, before the index is published. Only a write whose pets are unknown makes the build
+ * scan again; after {@link #MAX_SCANS} scans, the writes wait for the last one to end.
+ */
+final class PetFacetIndex {
+
+    private static final String LOG_TAG = PetFacetIndex.class.getSimpleName();
+
+    private static final String[] FACET_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private static final String[] ID_PROJECTION = { PetEntry._ID };
+
+    /** Number of pets read again per query, below the 999 arguments allowed by SQLite */
+    private static final int IDS_PER_QUERY = 500;
+
+    /** Number of pets above which a write builds the index again instead of reading them */
+    static final int MAX_REINDEX_IDS = 10000;
+
+    /** Number of scans of a build before the writes are held until it ends */
+    static final int MAX_SCANS = 3;
+
+    /**
+     * Counts returned by {@link #count}. See {@link FacetCounts} for their meaning.
+     */
+    static final class Counts {
+        int total;
+        int[] genders;
+        String[] breedNames;
+        int[] breeds;
+        int[] weights;
+        /** Null unless asked for */
+        long[] ids;
+    }
+
+    /**
+     * The bitmaps of all the values of the facets.
+     */
+    private static final class Facets {
+        final PetBitmap all = new PetBitmap();
+        final PetBitmap[] genders = newBitmaps(PetEntry.GENDER_FEMALE + 1);
+        final PetBitmap[] weights = newBitmaps(FacetCounts.WEIGHT_BUCKETS);
+        /** In alphabetical order; breeds without pets are removed */
+        final Map<String, PetBitmap> breeds = new TreeMap<String, PetBitmap>();
+        /** Highest ID indexed */
+        long maxId = -1;
+
+        /**
+         * Adds the pets of the cursor, which has the {@link #FACET_PROJECTION}.
+         */
+        void addAll(Cursor cursor) {
+            while (cursor.moveToNext()) {
+                add(toIndexId(cursor.getLong(0)), cursor.getInt(1), cursor.getString(2),
+                        cursor.getInt(3));
+            }
+        }
+
+        void add(int id, int gender, String breed, int weight) {
+            if (gender >= 0 && gender < genders.length) {
+                genders[gender].add(id);
+            }
+            // Como nas sugestões de raça, raças vazias não são indexadas
+            if (breed != null && breed.trim().length() != 0) {
+                PetBitmap bitmap = breeds.get(breed);
+                if (bitmap == null) {
+                    bitmap = new PetBitmap();
+                    breeds.put(breed, bitmap);
+                }
+                bitmap.add(id);
+            }
+            weights[FacetCounts.weightBucket(weight)].add(id);
+            all.add(id);
+            maxId = Math.max(maxId, id);
+        }
+
+        void remove(int id) {
+            if (!all.remove(id)) {
+                return;
+            }
+            for (PetBitmap bitmap : genders) {
+                if (bitmap.remove(id)) {
+                    break;
+                }
+            }
+            for (PetBitmap bitmap : weights) {
+                if (bitmap.remove(id)) {
+                    break;
+                }
+            }
+            Iterator<PetBitmap> breedBitmaps = breeds.values().iterator();
+            while (breedBitmaps.hasNext()) {
+                PetBitmap bitmap = breedBitmaps.next();
+                if (bitmap.remove(id)) {
+                    if (bitmap.isEmpty()) {
+                        breedBitmaps.remove();
+                    }
+                    break;
+                }
+            }
+        }
+
+        private static PetBitmap[] newBitmaps(int n) {
+            PetBitmap[] bitmaps = new PetBitmap[n];
+            for (int i = 0; i < n; i++) {
+                bitmaps[i] = new PetBitmap();
+            }
+            return bitmaps;
+        }
+    }
+
+    /**
+     * Facets of a pet read again from the store, before they are added to the index.
+     */
+    private static final class Row {
+        final int id;
+        final int gender;
+        final String breed;
+        final int weight;
+
+        Row(int id, int gender, String breed, int weight) {
+            this.id = id;
+            this.gender = gender;
+            this.breed = breed;
+            this.weight = weight;
+        }
+    }
+
+    private final PetStore mStore;
+
+    /**
+     * Serializes the reading of pets again, so that two writes of the same pet are indexed in the
+     * order they were read, and the end of a build. It is held during queries of the store, but
+     * never by {@link #count}.
+     */
+    private final Object mReindexLock = new Object();
+
+    /**
+     * Guards the fields below, and the bitmaps, which are changed in place. It is only held for
+     * operations in memory, which take microseconds, never for a query of the store.
+     */
+    private final Object mLock = new Object();
+
+    /** Current version of the index, null until built */
+    private Facets mFacets;
+    private boolean mBuilding;
+    /** IDs of the pets written during the scan of the running build, to be read again after it */
+    private PetBitmap mPendingIds;
+    /** Whether a write with unknown or too many IDs happened during the scan of the build */
+    private boolean mPendingRescan;
+
+    PetFacetIndex(PetStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Returns true once the index is built.
+     */
+    boolean isBuilt() {
+        synchronized (mLock) {
+            return mFacets != null;
+        }
+    }
+
+    /**
+     * Returns true once the index is built or being built. From then on, writes must look up the
+     * pets they change with {@link #findIds}, or a build running concurrently can't tell which
+     * pets to read again, and scans again.
+     */
+    boolean isStarted() {
+        synchronized (mLock) {
+            return mFacets != null || mBuilding;
+        }
+    }
+
+    /**
+     * Returns the highest ID indexed, or -1 if the index is not built or empty. Pets inserted
+     * afterwards have greater IDs, unless their IDs are given.
+     */
+    long getMaxId() {
+        synchronized (mLock) {
+            return mFacets == null ? -1 : mFacets.maxId;
+        }
+    }
+
+    /**
+     * Returns the IDs of the pets matching the selection, before they are updated or deleted, or
+     * null if there are more than {@link #MAX_REINDEX_IDS}: the index is then built again.
+     */
+    long[] findIds(String selection, String[] selectionArgs) {
+        Cursor cursor = mStore.query(ID_PROJECTION, selection, selectionArgs, null, null);
+        try {
+            if (cursor.getCount() > MAX_REINDEX_IDS) {
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads again the pets with the given IDs, which a write inserted, changed or deleted. Must be
+     * called after every write that may change the facets, even before the index is built, so
+     * that a build running concurrently sees it.
+     *
+     * @param ids the IDs of the pets written, or null if they are unknown, in which case the
+     *            index is built again; the current one stays in use meanwhile
+     */
+    void reindex(long[] ids) {
+        reindex(ids, null);
+    }
+
+    /**
+     * Reads the pets with an ID greater than the given one, which a write inserted without giving
+     * their IDs. See {@link #reindex(long[])}.
+     *
+     * @param lastId the result of {@link #getMaxId} before the write
+     */
+    void reindexAfter(long lastId) {
+        if (lastId >= 0) {
+            reindex(new long[0], String.valueOf(lastId));
+            return;
+        }
+        // Sem índice antes da escrita: o build em andamento lê os pets novos no fim da varredura,
+        // e só um índice publicado depois da consulta do último ID precisa ser refeito
+        synchronized (mReindexLock) {
+            synchronized (mLock) {
+                if (mFacets == null) {
+                    return;
+                }
+            }
+        }
+        buildInBackground();
+    }
+
+    private void reindex(long[] ids, String afterId) {
+        synchronized (mReindexLock) {
+            Facets facets;
+            synchronized (mLock) {
+                if (mBuilding) {
+                    // A varredura em andamento pode ter lido estes pets antes da escrita
+                    addPending(ids);
+                }
+                facets = mFacets;
+            }
+            if (facets == null || (ids != null && ids.length == 0 && afterId == null)) {
+                return;
+            }
+            if (ids != null && ids.length <= MAX_REINDEX_IDS) {
+                try {
+                    List<Row> rows = readAgain(ids, afterId);
+                    synchronized (mLock) {
+                        apply(facets, ids, rows);
+                    }
+                    return;
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to update the facet index, building it again", e);
+                }
+            }
+        }
+        buildInBackground();
+    }
+
+    /**
+     * Records the IDs written during the scan of the running build. Must hold mLock.
+     */
+    private void addPending(long[] ids) {
+        if (ids == null || ids.length > MAX_REINDEX_IDS) {
+            mPendingRescan = true;
+            return;
+        }
+        for (long id : ids) {
+            if (id >= 0 && id <= Integer.MAX_VALUE) {
+                mPendingIds.add((int) id);
+            }
+        }
+    }
+
+    /**
+     * Reads from the store the pets with the given IDs, and those with an ID greater than
+     * afterId, if not null. Deleted pets are not returned.
+     */
+    private List<Row> readAgain(long[] ids, String afterId) {
+        List<Row> rows = new ArrayList<Row>();
+        for (int start = 0; start < ids.length; start += IDS_PER_QUERY) {
+            int end = Math.min(start + IDS_PER_QUERY, ids.length);
+            StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+            String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                selectionArgs[i - start] = String.valueOf(ids[i]);
+            }
+            readRows(selection.append(')').toString(), selectionArgs, rows);
+        }
+        if (afterId != null) {
+            readRows(PetEntry._ID + " > ?", new String[] { afterId }, rows);
+        }
+        return rows;
+    }
+
+    private void readRows(String selection, String[] selectionArgs, List<Row> rows) {
+        Cursor cursor = mStore.query(FACET_PROJECTION, selection, selectionArgs, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(new Row(toIndexId(cursor.getLong(0)), cursor.getInt(1),
+                        cursor.getString(2), cursor.getInt(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replaces the pets with the given IDs by the rows read again from the store.
+     */
+    private static void apply(Facets facets, long[] ids, List<Row> rows) {
+        for (long id : ids) {
+            if (id >= 0 && id <= Integer.MAX_VALUE) {
+                facets.remove((int) id);
+            }
+        }
+        for (Row row : rows) {
+            // Os pets novos podem já ter sido lidos por outra escrita
+            facets.remove(row.id);
+            facets.add(row.id, row.gender, row.breed, row.weight);
+        }
+    }
+
+    private void read(Facets facets, String selection, String[] selectionArgs) {
+        Cursor cursor = mStore.query(FACET_PROJECTION, selection, selectionArgs, null, null);
+        try {
+            facets.addAll(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int toIndexId(long id) {
+        if (id < 0 || id > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Pet ID " + id + " out of the index range");
+        }
+        return (int) id;
+    }
+
+    /**
+     * Counts the pets of every facet value within the filters, each null if that facet is not
+     * filtered. Returns null while the index is not built.
+     *
+     * @param withIds whether to list the IDs of the pets matching all the filters
+     */
+    Counts count(int[] genders, String[] breeds, int[] weights, boolean withIds) {
+        synchronized (mLock) {
+            Facets facets = mFacets;
+            if (facets == null) {
+                return null;
+            }
+            PetBitmap genderFilter = genders == null ? null : union(facets.genders, genders);
+            PetBitmap weightFilter = weights == null ? null : union(facets.weights, weights);
+            PetBitmap breedFilter = null;
+            if (breeds != null) {
+                breedFilter = new PetBitmap();
+                for (String breed : breeds) {
+                    PetBitmap bitmap = facets.breeds.get(breed);
+                    if (bitmap != null) {
+                        breedFilter = PetBitmap.or(breedFilter, bitmap);
+                    }
+                }
+            }
+
+            Counts counts = new Counts();
+            // Cada faceta é contada com os filtros das outras, não com o seu
+            counts.genders = countEach(facets.genders, and(breedFilter, weightFilter));
+            counts.weights = countEach(facets.weights, and(genderFilter, breedFilter));
+            PetBitmap otherThanBreed = and(genderFilter, weightFilter);
+            // Intersectado com todas as raças: em bitmaps, cada uma custa só o seu tamanho
+            PetBitmap breedCountFilter = otherThanBreed == null ? null : otherThanBreed.toDense();
+            counts.breedNames = new String[facets.breeds.size()];
+            counts.breeds = new int[facets.breeds.size()];
+            int i = 0;
+            for (Map.Entry<String, PetBitmap> breed : facets.breeds.entrySet()) {
+                counts.breedNames[i] = breed.getKey();
+                counts.breeds[i] = count(breed.getValue(), breedCountFilter);
+                i++;
+            }
+
+            PetBitmap matching = and(otherThanBreed, breedFilter);
+            if (matching == null) {
+                matching = facets.all;
+            }
+            counts.total = matching.getCardinality();
+            if (withIds) {
+                counts.ids = matching.toIds();
+            }
+            return counts;
+        }
+    }
+
+    private static PetBitmap union(PetBitmap[] bitmaps, int[] values) {
+        PetBitmap union = new PetBitmap();
+        for (int value : values) {
+            if (value >= 0 && value < bitmaps.length) {
+                union = PetBitmap.or(union, bitmaps[value]);
+            }
+        }
+        return union;
+    }
+
+    /**
+     * Intersects two filters, null standing for no filter.
+     */
+    private static PetBitmap and(PetBitmap a, PetBitmap b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : PetBitmap.and(a, b);
+    }
+
+    private static int count(PetBitmap bitmap, PetBitmap filter) {
+        return filter == null ? bitmap.getCardinality() : PetBitmap.andCardinality(bitmap, filter);
+    }
+
+    private static int[] countEach(PetBitmap[] bitmaps, PetBitmap filter) {
+        int[] counts = new int[bitmaps.length];
+        for (int i = 0; i < bitmaps.length; i++) {
+            counts[i] = count(bitmaps[i], filter);
+        }
+        return counts;
+    }
+
+    /**
+     * Starts building the index on a background thread, unless a build is already running.
+     */
+    void buildInBackground() {
+        synchronized (mLock) {
+            if (mBuilding) {
+                return;
+            }
+            mBuilding = true;
+            mPendingIds = new PetBitmap();
+            mPendingRescan = false;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                build();
+            }
+        }, LOG_TAG).start();
+    }
+
+    private void build() {
+        long section = PetTrace.begin("PetFacetIndex.build", null);
+        int pets = -1;
+        try {
+            for (int scan = 1; pets < 0; scan++) {
+                if (scan < MAX_SCANS) {
+                    pets = scanAndCatchUp();
+                } else {
+                    // As escritas esperam o fim desta varredura: nenhuma pode escapar dela
+                    Log.w(LOG_TAG, "Writes overlapped " + (scan - 1) + " scans, holding them");
+                    synchronized (mReindexLock) {
+                        pets = scanAndCatchUp();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to build the facet index", e);
+            synchronized (mLock) {
+                mBuilding = false;
+                mPendingIds = null;
+            }
+        } finally {
+            PetTrace.end(section, "pets", pets);
+        }
+    }
+
+    /**
+     * Scans the pets, reads again those written during the scan and publishes the index. Returns
+     * the number of pets indexed, or -1 if the writes during the scan have unknown IDs or are too
+     * many to read again, and the pets must be scanned again.
+     */
+    private int scanAndCatchUp() {
+        synchronized (mLock) {
+            mPendingIds = new PetBitmap();
+            mPendingRescan = false;
+        }
+        Facets facets = new Facets();
+        read(facets, null, null);
+        // Até a publicação as escritas esperam, e a lista das escritas durante a varredura fica
+        // completa
+        synchronized (mReindexLock) {
+            long[] pendingIds;
+            synchronized (mLock) {
+                if (mPendingRescan || mPendingIds.getCardinality() > MAX_REINDEX_IDS) {
+                    return -1;
+                }
+                pendingIds = mPendingIds.toIds();
+            }
+            // Os pets inseridos durante a varredura têm IDs maiores que os dela
+            apply(facets, pendingIds, readAgain(pendingIds, String.valueOf(facets.maxId)));
+            synchronized (mLock) {
+                mFacets = facets;
+                mBuilding = false;
+                mPendingIds = null;
+            }
+            return facets.all.getCardinality();
+        }
+    }
+}
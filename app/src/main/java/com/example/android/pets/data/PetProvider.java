@@ -5,15 +5,45 @@ package com.example.android.pets.data;
  */
 
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract.BreedSuggestions;
+import com.example.android.pets.data.PetContract.BulkRead;
+import com.example.android.pets.data.PetContract.DuplicateEntry;
+import com.example.android.pets.data.PetContract.DuplicateScan;
+import com.example.android.pets.data.PetContract.FacetCounts;
+import com.example.android.pets.data.PetContract.MaintenanceEntry;
+import com.example.android.pets.data.PetContract.MaintenanceRun;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.StartupStats;
+import com.example.android.pets.data.PetContract.SyncStats;
+import com.example.android.pets.data.PetContract.WeightEntry;
+import com.example.android.pets.data.PetContract.WriteGeneration;
+import com.example.android.pets.debug.PetTrace;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.R.attr.id;
 
@@ -28,6 +58,15 @@ public class PetProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single pet in the pets table */
     private static final int PET_ID = 101;
 
+    /** URI matcher code for the content URI for the weight history of a single pet */
+    private static final int PET_WEIGHTS = 102;
+
+    /** URI matcher code for the content URI for the maintenance log */
+    private static final int MAINTENANCE = 103;
+
+    /** URI matcher code for the content URI for the candidate duplicate pets */
+    private static final int DUPLICATES = 104;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -59,77 +98,461 @@ public class PetProvider extends ContentProvider {
          * "content://com.example.app.provider/table3 doesn't.
          */
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+
+        /*
+         * "content://com.example.android.pets/pets/3/weights" is the weight history of pet 3.
+         */
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_WEIGHTS, PET_WEIGHTS);
+
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_MAINTENANCE,
+                MAINTENANCE);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_DUPLICATES,
+                DUPLICATES);
     }
 
-    /** Database help object*/
-    private PetDbHelper mDbHelper;
+    /** Memory budget of the query cache, in bytes */
+    private static final long QUERY_CACHE_BYTES = 1024 * 1024;
+
+    /** Number of breeds suggested when the caller doesn't set a limit */
+    private static final int DEFAULT_BREED_SUGGESTIONS = 8;
+
+    /**
+     * Storage backend of the pets table. Like the other fields set by {@link #startUp}, it must
+     * only be read after {@link #awaitStartUp} or {@link #isStarted}.
+     */
+    private PetStore mStore;
+
+    /** Opened once {@link #startUp} is done */
+    private final CountDownLatch mStartUp = new CountDownLatch(1);
+
+    /** Time the provider was created, the origin of the {@link StartupStats} */
+    private final long mCreatedAt = SystemClock.elapsedRealtime();
+
+    // Medidas de StartupStats, -1 até serem conhecidas
+    private volatile long mWarmUpDone = -1;
+    private volatile long mFirstQueryDone = -1;
+    private volatile long mFirstQueryWait = -1;
+    private volatile boolean mFirstQueryWarm;
+    private final AtomicBoolean mFirstQuery = new AtomicBoolean();
+
+    /**
+     * Write generation of the provider. Every insert, update or delete that changes rows bumps it,
+     * so a result read at a given generation is current for as long as the generation is unchanged.
+     */
+    private final AtomicLong mWriteGeneration = new AtomicLong();
+
+    /** Results of recent queries, valid while the write generation doesn't change */
+    private final PetQueryCache mQueryCache = new PetQueryCache(QUERY_CACHE_BYTES);
+
+    /** Breeds of the store by prefix, for {@link PetContract#METHOD_SUGGEST_BREEDS} */
+    private BreedPrefixIndex mBreedIndex;
+
+    /** Pets by gender, breed and weight, for {@link PetContract#METHOD_COUNT_FACETS} */
+    private PetFacetIndex mFacetIndex;
+
+    /** Sync with the shelter server, created by the first {@link PetContract#METHOD_SYNC} */
+    private PetSyncEngine mSyncEngine;
+
+    /**
+     * Upkeep of the database, for {@link PetContract#METHOD_RUN_MAINTENANCE}; null with the
+     * columnar store, which has no database to maintain
+     */
+    private PetDbMaintenance mMaintenance;
+
+    /** Search of duplicate pets, for {@link PetContract#METHOD_FIND_DUPLICATES} */
+    private PetDuplicateDetector mDuplicateDetector;
 
     /** Tag for the log messages */
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
 
     /**
-     * Initialize the provider and the database helper object.
+     * Initialize the provider. It runs on the main thread while the process starts, so it only
+     * starts a thread that opens and warms up the store, see {@link #startUp}.
      */
     @Override
     public boolean onCreate() {
-        // TODO: Create and initialize a PetDbHelper object to gain access to the pets database.
-        // Make sure the variable is a global variable, so it can be referenced from other
-        // ContentProvider methods.
-        mDbHelper = new PetDbHelper(getContext());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                startUp();
+            }
+        }, LOG_TAG + ".startUp").start();
         return true;
     }
 
+    /**
+     * Opens the store and warms it up, at the priority of the first frame, which waits for its
+     * first query. The SQLite store is the default; builds that set
+     * {@code use_columnar_pet_store} (read-heavy kiosks, benchmarks) get an in-memory columnar
+     * copy of the database instead, whose writes are not persisted.
+     *
+     * The database is opened, its schema created or upgraded, and the catalog query run once,
+     * which prepares its statement, reads the pages of the pets table and the breed dictionary
+     * into memory, and leaves the result in the query cache when it fits. Callers arriving
+     * meanwhile wait for it in {@link #awaitStartUp} instead of doing the same work.
+     */
+    private void startUp() {
+        long section = PetTrace.begin("PetProvider.startUp", null);
+        try {
+            PetDbHelper dbHelper = new PetDbHelper(getContext());
+            PetStore sqliteStore = new SqlitePetStore(dbHelper);
+            if (getContext().getResources().getBoolean(R.bool.use_columnar_pet_store)) {
+                mStore = ColumnarPetStore.copyOf(sqliteStore);
+                dbHelper.close();
+            } else {
+                mStore = sqliteStore;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    mMaintenance = new PetDbMaintenance(dbHelper);
+                }
+            }
+            mBreedIndex = new BreedPrefixIndex(mStore);
+            mFacetIndex = new PetFacetIndex(mStore);
+            warmUp(dbHelper);
+            mWarmUpDone = SystemClock.elapsedRealtime() - mCreatedAt;
+        } catch (RuntimeException e) {
+            // Sem store, as chamadas falham em awaitStartUp; com ele, a primeira consulta
+            // repete o que falhou e reporta o erro a quem a fez
+            Log.e(LOG_TAG, "Failed to start the pet store", e);
+        } finally {
+            mStartUp.countDown();
+            PetTrace.end(section);
+        }
+        if (mFacetIndex != null) {
+            mFacetIndex.buildInBackground();
+        }
+    }
+
+    private void warmUp(PetDbHelper dbHelper) {
+        if (mStore instanceof SqlitePetStore) {
+            long section = PetTrace.begin("PetDbHelper.open", null);
+            try {
+                dbHelper.getWritableDatabase();
+            } finally {
+                PetTrace.end(section);
+            }
+        }
+
+        long generation = mWriteGeneration.get();
+        PetQueryCache.Key key = new PetQueryCache.Key(PetEntry.CONTENT_URI,
+                PetEntry.CATALOG_PROJECTION, null, null, null);
+        Cursor result = queryStore(PetEntry.CONTENT_URI, PETS, PetEntry.CATALOG_PROJECTION,
+                null, null, null, null);
+        mQueryCache.put(key, generation, result).close();
+    }
+
+    /**
+     * Waits for {@link #startUp} to finish. Returns the time waited, in milliseconds.
+     *
+     * @throws IllegalStateException if the store failed to open
+     */
+    private long awaitStartUp() {
+        long waited = 0;
+        if (mStartUp.getCount() != 0) {
+            long section = PetTrace.begin("PetProvider.awaitStartUp", null);
+            long start = SystemClock.elapsedRealtime();
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        mStartUp.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                waited = SystemClock.elapsedRealtime() - start;
+                PetTrace.end(section);
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (mStore == null) {
+            throw new IllegalStateException("The pet store failed to start");
+        }
+        return waited;
+    }
+
+    /**
+     * Returns true once {@link #startUp} is done, for the methods that only read memory and
+     * answer "not ready" rather than block the main thread.
+     */
+    private boolean isStarted() {
+        return mStartUp.getCount() == 0 && mStore != null;
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI, like {@link #query(Uri, String[], String, String[],
+     * String)}, stopping the work on the database with an {@link OperationCanceledException} if
+     * the caller cancels the signal first. Loaders cancel it when their result is no longer
+     * wanted.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        long access = MainThreadDbAccessDetector.begin("query", uri);
+        int match = sUriMatcher.match(uri);
+        long section = PetTrace.begin("PetProvider.query", matchName(match));
+        Cursor cursor = null;
+        try {
+            long waited = awaitStartUp();
+
+            // A generation é lida antes da consulta: se uma escrita terminar durante a consulta,
+            // o resultado fica marcado com a generation antiga e não é servido depois
+            long generation = mWriteGeneration.get();
+            PetQueryCache.Key key = new PetQueryCache.Key(uri, projection, selection,
+                    selectionArgs, sortOrder);
+            cursor = mQueryCache.get(key, generation);
+            boolean cached = cursor != null;
+            if (cursor == null) {
+                Cursor result = queryStore(uri, match, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                long copySection = PetTrace.begin("PetQueryCache.put", null);
+                try {
+                    cursor = mQueryCache.put(key, generation, result);
+                } finally {
+                    PetTrace.end(copySection);
+                }
+            }
+
+            // Set notification URI on the Cursor,
+            // so we know what content URI the Cursor was created for.
+            // If the data at this URI changes, then we know we need to update the Cursor.
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+            if (mFirstQuery.compareAndSet(false, true)) {
+                mFirstQueryWait = waited;
+                mFirstQueryWarm = cached;
+                mFirstQueryDone = SystemClock.elapsedRealtime() - mCreatedAt;
+                Log.i(LOG_TAG, "First query done " + mFirstQueryDone + "ms after start, "
+                        + waited + "ms of it waiting for the warm-up" + (cached ? ", warm" : ""));
+            }
+            return cursor;
+        } finally {
+            PetTrace.end(section, "rows", cursor == null ? 0 : cursor.getCount());
+            MainThreadDbAccessDetector.end(access);
+        }
+    }
 
+    /**
+     * Perform the query for the given URI, whose URI matcher code is {@code match}, on the store,
+     * bypassing the query cache. The returned cursor is already filled.
+     */
+    private Cursor queryStore(Uri uri, int match, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder,
+                              CancellationSignal cancellationSignal) {
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
+        long section = PetTrace.begin("PetStore.query", matchName(match));
+        try {
+            switch (match) {
+                case PETS:
+                    // For the PETS code, query the pets table directly with the given
+                    // projection, selection, selection arguments, and sort order. The cursor
+                    // could contain multiple rows of the pets table.
+                    cursor = mStore.query(projection, selection, selectionArgs, sortOrder,
+                            cancellationSignal);
+                    break;
+                case PET_ID:
+                    // For the PET_ID code, extract out the ID from the URI.
+                    // For an example URI such as "content://com.example.android.pets/pets/3",
+                    // the selection will be "_id=?" and the selection argument will be a
+                    // String array containing the actual ID of 3 in this case.
+                    //
+                    // For every "?" in the selection, we need to have an element in the
+                    // selection arguments that will fill in the "?". Since we have 1 question
+                    // mark in the selection, we have 1 String in the selection arguments' String
+                    // array.
+                    selection = PetEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+
+                    // This will perform a query on the pets table where the _id equals 3 to return
+                    // a Cursor containing that row of the table.
+                    cursor = mStore.query(projection, selection, selectionArgs, sortOrder,
+                            cancellationSignal);
+                    break;
+                case PET_WEIGHTS:
+                    cursor = queryWeights(uri, projection, selection, selectionArgs, sortOrder,
+                            cancellationSignal);
+                    break;
+                case MAINTENANCE:
+                    cursor = queryMaintenance(uri, projection, selection, selectionArgs,
+                            sortOrder, cancellationSignal);
+                    break;
+                case DUPLICATES:
+                    cursor = queryDuplicates(uri, projection, selection, selectionArgs,
+                            sortOrder, cancellationSignal);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+            }
+        } finally {
+            PetTrace.end(section);
+        }
+
+        // SQLite só executa a consulta quando o cursor é lido pela primeira vez
+        section = PetTrace.begin("CursorWindow fill", matchName(match));
+        int rows = 0;
+        try {
+            rows = cursor.getCount();
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        } finally {
+            PetTrace.end(section, "rows", rows);
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the name of a URI matcher code, to tag trace sections.
+     */
+    private static String matchName(int match) {
         switch (match) {
             case PETS:
-                // For the PETS code, query the pets table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the pets table.
-                // TODO: Perform database query on pets table
-
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
+                return "PETS";
             case PET_ID:
-                // For the PET_ID code, extract out the ID from the URI.
-                // For an example URI such as "content://com.example.android.pets/pets/3",
-                // the selection will be "_id=?" and the selection argument will be a
-                // String array containing the actual ID of 3 in this case.
-                //
-                // For every "?" in the selection, we need to have an element in the selection
-                // arguments that will fill in the "?". Since we have 1 question mark in the
-                // selection, we have 1 String in the selection arguments' String array.
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-
-                // This will perform a query on the pets table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
+                return "PET_ID";
+            case PET_WEIGHTS:
+                return "PET_WEIGHTS";
+            case MAINTENANCE:
+                return "MAINTENANCE";
+            case DUPLICATES:
+                return "DUPLICATES";
             default:
-                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+                return "NO_MATCH";
+        }
+    }
+
+    /**
+     * Query the weight history of the pet in the given URI, restricted to the time range in the
+     * {@link WeightEntry#PARAM_FROM} and {@link WeightEntry#PARAM_TO} query parameters. If the
+     * {@link WeightEntry#PARAM_BUCKET} parameter is present, return one row of min/avg/max per
+     * bucket instead of the raw readings (the projection is then ignored).
+     */
+    private Cursor queryWeights(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder,
+                                CancellationSignal cancellationSignal) {
+        // O histórico de peso só existe no banco de dados SQLite
+        if (!(mStore instanceof SqlitePetStore)) {
+            throw new IllegalArgumentException("Weight history is not available for " + uri);
         }
+        SQLiteDatabase database = ((SqlitePetStore) mStore).getDbHelper().getReadableDatabase();
 
-        // Set notification URI on the Cursor,
-        // so we know what content URI the Cursor was created for.
-        // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // pets/#/weights: o ID do pet é o penúltimo segmento
+        String petId = uri.getPathSegments().get(1);
+        long from = parseLongParameter(uri, WeightEntry.PARAM_FROM, Long.MIN_VALUE);
+        long to = parseLongParameter(uri, WeightEntry.PARAM_TO, Long.MAX_VALUE);
 
-        return cursor;
+        // A seleção segue a ordem do índice (pet, tempo), então a busca é um range scan no índice
+        String rangeSelection = WeightEntry.COLUMN_PET_ID + "=? AND "
+                + WeightEntry.COLUMN_RECORDED_AT + ">=? AND "
+                + WeightEntry.COLUMN_RECORDED_AT + "<=?";
+        String[] rangeArgs = new String[] { petId, String.valueOf(from), String.valueOf(to) };
+        if (selection != null) {
+            rangeSelection = rangeSelection + " AND (" + selection + ")";
+            rangeArgs = concat(rangeArgs, selectionArgs);
+        }
+
+        String bucketParameter = uri.getQueryParameter(WeightEntry.PARAM_BUCKET);
+        if (bucketParameter == null) {
+            if (sortOrder == null) {
+                sortOrder = WeightEntry.COLUMN_RECORDED_AT;
+            }
+            return SqlitePetStore.query(database, WeightEntry.TABLE_NAME, projection,
+                    rangeSelection, rangeArgs, null, sortOrder, cancellationSignal);
+        }
+
+        long bucket = parseLongParameter(uri, WeightEntry.PARAM_BUCKET, 0);
+        if (bucket <= 0) {
+            throw new IllegalArgumentException("Weight bucket must be positive in " + uri);
+        }
+        String bucketStart = "(" + WeightEntry.COLUMN_RECORDED_AT + " / " + bucket + ") * " + bucket;
+        String[] columns = {
+                bucketStart + " AS " + WeightEntry.COLUMN_BUCKET_START,
+                "MIN(" + WeightEntry.COLUMN_WEIGHT + ") AS " + WeightEntry.COLUMN_MIN_WEIGHT,
+                "AVG(" + WeightEntry.COLUMN_WEIGHT + ") AS " + WeightEntry.COLUMN_AVG_WEIGHT,
+                "MAX(" + WeightEntry.COLUMN_WEIGHT + ") AS " + WeightEntry.COLUMN_MAX_WEIGHT,
+                "COUNT(*) AS " + WeightEntry.COLUMN_SAMPLES };
+        if (sortOrder == null) {
+            sortOrder = WeightEntry.COLUMN_BUCKET_START;
+        }
+        return SqlitePetStore.query(database, WeightEntry.TABLE_NAME, columns, rangeSelection,
+                rangeArgs, WeightEntry.COLUMN_BUCKET_START, sortOrder, cancellationSignal);
+    }
+
+    /**
+     * Query the maintenance log, the latest tasks first unless the caller sorts otherwise.
+     */
+    private Cursor queryMaintenance(Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder,
+                                    CancellationSignal cancellationSignal) {
+        if (!(mStore instanceof SqlitePetStore)) {
+            throw new IllegalArgumentException("Maintenance log is not available for " + uri);
+        }
+        SQLiteDatabase database = ((SqlitePetStore) mStore).getDbHelper().getReadableDatabase();
+        if (sortOrder == null) {
+            sortOrder = MaintenanceEntry._ID + " DESC";
+        }
+        return SqlitePetStore.query(database, MaintenanceEntry.TABLE_NAME, projection, selection,
+                selectionArgs, null, sortOrder, cancellationSignal);
+    }
+
+    /**
+     * Query the candidate duplicate pets, group by group unless the caller sorts otherwise.
+     */
+    private Cursor queryDuplicates(Uri uri, String[] projection, String selection,
+                                   String[] selectionArgs, String sortOrder,
+                                   CancellationSignal cancellationSignal) {
+        if (!(mStore instanceof SqlitePetStore)) {
+            throw new IllegalArgumentException("Duplicates are not available for " + uri);
+        }
+        SQLiteDatabase database = ((SqlitePetStore) mStore).getDbHelper().getReadableDatabase();
+        if (sortOrder == null) {
+            sortOrder = DuplicateEntry.COLUMN_GROUP + ", " + DuplicateEntry._ID;
+        }
+        return SqlitePetStore.query(database, DuplicateEntry.VIEW_NAME, projection, selection,
+                selectionArgs, null, sortOrder, cancellationSignal);
+    }
+
+    /**
+     * Returns the query parameter of the URI as a long, or the default value if it is absent.
+     */
+    private static long parseLongParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " in " + uri);
+        }
+    }
+
+    /**
+     * Returns the two selection argument arrays joined together. The second one may be null.
+     */
+    private static String[] concat(String[] first, String[] second) {
+        if (second == null) {
+            return first;
+        }
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
     }
 
     /**
@@ -137,12 +560,18 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        long access = MainThreadDbAccessDetector.begin("insert", uri);
+        try {
+            awaitStartUp();
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case PETS:
+                    return insertPet(uri, contentValues);
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            MainThreadDbAccessDetector.end(access);
         }
     }
 
@@ -151,6 +580,33 @@ public class PetProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertPet(Uri uri, ContentValues values) {
+        validateNewPet(values);
+
+        // Insere o novo pet com os dados valores
+        long id = mStore.insert(values);
+        // Se o ID é -1, então a inserção falhou. Imprime um Log de erro e retorna nulo.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        mWriteGeneration.incrementAndGet();
+        Map<String, Integer> breeds = new HashMap<String, Integer>();
+        BreedPrefixIndex.add(breeds, values.getAsString(PetEntry.COLUMN_PET_BREED), 1);
+        mBreedIndex.apply(breeds);
+        mFacetIndex.reindex(new long[] { id });
+
+        // Notify all listeners that the data has changed for the pet content URI
+        getContext().getContentResolver().notifyChange(uri, null);
+
+        // Returna o novo URI com o ID (do registro recém inserido) anexado ao fim
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Checks that the content values describe a valid new pet, throwing an
+     * {@link IllegalArgumentException} otherwise.
+     */
+    private static void validateNewPet(ContentValues values) {
         // Checa se o nome não é nulo
         String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
         if (name == null) {
@@ -170,23 +626,53 @@ public class PetProvider extends ContentProvider {
         }
 
         // Não é necessário checar a raça, qualquer valor é válido (incluindo nulo).
+    }
 
-        // Obtém banco de dados com permissão de escrita
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // Insere o novo pet com os dados valores
-        long id = database.insert(PetEntry.TABLE_NAME, null, values);
-        // Se o ID é -1, então a inserção falhou. Imprime um Log de erro e retorna nulo.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
-        }
+    /**
+     * Insert many pets at once. All the rows are written in a single transaction and listeners
+     * are notified once, which is much faster than one {@link #insert} per pet. If any row is
+     * invalid or fails to insert, none of them are inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long access = MainThreadDbAccessDetector.begin("bulkInsert", uri);
+        try {
+            awaitStartUp();
+            final int match = sUriMatcher.match(uri);
+            if (match != PETS) {
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+            // Os novos pets têm IDs maiores que os do índice, a não ser que os IDs sejam dados
+            long lastId = mFacetIndex.getMaxId();
+            boolean idsGiven = false;
+            for (ContentValues pet : values) {
+                validateNewPet(pet);
+                idsGiven |= pet.containsKey(PetEntry._ID);
+            }
 
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+            if (mStore.insertAll(values) != values.length) {
+                Log.e(LOG_TAG, "Failed to bulk insert rows for " + uri);
+                return 0;
+            }
 
-        // Returna o novo URI com o ID (do registro recém inserido) anexado ao fim
-        return ContentUris.withAppendedId(uri, id);
+            if (values.length != 0) {
+                mWriteGeneration.incrementAndGet();
+                Map<String, Integer> breeds = new HashMap<String, Integer>();
+                for (ContentValues pet : values) {
+                    BreedPrefixIndex.add(breeds, pet.getAsString(PetEntry.COLUMN_PET_BREED), 1);
+                }
+                mBreedIndex.apply(breeds);
+                if (idsGiven) {
+                    mFacetIndex.reindex(null);
+                } else {
+                    mFacetIndex.reindexAfter(lastId);
+                }
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+            return values.length;
+        } finally {
+            MainThreadDbAccessDetector.end(access);
+        }
     }
 
     /**
@@ -195,19 +681,25 @@ public class PetProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PET_ID:
-                // Para o código PET_ID, extraia o ID do URI,
-                // para sabermos qual registro atualizar. Selection será "_id=?" e selection
-                // args será um String array contendo o ID atual.
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        long access = MainThreadDbAccessDetector.begin("update", uri);
+        try {
+            awaitStartUp();
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case PETS:
+                    return updatePet(uri, contentValues, selection, selectionArgs);
+                case PET_ID:
+                    // Para o código PET_ID, extraia o ID do URI,
+                    // para sabermos qual registro atualizar. Selection será "_id=?" e selection
+                    // args será um String array contendo o ID atual.
+                    selection = PetEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                    return updatePet(uri, contentValues, selection, selectionArgs);
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            MainThreadDbAccessDetector.end(access);
         }
     }
 
@@ -251,15 +743,45 @@ public class PetProvider extends ContentProvider {
             return 0;
         }
 
-        // Caso contrário, obtém o banco de dados com permissão de escrita e para atualizar os dados
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // Raças que a atualização vai substituir, para o índice de sugestões
+        boolean breedChanged = values.containsKey(PetEntry.COLUMN_PET_BREED);
+        BreedPrefixIndex.Lookup replacedBreeds = null;
+        if (breedChanged && mBreedIndex.isBuilt()) {
+            replacedBreeds = mBreedIndex.countBreeds(selection, selectionArgs);
+        }
+
+        // Pets que a atualização vai mudar de faceta, para o índice de facetas
+        boolean facetsChanged = breedChanged
+                || values.containsKey(PetEntry.COLUMN_PET_GENDER)
+                || values.containsKey(PetEntry.COLUMN_PET_WEIGHT);
+        long[] changedIds = null;
+        if (facetsChanged && mFacetIndex.isStarted()) {
+            changedIds = mFacetIndex.findIds(selection, selectionArgs);
+        }
 
-        // Executa a atualização no banco de dados e obtém o número de linhas afetadas
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Executa a atualização no store e obtém o número de linhas afetadas
+        int rowsUpdated = mStore.update(values, selection, selectionArgs);
 
         // Se 1 ou mais linhas foram atualizadas, então notifica todos os listeners que os dados na
         // dada URI mudaram
         if (rowsUpdated != 0) {
+            mWriteGeneration.incrementAndGet();
+            if (breedChanged) {
+                // Sem as raças substituídas, ou se outra escrita mudou os pets entre a consulta e
+                // a atualização, o índice é refeito
+                Map<String, Integer> breeds = null;
+                if (replacedBreeds != null && replacedBreeds.pets == rowsUpdated) {
+                    breeds = BreedPrefixIndex.negate(replacedBreeds.counts);
+                    BreedPrefixIndex.add(breeds, values.getAsString(PetEntry.COLUMN_PET_BREED),
+                            rowsUpdated);
+                }
+                mBreedIndex.apply(breeds);
+            }
+            if (facetsChanged) {
+                // Como para as raças, os pets lidos antes da atualização podem não ser os mudados
+                mFacetIndex.reindex(changedIds == null || changedIds.length != rowsUpdated
+                        ? null : changedIds);
+            }
             getContext().getContentResolver().notifyChange(uri, null);
         }
         // Retorna o número de registros atualizados
@@ -270,35 +792,315 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Obtém banco de dados com permissão de escrita
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long access = MainThreadDbAccessDetector.begin("delete", uri);
+        try {
+            awaitStartUp();
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case PETS:
+                    // Deleta todos os registros que correspondem a selection e selection args
+                    break;
+                case PET_ID:
+                    // Deleta um único registro dado pelo ID na URI
+                    selection = PetEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    break;
+                default:
+                    throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
 
-        // Identifica o número de registros que foram atualizadas
-        int rowsDeleted;
+            // Raças dos pets que serão deletados, para o índice de sugestões
+            BreedPrefixIndex.Lookup deletedBreeds = null;
+            if (mBreedIndex.isBuilt()) {
+                deletedBreeds = mBreedIndex.countBreeds(selection, selectionArgs);
+            }
+            long[] deletedIds = null;
+            if (mFacetIndex.isStarted()) {
+                deletedIds = mFacetIndex.findIds(selection, selectionArgs);
+            }
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                // Deleta todos os registros que correspondem a selection e selection args
-                // Para o caso PETS:
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case PET_ID:
-                // Deleta um único registro dado pelo ID na URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            // Identifica o número de registros que foram deletados
+            int rowsDeleted = mStore.delete(selection, selectionArgs);
+
+            // Se 1 ou mais registros foram deletados, então notifica todos os listeners que os dados do
+            // dado URI mudaram
+            if (rowsDeleted != 0) {
+                mWriteGeneration.incrementAndGet();
+                // Refeito se outra escrita mudou os pets entre a consulta e a deleção
+                mBreedIndex.apply(deletedBreeds == null || deletedBreeds.pets != rowsDeleted
+                        ? null : BreedPrefixIndex.negate(deletedBreeds.counts));
+                mFacetIndex.reindex(deletedIds == null || deletedIds.length != rowsDeleted
+                        ? null : deletedIds);
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+            // Retorna o número de registros deletados
+            return rowsDeleted;
+        } finally {
+            MainThreadDbAccessDetector.end(access);
         }
+    }
 
-        // Se 1 ou mais registros foram deletados, então notifica todos os listeners que os dados do
-        // dado URI mudaram
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Handles the provider methods declared in {@link PetContract}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        // Métodos que só leem memória, e que podem ser chamados na main thread: não esperam o
+        // início do store
+        if (PetContract.METHOD_QUERY_CACHE_STATS.equals(method)) {
+            return mQueryCache.getStats();
+        }
+        if (PetContract.METHOD_STARTUP_STATS.equals(method)) {
+            return getStartupStats();
+        }
+        if (PetContract.METHOD_SUGGEST_BREEDS.equals(method)) {
+            return suggestBreeds(arg, extras);
+        }
+        if (PetContract.METHOD_COUNT_FACETS.equals(method)) {
+            return countFacets(extras);
+        }
+        if (PetContract.METHOD_WRITE_GENERATION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WriteGeneration.GENERATION, mWriteGeneration.get());
+            return result;
+        }
+        if (PetContract.METHOD_CANCEL_MAINTENANCE.equals(method)) {
+            if (isStarted() && mMaintenance != null) {
+                mMaintenance.cancel();
+            }
+            return null;
+        }
+
+        awaitStartUp();
+        if (PetContract.METHOD_SYNC.equals(method)) {
+            return sync();
+        }
+        if (PetContract.METHOD_READ_ALL.equals(method)) {
+            return readAll(extras);
+        }
+        if (PetContract.METHOD_FIND_DUPLICATES.equals(method)) {
+            return findDuplicates();
+        }
+        if (PetContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            return runMaintenance(extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Returns the startup times. See {@link PetContract#METHOD_STARTUP_STATS}.
+     */
+    private Bundle getStartupStats() {
+        Bundle stats = new Bundle();
+        stats.putLong(StartupStats.WARM_UP_DONE, mWarmUpDone);
+        stats.putLong(StartupStats.FIRST_QUERY_DONE, mFirstQueryDone);
+        stats.putLong(StartupStats.FIRST_QUERY_WAIT, mFirstQueryWait);
+        stats.putBoolean(StartupStats.FIRST_QUERY_WARM, mFirstQueryWarm);
+        return stats;
+    }
+
+    /**
+     * Suggests the breeds starting with the prefix, from memory. See
+     * {@link PetContract#METHOD_SUGGEST_BREEDS}.
+     */
+    private Bundle suggestBreeds(String prefix, Bundle extras) {
+        int limit = extras == null ? DEFAULT_BREED_SUGGESTIONS
+                : extras.getInt(BreedSuggestions.LIMIT, DEFAULT_BREED_SUGGESTIONS);
+        boolean started = isStarted();
+        List<String> breeds = started
+                ? mBreedIndex.suggest(prefix == null ? "" : prefix, limit)
+                : Collections.<String>emptyList();
+
+        Bundle result = new Bundle();
+        result.putStringArray(BreedSuggestions.BREEDS, breeds.toArray(new String[breeds.size()]));
+        result.putBoolean(BreedSuggestions.READY, started && mBreedIndex.isBuilt());
+        return result;
+    }
+
+    /**
+     * Counts the pets by facet within the filters of the extras, from memory. See
+     * {@link PetContract#METHOD_COUNT_FACETS}.
+     */
+    private Bundle countFacets(Bundle extras) {
+        if (!isStarted()) {
+            Bundle result = new Bundle();
+            result.putBoolean(FacetCounts.READY, false);
+            return result;
+        }
+        PetFacetIndex.Counts counts = mFacetIndex.count(
+                extras == null ? null : extras.getIntArray(FacetCounts.GENDERS),
+                extras == null ? null : extras.getStringArray(FacetCounts.BREEDS),
+                extras == null ? null : extras.getIntArray(FacetCounts.WEIGHTS),
+                extras != null && extras.getBoolean(FacetCounts.WITH_IDS));
+
+        Bundle result = new Bundle();
+        result.putBoolean(FacetCounts.READY, counts != null);
+        if (counts == null) {
+            return result;
+        }
+        result.putInt(FacetCounts.COUNT, counts.total);
+        result.putIntArray(FacetCounts.GENDER_COUNTS, counts.genders);
+        result.putStringArray(FacetCounts.BREED_NAMES, counts.breedNames);
+        result.putIntArray(FacetCounts.BREED_COUNTS, counts.breeds);
+        result.putIntArray(FacetCounts.WEIGHT_COUNTS, counts.weights);
+        if (counts.ids != null) {
+            result.putLongArray(FacetCounts.IDS, counts.ids);
+        }
+        return result;
+    }
+
+    /**
+     * Packs the pets matching the selection of the extras into a file. See
+     * {@link PetContract#METHOD_READ_ALL}. Returns null if the file can't be written.
+     */
+    private Bundle readAll(Bundle extras) {
+        String selection = extras == null ? null : extras.getString(BulkRead.SELECTION);
+        String[] selectionArgs = extras == null ? null
+                : extras.getStringArray(BulkRead.SELECTION_ARGS);
+        String sortOrder = extras == null ? null : extras.getString(BulkRead.SORT_ORDER);
+
+        long access = MainThreadDbAccessDetector.begin("readAll", null);
+        long section = PetTrace.begin("PetProvider.readAll", null);
+        int rows = 0;
+        try {
+            // Direto do store: o cache guardaria uma cópia que o arquivo já torna desnecessária
+            Cursor cursor = mStore.query(PackedPets.COLUMNS, selection, selectionArgs, sortOrder,
+                    null);
+            try {
+                rows = cursor.getCount();
+                ParcelFileDescriptor file = PackedPets.write(cursor, getContext().getCacheDir());
+                Bundle result = new Bundle();
+                result.putParcelable(BulkRead.FILE, file);
+                result.putInt(BulkRead.ROWS, rows);
+                return result;
+            } finally {
+                cursor.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to pack " + rows + " pets", e);
+            return null;
+        } finally {
+            PetTrace.end(section, "rows", rows);
+            MainThreadDbAccessDetector.end(access);
+        }
+    }
+
+    /**
+     * Synchronizes the pets with the shelter server. See {@link PetContract#METHOD_SYNC}.
+     */
+    private Bundle sync() {
+        long access = MainThreadDbAccessDetector.begin("sync", null);
+        try {
+            PetSyncEngine.Result result = getSyncEngine().sync();
+
+            // As mudanças do servidor foram escritas direto no banco de dados
+            if (result.changedPets()) {
+                mWriteGeneration.incrementAndGet();
+                mBreedIndex.apply(null);
+                mFacetIndex.reindex(null);
+                getContext().getContentResolver().notifyChange(PetEntry.CONTENT_URI, null);
+            }
+
+            Bundle stats = new Bundle();
+            stats.putBoolean(SyncStats.COMPLETE, result.error == null);
+            stats.putInt(SyncStats.PUSHED, result.pushed);
+            stats.putInt(SyncStats.PULLED, result.pulled);
+            stats.putInt(SyncStats.CONFLICTS, result.conflicts);
+            stats.putLong(SyncStats.BYTES_SENT, result.bytesSent);
+            stats.putLong(SyncStats.BYTES_RECEIVED, result.bytesReceived);
+            return stats;
+        } finally {
+            MainThreadDbAccessDetector.end(access);
+        }
+    }
+
+    /**
+     * Looks for duplicate pets. See {@link PetContract#METHOD_FIND_DUPLICATES}.
+     */
+    private Bundle findDuplicates() {
+        long access = MainThreadDbAccessDetector.begin("findDuplicates", null);
+        long section = PetTrace.begin("PetProvider.findDuplicates", null);
+        int pets = 0;
+        try {
+            PetDuplicateDetector.Groups groups = getDuplicateDetector().run();
+            pets = groups.groupedPets;
+
+            // Os dados dos pets não mudaram, mas a lista de duplicados sim
+            mWriteGeneration.incrementAndGet();
+            getContext().getContentResolver().notifyChange(DuplicateEntry.CONTENT_URI, null);
+
+            Bundle result = new Bundle();
+            result.putInt(DuplicateScan.GROUPS, groups.groupCount);
+            result.putInt(DuplicateScan.PETS, groups.groupedPets);
+            result.putLong(DuplicateScan.COMPARISONS, groups.comparisons);
+            return result;
+        } finally {
+            PetTrace.end(section, "pets", pets);
+            MainThreadDbAccessDetector.end(access);
+        }
+    }
+
+    private synchronized PetDuplicateDetector getDuplicateDetector() {
+        if (mDuplicateDetector == null) {
+            // Os grupos ficam guardados no banco de dados SQLite
+            if (!(mStore instanceof SqlitePetStore)) {
+                throw new IllegalStateException("Duplicate search needs the SQLite pet store");
+            }
+            mDuplicateDetector =
+                    new PetDuplicateDetector(((SqlitePetStore) mStore).getDbHelper());
+        }
+        return mDuplicateDetector;
+    }
+
+    /**
+     * Runs the database maintenance. See {@link PetContract#METHOD_RUN_MAINTENANCE}.
+     */
+    private Bundle runMaintenance(Bundle extras) {
+        if (mMaintenance == null) {
+            throw new IllegalStateException("Maintenance needs the SQLite pet store on API 16+");
+        }
+        long budget = extras == null ? PetDbMaintenance.DEFAULT_BUDGET_MILLIS
+                : extras.getLong(MaintenanceRun.BUDGET_MILLIS,
+                        PetDbMaintenance.DEFAULT_BUDGET_MILLIS);
+        long downsampleAge = extras == null ? PetDbMaintenance.DEFAULT_DOWNSAMPLE_AGE_SECONDS
+                : extras.getLong(MaintenanceRun.DOWNSAMPLE_AGE_SECONDS,
+                        PetDbMaintenance.DEFAULT_DOWNSAMPLE_AGE_SECONDS);
+        long access = MainThreadDbAccessDetector.begin("runMaintenance", null);
+        try {
+            PetDbMaintenance.Result result = mMaintenance.run(budget, downsampleAge);
+
+            // Os pets não mudaram, mas o log de manutenção sim, e talvez o histórico de peso
+            mWriteGeneration.incrementAndGet();
+            ContentResolver resolver = getContext().getContentResolver();
+            resolver.notifyChange(MaintenanceEntry.CONTENT_URI, null);
+            if (result.readingsRemoved != 0) {
+                resolver.notifyChange(PetEntry.CONTENT_URI, null);
+            }
+
+            Bundle stats = new Bundle();
+            stats.putBoolean(MaintenanceRun.COMPLETE, result.complete);
+            stats.putInt(MaintenanceRun.TASKS_DONE, result.tasksDone);
+            stats.putInt(MaintenanceRun.READINGS_REMOVED, result.readingsRemoved);
+            return stats;
+        } finally {
+            MainThreadDbAccessDetector.end(access);
+        }
+    }
+
+    private synchronized PetSyncEngine getSyncEngine() {
+        if (mSyncEngine == null) {
+            // Só o banco de dados SQLite rastreia as mudanças a enviar
+            if (!(mStore instanceof SqlitePetStore)) {
+                throw new IllegalStateException("Sync needs the SQLite pet store");
+            }
+            String url = getContext().getString(R.string.sync_server_url);
+            if (TextUtils.isEmpty(url)) {
+                throw new IllegalStateException("No sync server configured");
+            }
+            mSyncEngine = new PetSyncEngine(((SqlitePetStore) mStore).getDbHelper(),
+                    new HttpSyncTransport(url));
         }
-        // Retorna o número de registros deletados
-        return rowsDeleted;
+        return mSyncEngine;
     }
 
     /**
@@ -312,6 +1114,12 @@ public class PetProvider extends ContentProvider {
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_WEIGHTS:
+                return WeightEntry.CONTENT_LIST_TYPE;
+            case MAINTENANCE:
+                return MaintenanceEntry.CONTENT_LIST_TYPE;
+            case DUPLICATES:
+                return DuplicateEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
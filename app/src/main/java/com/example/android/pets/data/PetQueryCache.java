@@ -0,0 +1,369 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.QueryCacheStats;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of query results for {@link PetProvider}.
+ *
+ * Every entry is stamped with the write generation of the provider at the time the query
+ * started. Any write bumps the generation, so an entry is only served while no write happened
+ * since it was read. Entries are kept in least-recently-used order within a memory budget.
+ */
+final class PetQueryCache {
+
+    /** Rough per-object overheads used to estimate the size of a cached result, in bytes */
+    private static final int ROW_OVERHEAD = 16;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int BOXED_NUMBER_SIZE = 16;
+    private static final int STRING_OVERHEAD = 40;
+
+    /** Memory budget of the whole cache, in bytes */
+    private final long mMaxBytes;
+
+    /** Results bigger than this are never cached, so one big query can't flush everything else */
+    private final long mMaxEntryBytes;
+
+    /** Entries in access order, the eldest being the least recently used */
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /** Newest write generation a result was cached at */
+    private long mGeneration;
+
+    private long mBytes;
+    private long mHits;
+    private long mMisses;
+    private long mStale;
+    private long mEvictions;
+    private long mUncacheable;
+
+    /**
+     * @param maxBytes memory budget of the cache, in bytes
+     */
+    PetQueryCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+        mMaxEntryBytes = maxBytes / 4;
+    }
+
+    /**
+     * Returns a new cursor over the cached result of the query, or null if the result is not
+     * cached or was read before the given write generation.
+     */
+    synchronized Cursor get(Key key, long generation) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        if (entry.generation != generation) {
+            remove(key, entry);
+            mStale++;
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new SnapshotCursor(entry.columns, entry.rows);
+    }
+
+    /**
+     * Caches the result of the query, read at the given write generation.
+     *
+     * The cursor is read until the result is known to fit the budget or not. If it fits a
+     * cursor over the cached copy is returned and the given cursor is closed; otherwise the
+     * given cursor is rewound and returned as is.
+     */
+    Cursor put(Key key, long generation, Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        int columnCount = columns.length;
+        int count = cursor.getCount();
+        // Mesmo sem nenhum valor, as linhas já não cabem: nada é copiado
+        long bytes = (long) count * (REFERENCE_SIZE + ROW_OVERHEAD + REFERENCE_SIZE * columnCount);
+        if (bytes > mMaxEntryBytes) {
+            return uncacheable(cursor);
+        }
+        Object[][] rows = new Object[count][];
+        bytes = REFERENCE_SIZE * (long) count;
+
+        int position = 0;
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columnCount];
+            bytes += ROW_OVERHEAD + REFERENCE_SIZE * columnCount;
+            for (int i = 0; i < columnCount; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        bytes += BOXED_NUMBER_SIZE;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        bytes += BOXED_NUMBER_SIZE;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String value = cursor.getString(i);
+                        row[i] = value;
+                        bytes += STRING_OVERHEAD + 2 * value.length();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(i);
+                        row[i] = blob;
+                        bytes += BOXED_NUMBER_SIZE + blob.length;
+                        break;
+                    default:
+                        row[i] = null;
+                        break;
+                }
+            }
+            if (bytes > mMaxEntryBytes) {
+                return uncacheable(cursor);
+            }
+            rows[position++] = row;
+        }
+        cursor.close();
+
+        synchronized (this) {
+            if (generation < mGeneration) {
+                // A write finished while this query ran, the result is already stale
+                mStale++;
+            } else {
+                if (generation > mGeneration) {
+                    // Everything cached so far was read before the latest write
+                    mStale += mEntries.size();
+                    mEntries.clear();
+                    mBytes = 0;
+                    mGeneration = generation;
+                }
+                Entry previous = mEntries.put(key, new Entry(generation, columns, rows, bytes));
+                if (previous != null) {
+                    mBytes -= previous.bytes;
+                }
+                mBytes += bytes;
+                trimToBudget();
+            }
+        }
+        return new SnapshotCursor(columns, rows);
+    }
+
+    /**
+     * Counts a result too big for the cache and returns its cursor, rewound.
+     */
+    private Cursor uncacheable(Cursor cursor) {
+        synchronized (this) {
+            mUncacheable++;
+        }
+        cursor.moveToPosition(-1);
+        return cursor;
+    }
+
+    /**
+     * Drops the least recently used entries until the cache fits its budget.
+     */
+    private void trimToBudget() {
+        Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            mBytes -= entry.bytes;
+            mEvictions++;
+        }
+    }
+
+    private void remove(Key key, Entry entry) {
+        mEntries.remove(key);
+        mBytes -= entry.bytes;
+    }
+
+    /**
+     * Returns the counters of the cache, under the keys defined in {@link QueryCacheStats}.
+     */
+    synchronized Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putLong(QueryCacheStats.HITS, mHits);
+        stats.putLong(QueryCacheStats.MISSES, mMisses);
+        stats.putLong(QueryCacheStats.STALE, mStale);
+        stats.putLong(QueryCacheStats.EVICTIONS, mEvictions);
+        stats.putLong(QueryCacheStats.UNCACHEABLE, mUncacheable);
+        stats.putInt(QueryCacheStats.ENTRIES, mEntries.size());
+        stats.putLong(QueryCacheStats.BYTES, mBytes);
+        stats.putLong(QueryCacheStats.MAX_BYTES, mMaxBytes);
+        return stats;
+    }
+
+    /**
+     * Identity of a query: URI, projection, selection, selection arguments and sort order.
+     */
+    static final class Key {
+        private final Uri mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final int mHashCode;
+
+        Key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+            mUri = uri;
+            mProjection = projection == null ? null : projection.clone();
+            mSelection = selection;
+            mSelectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+            mSortOrder = sortOrder;
+
+            int hash = uri.hashCode();
+            hash = 31 * hash + Arrays.hashCode(mProjection);
+            hash = 31 * hash + (selection == null ? 0 : selection.hashCode());
+            hash = 31 * hash + Arrays.hashCode(mSelectionArgs);
+            hash = 31 * hash + (sortOrder == null ? 0 : sortOrder.hashCode());
+            mHashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mHashCode == other.mHashCode
+                    && mUri.equals(other.mUri)
+                    && Arrays.equals(mProjection, other.mProjection)
+                    && (mSelection == null ? other.mSelection == null
+                            : mSelection.equals(other.mSelection))
+                    && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                    && (mSortOrder == null ? other.mSortOrder == null
+                            : mSortOrder.equals(other.mSortOrder));
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * A cached result and the write generation it was read at.
+     */
+    private static final class Entry {
+        final long generation;
+        final String[] columns;
+        final Object[][] rows;
+        final long bytes;
+
+        Entry(long generation, String[] columns, Object[][] rows, long bytes) {
+            this.generation = generation;
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Read-only cursor over cached rows. The rows are shared between all the cursors handed out
+     * for an entry and are never modified, so a hit costs no copy.
+     */
+    private static final class SnapshotCursor extends AbstractCursor {
+        private final String[] mColumns;
+        private final Object[][] mRows;
+
+        SnapshotCursor(String[] columns, Object[][] rows) {
+            mColumns = columns;
+            mRows = rows;
+        }
+
+        private Object value(int column) {
+            checkPosition();
+            return mRows[mPos][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumns;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return Cursor.FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return Cursor.FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return Cursor.FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return Cursor.FIELD_TYPE_BLOB;
+            }
+            return Cursor.FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = value(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = value(column);
+            if (value == null || value instanceof byte[]) {
+                return (byte[]) value;
+            }
+            throw new IllegalStateException("Column " + column + " is not a blob");
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return value(column) == null;
+        }
+    }
+}
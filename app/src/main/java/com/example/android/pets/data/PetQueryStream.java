@@ -0,0 +1,374 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Observable query over {@link PetProvider} that delivers typed {@link Pet} lists together with
+ * the changes since the previous delivery, as an alternative to a {@link Cursor} loader.
+ *
+ * The query runs on a background thread, first when the stream is subscribed and again every
+ * time the provider notifies a change of the URI. Bursts of notifications are coalesced into one
+ * query, and a result is dropped if another change arrived while it was being read. When results
+ * are produced faster than the listener consumes them, only the newest one is delivered: its
+ * changes are computed against the last list the listener actually received, so skipped results
+ * never leave the listener with a wrong list.
+ */
+public final class PetQueryStream {
+
+    public static final String LOG_TAG = PetQueryStream.class.getSimpleName();
+
+    /**
+     * Receives the results of a {@link PetQueryStream}, on the thread of the callback handler.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the current result of the query and the changes that turn the previously
+         * delivered list into it. The first call reports every pet as inserted.
+         *
+         * @param pets    the complete result, unmodifiable
+         * @param changes the changes, in the order described by {@link Change}; unmodifiable
+         */
+        void onPetsChanged(List<Pet> pets, List<Change> changes);
+    }
+
+    /**
+     * One change between two results. The changes of a delivery are ordered so that they can be
+     * applied one by one to the previous list: removals first, by decreasing position in the
+     * previous list, then insertions and updates, by increasing position in the new list.
+     * A pet that moved because of the sort order is reported as a removal and an insertion.
+     */
+    public static final class Change {
+
+        public static final int TYPE_INSERT = 0;
+        public static final int TYPE_UPDATE = 1;
+        public static final int TYPE_REMOVE = 2;
+
+        /** One of {@link #TYPE_INSERT}, {@link #TYPE_UPDATE} or {@link #TYPE_REMOVE} */
+        public final int type;
+
+        /** Position in the previous list for removals, in the new list otherwise */
+        public final int position;
+
+        /** The removed pet for removals, the new version of the pet otherwise */
+        public final Pet pet;
+
+        Change(int type, int position, Pet pet) {
+            this.type = type;
+            this.position = position;
+            this.pet = pet;
+        }
+
+        @Override
+        public String toString() {
+            String name = type == TYPE_INSERT ? "insert" : type == TYPE_UPDATE ? "update" : "remove";
+            return name + "@" + position + " " + pet;
+        }
+    }
+
+    /** Message of the worker handler that runs the query */
+    private static final int MSG_QUERY = 1;
+
+    /** States of an {@link Emission} */
+    private static final int PENDING = 0;
+    private static final int DELIVERED = 1;
+    private static final int DROPPED = 2;
+
+    /**
+     * A result waiting for the listener, with the changes from {@code base}, the last list the
+     * listener received before it.
+     */
+    private static final class Emission {
+        final List<Pet> base;
+        final List<Pet> pets;
+        final List<Change> changes;
+        final AtomicInteger state;
+
+        Emission(List<Pet> base, List<Pet> pets, List<Change> changes, int state) {
+            this.base = base;
+            this.pets = pets;
+            this.changes = changes;
+            this.state = new AtomicInteger(state);
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+
+    private HandlerThread mWorkerThread;
+    private volatile Handler mWorker;
+    private volatile Handler mCallbackHandler;
+    private ContentObserver mObserver;
+    private volatile Listener mListener;
+
+    /**
+     * Newest result; replaced, never cleared, by the worker thread. Its list is null until the
+     * first result is published.
+     */
+    private final AtomicReference<Emission> mLatest = new AtomicReference<Emission>();
+
+    /** Whether a delivery is already posted to the callback handler */
+    private final AtomicBoolean mDeliveryScheduled = new AtomicBoolean();
+
+    private final AtomicInteger mDroppedEmissions = new AtomicInteger();
+
+    /**
+     * Creates a stream of the pets at the given URI that match the selection, in the given order.
+     * Nothing is queried until {@link #subscribe}.
+     */
+    public PetQueryStream(ContentResolver resolver, Uri uri, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        mResolver = resolver;
+        mUri = uri;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+    }
+
+    /**
+     * Starts the stream, delivering the results to the listener on the main thread.
+     */
+    public void subscribe(Listener listener) {
+        subscribe(listener, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Starts the stream, delivering the results to the listener on the thread of the handler.
+     * A stream has at most one listener at a time.
+     */
+    public synchronized void subscribe(Listener listener, Handler callbackHandler) {
+        if (mListener != null) {
+            throw new IllegalStateException("PetQueryStream already has a listener");
+        }
+        mListener = listener;
+        mCallbackHandler = callbackHandler;
+        mLatest.set(new Emission(null, null, Collections.<Change>emptyList(), DELIVERED));
+
+        mWorkerThread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorker = new Handler(mWorkerThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what == MSG_QUERY) {
+                    runQuery();
+                    return true;
+                }
+                return false;
+            }
+        });
+        mObserver = new ContentObserver(mWorker) {
+            @Override
+            public void onChange(boolean selfChange) {
+                requery();
+            }
+        };
+        mResolver.registerContentObserver(mUri, true, mObserver);
+        requery();
+    }
+
+    /**
+     * Stops the stream. No result is delivered after this returns, when called on the thread of
+     * the callback handler.
+     */
+    public synchronized void unsubscribe() {
+        if (mListener == null) {
+            return;
+        }
+        mListener = null;
+        mResolver.unregisterContentObserver(mObserver);
+        mWorker.removeMessages(MSG_QUERY);
+        mWorkerThread.quit();
+        mCallbackHandler.removeCallbacks(mDeliver);
+        mDeliveryScheduled.set(false);
+        mObserver = null;
+        mWorker = null;
+        mWorkerThread = null;
+    }
+
+    /**
+     * Returns how many results were dropped, either because a newer change was already waiting
+     * when they were read or because the listener had not consumed them before the next one.
+     */
+    public int getDroppedEmissions() {
+        return mDroppedEmissions.get();
+    }
+
+    private void requery() {
+        Handler worker = mWorker;
+        if (worker != null) {
+            // Uma rajada de notificações resulta em uma única consulta
+            worker.removeMessages(MSG_QUERY);
+            worker.sendEmptyMessage(MSG_QUERY);
+        }
+    }
+
+    /**
+     * Runs the query and publishes the result. Called on the worker thread only.
+     */
+    private void runQuery() {
+        Handler worker = mWorker;
+        List<Pet> pets;
+        Cursor cursor = mResolver.query(mUri, Pet.PROJECTION, mSelection, mSelectionArgs,
+                mSortOrder);
+        if (cursor == null) {
+            Log.e(LOG_TAG, "Query returned no cursor for " + mUri);
+            return;
+        }
+        try {
+            pets = Collections.unmodifiableList(Pet.listFrom(cursor));
+        } finally {
+            cursor.close();
+        }
+
+        if (mListener == null || worker == null || worker != mWorker) {
+            return;
+        }
+        if (worker.hasMessages(MSG_QUERY)) {
+            // Os dados já mudaram de novo; a próxima consulta substitui este resultado
+            mDroppedEmissions.incrementAndGet();
+            return;
+        }
+
+        // Se o resultado anterior ainda não foi entregue, ele é descartado e as mudanças são
+        // calculadas a partir da última lista que o listener recebeu.
+        Emission previous = mLatest.get();
+        List<Pet> base;
+        if (previous.state.compareAndSet(PENDING, DROPPED)) {
+            mDroppedEmissions.incrementAndGet();
+            base = previous.base;
+        } else {
+            base = previous.pets;
+        }
+        // O primeiro resultado é entregue mesmo vazio; os seguintes, só se algo mudou
+        boolean first = base == null;
+        if (first) {
+            base = Collections.emptyList();
+        }
+        List<Change> changes = diff(base, pets);
+        if (changes.isEmpty() && !first) {
+            mLatest.set(new Emission(null, base, changes, DELIVERED));
+            return;
+        }
+        mLatest.set(new Emission(base, pets, Collections.unmodifiableList(changes), PENDING));
+        if (mDeliveryScheduled.compareAndSet(false, true)) {
+            mCallbackHandler.post(mDeliver);
+        }
+    }
+
+    /**
+     * Hands the newest result to the listener, on the thread of the callback handler.
+     */
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            mDeliveryScheduled.set(false);
+            Listener listener = mListener;
+            Emission latest = mLatest.get();
+            if (listener != null && latest.state.compareAndSet(PENDING, DELIVERED)) {
+                listener.onPetsChanged(latest.pets, latest.changes);
+            }
+        }
+    };
+
+    /**
+     * Computes the changes that turn {@code oldPets} into {@code newPets}, matching pets by ID.
+     * Pets kept in the same relative order are found with a longest increasing subsequence, so
+     * that a pet moved by the sort order costs one removal and one insertion instead of shifting
+     * every pet in between.
+     */
+    static List<Change> diff(List<Pet> oldPets, List<Pet> newPets) {
+        Map<Long, Integer> oldPositions = new HashMap<Long, Integer>(oldPets.size() * 2);
+        for (int i = 0; i < oldPets.size(); i++) {
+            oldPositions.put(oldPets.get(i).getId(), i);
+        }
+
+        // Posições antigas dos pets mantidos, na ordem da nova lista
+        int[] newToOld = new int[newPets.size()];
+        int[] keptOld = new int[newPets.size()];
+        int keptCount = 0;
+        for (int i = 0; i < newPets.size(); i++) {
+            Integer oldPosition = oldPositions.get(newPets.get(i).getId());
+            newToOld[i] = oldPosition == null ? -1 : oldPosition;
+            if (oldPosition != null) {
+                keptOld[keptCount++] = oldPosition;
+            }
+        }
+
+        boolean[] stays = new boolean[oldPets.size()];
+        for (int oldPosition : longestIncreasingSubsequence(keptOld, keptCount)) {
+            stays[oldPosition] = true;
+        }
+
+        List<Change> changes = new ArrayList<Change>();
+        for (int i = oldPets.size() - 1; i >= 0; i--) {
+            if (!stays[i]) {
+                changes.add(new Change(Change.TYPE_REMOVE, i, oldPets.get(i)));
+            }
+        }
+        for (int i = 0; i < newPets.size(); i++) {
+            Pet pet = newPets.get(i);
+            int oldPosition = newToOld[i];
+            if (oldPosition == -1 || !stays[oldPosition]) {
+                changes.add(new Change(Change.TYPE_INSERT, i, pet));
+            } else if (!pet.equals(oldPets.get(oldPosition))) {
+                changes.add(new Change(Change.TYPE_UPDATE, i, pet));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the values of a longest strictly increasing subsequence of the first
+     * {@code count} values, in O(n log n).
+     */
+    private static int[] longestIncreasingSubsequence(int[] values, int count) {
+        // tails[k] é o índice do menor final de uma subsequência de tamanho k + 1
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        int[] result = new int[length];
+        for (int k = length - 1, i = length > 0 ? tails[length - 1] : -1; k >= 0; k--) {
+            result[k] = values[i];
+            i = previous[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Typed view of the current row of a pets cursor. The column indices are looked up once per
+ * cursor, and the getters read the row the cursor is on, so one {@link PetRow} serves every row
+ * of the cursor: walking it allocates nothing but the values read. The text columns can be
+ * copied into reusable {@link CharArrayBuffer}s instead, which allocates nothing at all.
+ *
+ * The cursor needs only the columns that are read. Reading a column it doesn't have throws an
+ * {@link IllegalArgumentException}, like {@link Cursor#getColumnIndexOrThrow}. Not thread safe.
+ */
+public final class PetRow {
+
+    private Cursor mCursor;
+
+    // Índices das colunas no cursor, -1 se ausentes
+    private int mIdIndex;
+    private int mNameIndex;
+    private int mBreedIndex;
+    private int mGenderIndex;
+    private int mWeightIndex;
+
+    public PetRow(Cursor cursor) {
+        wrap(cursor);
+    }
+
+    /**
+     * Makes this row read the given cursor. The column indices are only looked up again if it is
+     * not the cursor read so far, so it is cheap to call for every row, e.g. from the
+     * {@code bindView} of a cursor adapter.
+     */
+    public PetRow wrap(Cursor cursor) {
+        if (cursor != mCursor) {
+            mCursor = cursor;
+            mIdIndex = cursor.getColumnIndex(PetEntry._ID);
+            mNameIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
+            mBreedIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+            mGenderIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
+            mWeightIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
+        }
+        return this;
+    }
+
+    public long getId() {
+        return mCursor.getLong(require(mIdIndex, PetEntry._ID));
+    }
+
+    public String getName() {
+        return mCursor.getString(require(mNameIndex, PetEntry.COLUMN_PET_NAME));
+    }
+
+    /** Breed of the pet, or null if unknown */
+    public String getBreed() {
+        int index = require(mBreedIndex, PetEntry.COLUMN_PET_BREED);
+        return mCursor.isNull(index) ? null : mCursor.getString(index);
+    }
+
+    /**
+     * Gender of the pet, one of {@link PetEntry#GENDER_UNKNOWN}, {@link PetEntry#GENDER_MALE}
+     * or {@link PetEntry#GENDER_FEMALE}.
+     */
+    public int getGender() {
+        return mCursor.getInt(require(mGenderIndex, PetEntry.COLUMN_PET_GENDER));
+    }
+
+    public int getWeight() {
+        return mCursor.getInt(require(mWeightIndex, PetEntry.COLUMN_PET_WEIGHT));
+    }
+
+    /**
+     * Copies the name of the pet into the buffer, which only grows when the name doesn't fit.
+     */
+    public void copyName(CharArrayBuffer buffer) {
+        mCursor.copyStringToBuffer(require(mNameIndex, PetEntry.COLUMN_PET_NAME), buffer);
+    }
+
+    /**
+     * Copies the breed of the pet into the buffer, which is left empty if the breed is unknown.
+     */
+    public void copyBreed(CharArrayBuffer buffer) {
+        mCursor.copyStringToBuffer(require(mBreedIndex, PetEntry.COLUMN_PET_BREED), buffer);
+    }
+
+    /**
+     * Returns an immutable copy of the row, which needs all the columns of
+     * {@link Pet#PROJECTION}.
+     */
+    public Pet toPet() {
+        return new Pet(getId(), getName(), getBreed(), getGender(), getWeight());
+    }
+
+    private static int require(int index, String column) {
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + column + "' does not exist");
+        }
+        return index;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Storage backend of the pets table, used by {@link PetProvider}.
+ *
+ * Column names, selections and sort orders are the ones of {@link PetEntry}, with the same meaning
+ * as for the provider. Values are validated by the provider before they reach the store.
+ */
+public interface PetStore {
+
+    /**
+     * Returns the pets matching the selection, with the given columns (all columns if the
+     * projection is null) in the given order. The query stops with an
+     * {@link android.os.OperationCanceledException} as soon as possible after the signal, if not
+     * null, is cancelled.
+     */
+    Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                 CancellationSignal cancellationSignal);
+
+    /**
+     * Inserts a pet and returns its new ID, or -1 if the insertion failed.
+     */
+    long insert(ContentValues values);
+
+    /**
+     * Inserts all the pets, or none of them if one fails. Returns the number of pets inserted.
+     */
+    int insertAll(ContentValues[] values);
+
+    /**
+     * Updates the pets matching the selection and returns how many were updated.
+     */
+    int update(ContentValues values, String selection, String[] selectionArgs);
+
+    /**
+     * Deletes the pets matching the selection and returns how many were deleted.
+     */
+    int delete(String selection, String[] selectionArgs);
+
+    /**
+     * Returns the number of pets matching the selection.
+     */
+    long count(String selection, String[] selectionArgs);
+}
@@ -0,0 +1,411 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.SyncStateEntry;
+import com.example.android.pets.data.PetContract.TombstoneEntry;
+import com.example.android.pets.data.SyncProtocol.Request;
+import com.example.android.pets.data.SyncProtocol.Response;
+import com.example.android.pets.data.SyncProtocol.Row;
+import com.example.android.pets.debug.PetTrace;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Synchronizes the pets of the database with the shelter server: pushes the pets changed or
+ * deleted locally, then pulls the pets changed on the server by the other devices. See
+ * {@link SyncProtocol} for the payloads and the resolution of conflicts, in which the server
+ * wins.
+ *
+ * The database tracks what has to be pushed by itself (see {@link PetDbHelper}): a dirty counter
+ * per pet and a tombstone per deleted pet. Every batch pushed and every page pulled is applied in
+ * its own transaction, together with the progress of the sync, so an interrupted sync loses at
+ * most the batch in flight and the next one resumes from there.
+ */
+public class PetSyncEngine {
+
+    public static final String LOG_TAG = PetSyncEngine.class.getSimpleName();
+
+    /** Maximum number of pets pushed in one request */
+    public static final int PUSH_BATCH_ROWS = 1000;
+
+    /** Maximum number of pets pulled in one request */
+    public static final int PULL_PAGE_ROWS = 2000;
+
+    /**
+     * Outcome of one sync.
+     */
+    public static final class Result {
+        /** Number of local changes accepted by the server */
+        public int pushed;
+        /** Number of remote changes applied locally */
+        public int pulled;
+        /** Number of local changes replaced by the row of the server */
+        public int conflicts;
+        /** Number of requests sent */
+        public int exchanges;
+        public long bytesSent;
+        public long bytesReceived;
+        /** Why the sync stopped early, or null if it completed */
+        public IOException error;
+
+        /** Returns true if the sync changed pets of the database */
+        public boolean changedPets() {
+            return pulled != 0 || conflicts != 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "pushed=%d pulled=%d conflicts=%d exchanges=%d sent=%dB received=%dB%s",
+                    pushed, pulled, conflicts, exchanges, bytesSent, bytesReceived,
+                    error == null ? "" : " error=" + error.getMessage());
+        }
+    }
+
+    private final PetDbHelper mDbHelper;
+    private final SyncTransport mTransport;
+
+    /**
+     * Constructs a new {@link PetSyncEngine}.
+     *
+     * @param dbHelper  helper of the database to synchronize
+     * @param transport link to the shelter server
+     */
+    public PetSyncEngine(PetDbHelper dbHelper, SyncTransport transport) {
+        mDbHelper = dbHelper;
+        mTransport = transport;
+    }
+
+    /**
+     * Runs one sync. Blocks on the network, so it must not be called on the main thread. Network
+     * errors don't throw: they stop the sync, and are reported in {@link Result#error}.
+     */
+    public synchronized Result sync() {
+        Result result = new Result();
+        long section = PetTrace.begin("PetSyncEngine.sync", null);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        RemoteRowWriter writer = new RemoteRowWriter(database);
+        try {
+            long deviceId = DatabaseUtils.longForQuery(database, "SELECT "
+                    + SyncStateEntry.COLUMN_DEVICE_ID + " FROM " + SyncStateEntry.TABLE_NAME,
+                    null);
+            pushPets(database, deviceId, writer, result);
+            pushTombstones(database, deviceId, writer, result);
+            pull(database, deviceId, writer, result);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Sync stopped after " + result, e);
+            result.error = e;
+        } finally {
+            writer.close();
+            PetTrace.end(section, "exchanges", result.exchanges);
+        }
+        return result;
+    }
+
+    /**
+     * Pushes the dirty pets, in batches of increasing sync ID.
+     */
+    private void pushPets(SQLiteDatabase database, long deviceId, RemoteRowWriter writer,
+                          Result result) throws IOException {
+        String sql = "SELECT p." + PetEntry.COLUMN_SYNC_ID + ", p." + PetEntry.COLUMN_SYNC_VERSION
+                + ", p." + PetEntry.COLUMN_SYNC_DIRTY + ", p." + PetEntry.COLUMN_PET_NAME
+                + ", b." + BreedEntry.COLUMN_BREED_NAME + ", p." + PetEntry.COLUMN_PET_GENDER
+                + ", p." + PetEntry.COLUMN_PET_WEIGHT
+                + " FROM " + PetEntry.TABLE_NAME + " p LEFT JOIN " + BreedEntry.TABLE_NAME
+                + " b ON b." + BreedEntry._ID + " = p." + PetEntry.COLUMN_PET_BREED_ID
+                + " WHERE p." + PetEntry.COLUMN_SYNC_DIRTY + " > 0 AND p."
+                + PetEntry.COLUMN_SYNC_ID + " > ? ORDER BY p." + PetEntry.COLUMN_SYNC_ID
+                + " LIMIT " + PUSH_BATCH_ROWS;
+        SQLiteStatement markPushed = database.compileStatement("UPDATE " + PetEntry.TABLE_NAME
+                + " SET " + PetEntry.COLUMN_SYNC_VERSION + " = ?, "
+                + PetEntry.COLUMN_SYNC_DIRTY + " = CASE WHEN " + PetEntry.COLUMN_SYNC_DIRTY
+                + " = ? THEN 0 ELSE " + PetEntry.COLUMN_SYNC_DIRTY + " END WHERE "
+                + PetEntry.COLUMN_SYNC_ID + " = ?");
+        try {
+            // Paginado pelo sync ID, para terminar mesmo se um pet mudar de novo durante o envio
+            long after = Long.MIN_VALUE;
+            while (true) {
+                Request request = newRequest(SyncProtocol.PUSH, deviceId);
+                // Mudanças feitas depois da leitura aumentam o contador, e o pet continua sujo
+                long[] dirty = new long[PUSH_BATCH_ROWS];
+                Cursor cursor = database.rawQuery(sql, new String[] { String.valueOf(after) });
+                try {
+                    while (cursor.moveToNext()) {
+                        Row row = new Row();
+                        row.syncId = cursor.getLong(0);
+                        row.version = cursor.getLong(1);
+                        dirty[request.rows.size()] = cursor.getLong(2);
+                        row.name = cursor.getString(3);
+                        row.breed = cursor.isNull(4) ? null : cursor.getString(4);
+                        row.gender = cursor.getInt(5);
+                        row.weight = cursor.getInt(6);
+                        request.rows.add(row);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (request.rows.isEmpty()) {
+                    return;
+                }
+                after = request.rows.get(request.rows.size() - 1).syncId;
+
+                Response response = exchange(request, result);
+                checkSize(response, request);
+                database.beginTransaction();
+                try {
+                    for (int i = 0; i < response.rows.size(); i++) {
+                        Row row = response.rows.get(i);
+                        if (response.accepted[i]) {
+                            markPushed.bindLong(1, row.version);
+                            markPushed.bindLong(2, dirty[i]);
+                            markPushed.bindLong(3, row.syncId);
+                            markPushed.executeUpdateDelete();
+                            result.pushed++;
+                        } else {
+                            writer.apply(row, true);
+                            result.conflicts++;
+                        }
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        } finally {
+            markPushed.close();
+        }
+    }
+
+    /**
+     * Pushes the deletions, in batches of increasing sync ID.
+     */
+    private void pushTombstones(SQLiteDatabase database, long deviceId, RemoteRowWriter writer,
+                                Result result) throws IOException {
+        String sql = "SELECT " + TombstoneEntry.COLUMN_SYNC_ID + ", "
+                + TombstoneEntry.COLUMN_SYNC_VERSION + " FROM " + TombstoneEntry.TABLE_NAME
+                + " WHERE " + TombstoneEntry.COLUMN_SYNC_ID + " > ? ORDER BY "
+                + TombstoneEntry.COLUMN_SYNC_ID + " LIMIT " + PUSH_BATCH_ROWS;
+        long after = Long.MIN_VALUE;
+        while (true) {
+            Request request = newRequest(SyncProtocol.PUSH, deviceId);
+            Cursor cursor = database.rawQuery(sql, new String[] { String.valueOf(after) });
+            try {
+                while (cursor.moveToNext()) {
+                    Row row = new Row();
+                    row.syncId = cursor.getLong(0);
+                    row.version = cursor.getLong(1);
+                    row.deleted = true;
+                    request.rows.add(row);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (request.rows.isEmpty()) {
+                return;
+            }
+            after = request.rows.get(request.rows.size() - 1).syncId;
+
+            Response response = exchange(request, result);
+            checkSize(response, request);
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < response.rows.size(); i++) {
+                    Row row = response.rows.get(i);
+                    if (response.accepted[i]) {
+                        writer.deleteTombstone(row.syncId);
+                        result.pushed++;
+                    } else {
+                        // O pet mudou no servidor depois de deletado aqui: ele volta
+                        writer.apply(row, true);
+                        writer.deleteTombstone(row.syncId);
+                        result.conflicts++;
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Pulls the pets changed on the server since the last pull, page by page.
+     */
+    private void pull(SQLiteDatabase database, long deviceId, RemoteRowWriter writer,
+                      Result result) throws IOException {
+        SQLiteStatement savePulledVersion = database.compileStatement("UPDATE "
+                + SyncStateEntry.TABLE_NAME + " SET " + SyncStateEntry.COLUMN_PULLED_VERSION
+                + " = ?");
+        try {
+            long since = DatabaseUtils.longForQuery(database, "SELECT "
+                    + SyncStateEntry.COLUMN_PULLED_VERSION + " FROM "
+                    + SyncStateEntry.TABLE_NAME, null);
+            Response response;
+            do {
+                Request request = newRequest(SyncProtocol.PULL, deviceId);
+                request.sinceVersion = since;
+                request.limit = PULL_PAGE_ROWS;
+                response = exchange(request, result);
+
+                database.beginTransaction();
+                try {
+                    for (Row row : response.rows) {
+                        // Pets mudados aqui depois do envio ficam para o próximo envio resolver
+                        if (writer.apply(row, false)) {
+                            result.pulled++;
+                        }
+                    }
+                    savePulledVersion.bindLong(1, response.cursor);
+                    savePulledVersion.executeUpdateDelete();
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                since = response.cursor;
+            } while (response.hasMore);
+        } finally {
+            savePulledVersion.close();
+        }
+    }
+
+    private static Request newRequest(int type, long deviceId) {
+        Request request = new Request();
+        request.type = type;
+        request.deviceId = deviceId;
+        return request;
+    }
+
+    private Response exchange(Request request, Result result) throws IOException {
+        long section = PetTrace.begin("PetSyncEngine.exchange",
+                request.type == SyncProtocol.PUSH ? "PUSH" : "PULL");
+        try {
+            byte[] payload = SyncProtocol.encode(request);
+            result.exchanges++;
+            result.bytesSent += payload.length;
+            byte[] answer = mTransport.exchange(payload);
+            result.bytesReceived += answer.length;
+            return SyncProtocol.decodeResponse(answer, request.type);
+        } finally {
+            PetTrace.end(section, "rows", request.rows.size());
+        }
+    }
+
+    private static void checkSize(Response response, Request request) throws IOException {
+        if (response.rows.size() != request.rows.size()) {
+            throw new IOException("Server answered " + response.rows.size() + " rows to a push of "
+                    + request.rows.size());
+        }
+    }
+
+    /**
+     * Writes rows of the server into the pets table, with compiled statements reused for the
+     * whole sync. Rows are written with their server version, so the dirty trigger ignores them.
+     */
+    private static final class RemoteRowWriter {
+
+        private final SQLiteDatabase mDatabase;
+        private final SQLiteStatement mUpdate;
+        private final SQLiteStatement mInsert;
+        private final SQLiteStatement mDelete;
+        private final SQLiteStatement mDeleteTombstone;
+        private final Map<String, Long> mBreedCodes = new HashMap<String, Long>();
+
+        RemoteRowWriter(SQLiteDatabase database) {
+            mDatabase = database;
+            mUpdate = database.compileStatement("UPDATE " + PetEntry.TABLE_NAME + " SET "
+                    + PetEntry.COLUMN_PET_NAME + " = ?, "
+                    + PetEntry.COLUMN_PET_BREED_ID + " = ?, "
+                    + PetEntry.COLUMN_PET_GENDER + " = ?, "
+                    + PetEntry.COLUMN_PET_WEIGHT + " = ?, "
+                    + PetEntry.COLUMN_SYNC_VERSION + " = ?, "
+                    + PetEntry.COLUMN_SYNC_DIRTY + " = 0 WHERE "
+                    + PetEntry.COLUMN_SYNC_ID + " = ? AND " + PetEntry.COLUMN_SYNC_VERSION + " < ?"
+                    + " AND (" + PetEntry.COLUMN_SYNC_DIRTY + " = 0 OR ?)");
+            mInsert = database.compileStatement("INSERT OR IGNORE INTO " + PetEntry.TABLE_NAME
+                    + " (" + PetEntry.COLUMN_PET_NAME + ", "
+                    + PetEntry.COLUMN_PET_BREED_ID + ", "
+                    + PetEntry.COLUMN_PET_GENDER + ", "
+                    + PetEntry.COLUMN_PET_WEIGHT + ", "
+                    + PetEntry.COLUMN_SYNC_VERSION + ", "
+                    + PetEntry.COLUMN_SYNC_ID + ", "
+                    + PetEntry.COLUMN_SYNC_DIRTY + ") VALUES (?, ?, ?, ?, ?, ?, 0)");
+            mDelete = database.compileStatement("DELETE FROM " + PetEntry.TABLE_NAME + " WHERE "
+                    + PetEntry.COLUMN_SYNC_ID + " = ? AND " + PetEntry.COLUMN_SYNC_VERSION + " < ?"
+                    + " AND (" + PetEntry.COLUMN_SYNC_DIRTY + " = 0 OR ?)");
+            mDeleteTombstone = database.compileStatement("DELETE FROM "
+                    + TombstoneEntry.TABLE_NAME + " WHERE " + TombstoneEntry.COLUMN_SYNC_ID + " = ?");
+        }
+
+        /**
+         * Writes the row of the server, unless the local pet is already at that version or later.
+         * Must be called in a transaction. Returns true if the pets table changed.
+         *
+         * @param overwriteChanges whether the row replaces a local pet with changes not pushed
+         *                         yet, as when the server rejected them; otherwise that pet is
+         *                         kept, and its next push resolves the conflict
+         */
+        boolean apply(Row row, boolean overwriteChanges) {
+            if (row.deleted) {
+                mDelete.bindLong(1, row.syncId);
+                mDelete.bindLong(2, row.version);
+                mDelete.bindLong(3, overwriteChanges ? 1 : 0);
+                boolean deleted = mDelete.executeUpdateDelete() != 0;
+                // Apagar aqui cria uma lápide, mas a exclusão veio do servidor
+                deleteTombstone(row.syncId);
+                return deleted;
+            }
+
+            // Os dois comandos têm as colunas de conteúdo e a versão nas mesmas posições
+            bindContent(mUpdate, row);
+            mUpdate.bindLong(6, row.syncId);
+            mUpdate.bindLong(7, row.version);
+            mUpdate.bindLong(8, overwriteChanges ? 1 : 0);
+            if (mUpdate.executeUpdateDelete() != 0) {
+                return true;
+            }
+            bindContent(mInsert, row);
+            mInsert.bindLong(6, row.syncId);
+            if (mInsert.executeInsert() == -1) {
+                // O pet local já está nesta versão ou depois, ou tem mudanças a enviar
+                return false;
+            }
+            deleteTombstone(row.syncId);
+            return true;
+        }
+
+        void deleteTombstone(long syncId) {
+            mDeleteTombstone.bindLong(1, syncId);
+            mDeleteTombstone.executeUpdateDelete();
+        }
+
+        private void bindContent(SQLiteStatement statement, Row row) {
+            statement.bindString(1, row.name);
+            if (row.breed == null) {
+                statement.bindNull(2);
+            } else {
+                statement.bindLong(2, BreedDictionary.code(mDatabase, row.breed, mBreedCodes));
+            }
+            statement.bindLong(3, row.gender);
+            statement.bindLong(4, row.weight);
+            statement.bindLong(5, row.version);
+        }
+
+        void close() {
+            mUpdate.close();
+            mInsert.close();
+            mDelete.close();
+            mDeleteTombstone.close();
+        }
+    }
+}
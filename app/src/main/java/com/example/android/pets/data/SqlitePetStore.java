@@ -0,0 +1,190 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * {@link PetStore} backed by the SQLite database of {@link PetDbHelper}. This is the default
+ * store of the provider and the only one that persists pets.
+ *
+ * Breeds are dictionary-encoded: the pets table holds a code into {@link BreedEntry}, and writes
+ * replace the text by its code, adding the breed to the dictionary when it is new. Queries that
+ * only return the breed read the codes straight from the table and decode them through the
+ * {@link BreedDictionary} kept in memory; queries that filter or sort by breed go through
+ * {@link PetEntry#VIEW_NAME}, which joins the text back. Callers only ever see
+ * {@link PetEntry#COLUMN_PET_BREED}.
+ */
+public class SqlitePetStore implements PetStore {
+
+    /** Columns of a query without projection, as in the view */
+    private static final String[] ALL_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Matches SQL that refers to the breed column, but not to breed_id */
+    private static final Pattern BREED_REFERENCE = Pattern.compile(
+            "\\b" + PetEntry.COLUMN_PET_BREED + "\\b", Pattern.CASE_INSENSITIVE);
+
+    /** Database helper object */
+    private final PetDbHelper mDbHelper;
+
+    /** In-memory copy of the breed dictionary, to decode the codes read from the table */
+    private final BreedDictionary mBreeds = new BreedDictionary();
+
+    /**
+     * Constructs a new {@link SqlitePetStore}.
+     *
+     * @param dbHelper helper of the database holding the pets table
+     */
+    public SqlitePetStore(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the helper of the underlying database, for the tables that are not part of the
+     * {@link PetStore} interface, like the weight history.
+     */
+    public PetDbHelper getDbHelper() {
+        return mDbHelper;
+    }
+
+    @Override
+    public Cursor query(String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        if (projection == null) {
+            projection = ALL_COLUMNS;
+        }
+        if (mentionsBreed(selection) || mentionsBreed(sortOrder)) {
+            return query(database, PetEntry.VIEW_NAME, projection, selection, selectionArgs,
+                    null, sortOrder, cancellationSignal);
+        }
+
+        // Sem filtro nem ordem por raça: os códigos vêm direto da tabela, sem o join da view
+        String[] columns = projection.clone();
+        int breedColumn = -1;
+        for (int i = 0; i < columns.length; i++) {
+            if (PetEntry.COLUMN_PET_BREED.equals(columns[i])) {
+                columns[i] = PetEntry.COLUMN_PET_BREED_ID + " AS " + PetEntry.COLUMN_PET_BREED;
+                breedColumn = i;
+            } else if (mentionsBreed(columns[i])) {
+                return query(database, PetEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, null, sortOrder, cancellationSignal);
+            }
+        }
+        Cursor cursor = query(database, PetEntry.TABLE_NAME, columns, selection, selectionArgs,
+                null, sortOrder, cancellationSignal);
+        return breedColumn == -1 ? cursor : mBreeds.decode(database, cursor, breedColumn);
+    }
+
+    private static boolean mentionsBreed(String sql) {
+        return sql != null && BREED_REFERENCE.matcher(sql).find();
+    }
+
+    /**
+     * Queries a table of the database, passing the cancellation signal to SQLite when there is
+     * one. The signal is ignored before Jelly Bean, where SQLite queries can't be cancelled (and
+     * where the provider never receives one anyway).
+     */
+    static Cursor query(SQLiteDatabase database, String table, String[] columns,
+                        String selection, String[] selectionArgs, String groupBy,
+                        String orderBy, CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return database.query(false, table, columns, selection, selectionArgs, groupBy,
+                    null, orderBy, null, cancellationSignal);
+        }
+        return database.query(table, columns, selection, selectionArgs, groupBy, null, orderBy);
+    }
+
+    @Override
+    public long insert(ContentValues values) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            long id = database.insert(PetEntry.TABLE_NAME, null,
+                    BreedDictionary.encode(database, values, null));
+            if (id != -1) {
+                database.setTransactionSuccessful();
+            }
+            return id;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public int insertAll(ContentValues[] values) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // Os códigos só valem dentro desta transação: se ela for desfeita, as raças novas somem
+        Map<String, Long> breedCodes = new HashMap<String, Long>();
+        database.beginTransaction();
+        try {
+            for (ContentValues pet : values) {
+                if (database.insert(PetEntry.TABLE_NAME, null,
+                        BreedDictionary.encode(database, pet, breedCodes)) == -1) {
+                    return 0;
+                }
+            }
+            database.setTransactionSuccessful();
+            return values.length;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public int update(ContentValues values, String selection, String[] selectionArgs) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            int rowsUpdated = database.update(PetEntry.TABLE_NAME,
+                    BreedDictionary.encode(database, values, null), viewSelection(selection),
+                    selectionArgs);
+            database.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public int delete(String selection, String[] selectionArgs) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        return database.delete(PetEntry.TABLE_NAME, viewSelection(selection), selectionArgs);
+    }
+
+    @Override
+    public long count(String selection, String[] selectionArgs) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        String table = mentionsBreed(selection) ? PetEntry.VIEW_NAME : PetEntry.TABLE_NAME;
+        return DatabaseUtils.queryNumEntries(database, table, selection, selectionArgs);
+    }
+
+    /**
+     * Rewrites a selection on the columns of the view into one on the pets table when it refers
+     * to {@link PetEntry#COLUMN_PET_BREED}, which only the view has. Any other selection is
+     * returned as is.
+     */
+    private static String viewSelection(String selection) {
+        if (!mentionsBreed(selection)) {
+            return selection;
+        }
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+}
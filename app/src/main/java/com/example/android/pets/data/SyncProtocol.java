@@ -0,0 +1,325 @@
+package com.example.android.pets.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wire format of the sync between the {@link PetSyncEngine} and the shelter server.
+ *
+ * A device pushes its changed pets in batches ({@link #PUSH}) and pulls, page by page, the pets
+ * changed on the server since the last version it saw ({@link #PULL}). Only changed rows travel,
+ * never whole tables. Every payload is a gzip stream of a compact binary encoding. Integers have a
+ * variable length. The sync ID and version of each row are sent as the difference to the previous
+ * row, which is usually one byte since both grow row after row.
+ *
+ * Conflicts are resolved with the version of each row. A pushed row carries the server version
+ * its change was based on, and the server accepts it only if the pet hasn't changed there since.
+ * Otherwise the server answers with its own row, which the device applies, so the server wins.
+ * The server also accepts a row again when the last change it took for that pet came from the
+ * same device with the same base version. That case is a push whose answer was lost, so
+ * resending a batch is always safe.
+ */
+public final class SyncProtocol {
+
+    /** Request that pushes changed pets */
+    public static final int PUSH = 1;
+    /** Request that pulls the pets changed on the server */
+    public static final int PULL = 2;
+
+    /** Version of the encoding, first byte of every payload */
+    private static final int FORMAT = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Bits da flag de cada linha
+    private static final int FLAG_DELETED = 1;
+    private static final int FLAG_BREED = 2;
+    private static final int FLAG_CONFLICT = 4;
+    private static final int GENDER_SHIFT = 3;
+
+    /**
+     * One pet as it travels. Deleted pets only have their sync ID and version.
+     */
+    public static final class Row {
+        /** {@link PetContract.PetEntry#COLUMN_SYNC_ID} of the pet */
+        public long syncId;
+        /**
+         * Server version of the pet: in a push, the version the change was based on; otherwise,
+         * the version of the row on the server
+         */
+        public long version;
+        public boolean deleted;
+        public String name;
+        /** Breed of the pet, or null */
+        public String breed;
+        public int gender;
+        public int weight;
+
+        /**
+         * Returns true if both rows describe the same pet with the same contents.
+         */
+        public boolean sameContentAs(Row other) {
+            if (deleted || other.deleted) {
+                return deleted == other.deleted;
+            }
+            return gender == other.gender
+                    && weight == other.weight
+                    && name.equals(other.name)
+                    && (breed == null ? other.breed == null : breed.equals(other.breed));
+        }
+    }
+
+    /**
+     * A request of a device.
+     */
+    public static final class Request {
+        /** {@link #PUSH} or {@link #PULL} */
+        public int type;
+        public long deviceId;
+        /** {@link #PUSH}: the changed pets, in increasing sync ID order for compactness */
+        public List<Row> rows = new ArrayList<Row>();
+        /** {@link #PULL}: server version after which changes are wanted */
+        public long sinceVersion;
+        /** {@link #PULL}: maximum number of rows to return */
+        public int limit;
+    }
+
+    /**
+     * The answer of the server to a {@link Request}.
+     */
+    public static final class Response {
+        /**
+         * {@link #PUSH}: one row per pushed row, in the same order. An accepted row only has its
+         * sync ID and new version; a rejected one is the row of the server.
+         * {@link #PULL}: the changed pets, in increasing version order.
+         */
+        public List<Row> rows = new ArrayList<Row>();
+        /** {@link #PUSH}: whether each pushed row was accepted */
+        public boolean[] accepted;
+        /** {@link #PULL}: server version up to which changes have been returned */
+        public long cursor;
+        /** {@link #PULL}: true if there are more changes after {@link #cursor} */
+        public boolean hasMore;
+    }
+
+    private SyncProtocol() {}
+
+    public static byte[] encode(Request request) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.writeByte(FORMAT);
+        out.writeByte(request.type);
+        writeVarLong(out, request.deviceId);
+        if (request.type == PUSH) {
+            writeVarLong(out, request.rows.size());
+            long[] previous = new long[2];
+            for (Row row : request.rows) {
+                writeRow(out, row, previous, false);
+            }
+        } else {
+            writeVarLong(out, request.sinceVersion);
+            writeVarLong(out, request.limit);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    public static Request decodeRequest(byte[] payload) throws IOException {
+        DataInputStream in = open(payload);
+        Request request = new Request();
+        request.type = in.readUnsignedByte();
+        request.deviceId = readVarLong(in);
+        if (request.type == PUSH) {
+            int count = readCount(in);
+            long[] previous = new long[2];
+            for (int i = 0; i < count; i++) {
+                request.rows.add(readRow(in, previous, readFlags(in)));
+            }
+        } else if (request.type == PULL) {
+            request.sinceVersion = readVarLong(in);
+            request.limit = readCount(in);
+        } else {
+            throw new IOException("Unknown sync request " + request.type);
+        }
+        return request;
+    }
+
+    public static byte[] encode(Response response, int requestType) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.writeByte(FORMAT);
+        if (requestType == PULL) {
+            writeVarLong(out, response.cursor);
+            out.writeBoolean(response.hasMore);
+        }
+        writeVarLong(out, response.rows.size());
+        long[] previous = new long[2];
+        for (int i = 0; i < response.rows.size(); i++) {
+            Row row = response.rows.get(i);
+            if (requestType == PUSH && response.accepted[i]) {
+                // Aceita: o dispositivo já tem o conteúdo, só a nova versão volta
+                out.writeByte(0);
+                writeIds(out, row, previous);
+            } else {
+                writeRow(out, row, previous, requestType == PUSH);
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    public static Response decodeResponse(byte[] payload, int requestType) throws IOException {
+        DataInputStream in = open(payload);
+        Response response = new Response();
+        if (requestType == PULL) {
+            response.cursor = readVarLong(in);
+            response.hasMore = in.readBoolean();
+        }
+        int count = readCount(in);
+        response.accepted = new boolean[count];
+        long[] previous = new long[2];
+        for (int i = 0; i < count; i++) {
+            int flags = readFlags(in);
+            if (requestType == PUSH && (flags & FLAG_CONFLICT) == 0) {
+                Row row = new Row();
+                readIds(in, row, previous);
+                response.rows.add(row);
+                response.accepted[i] = true;
+            } else {
+                response.rows.add(readRow(in, previous, flags));
+            }
+        }
+        return response;
+    }
+
+    private static DataInputStream open(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new ByteArrayInputStream(payload)));
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) {
+            throw new IOException("Unknown sync payload format " + format);
+        }
+        return in;
+    }
+
+    private static void writeRow(DataOutputStream out, Row row, long[] previous, boolean conflict)
+            throws IOException {
+        int flags = (conflict ? FLAG_CONFLICT : 0)
+                | (row.deleted ? FLAG_DELETED : 0)
+                | (row.breed != null ? FLAG_BREED : 0)
+                | (row.gender << GENDER_SHIFT);
+        out.writeByte(flags);
+        writeIds(out, row, previous);
+        if (row.deleted) {
+            return;
+        }
+        writeString(out, row.name);
+        if (row.breed != null) {
+            writeString(out, row.breed);
+        }
+        writeVarLong(out, zigZag(row.weight));
+    }
+
+    private static Row readRow(DataInputStream in, long[] previous, int flags) throws IOException {
+        Row row = new Row();
+        readIds(in, row, previous);
+        row.deleted = (flags & FLAG_DELETED) != 0;
+        if (row.deleted) {
+            return row;
+        }
+        row.gender = flags >>> GENDER_SHIFT;
+        row.name = readString(in);
+        if ((flags & FLAG_BREED) != 0) {
+            row.breed = readString(in);
+        }
+        row.weight = (int) unZigZag(readVarLong(in));
+        return row;
+    }
+
+    /**
+     * Writes the sync ID and version of the row as differences to the previous row.
+     */
+    private static void writeIds(DataOutputStream out, Row row, long[] previous)
+            throws IOException {
+        writeVarLong(out, zigZag(row.syncId - previous[0]));
+        writeVarLong(out, zigZag(row.version - previous[1]));
+        previous[0] = row.syncId;
+        previous[1] = row.version;
+    }
+
+    private static void readIds(DataInputStream in, Row row, long[] previous) throws IOException {
+        row.syncId = previous[0] + unZigZag(readVarLong(in));
+        row.version = previous[1] + unZigZag(readVarLong(in));
+        previous[0] = row.syncId;
+        previous[1] = row.version;
+    }
+
+    private static int readFlags(DataInputStream in) throws IOException {
+        return in.readUnsignedByte();
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IOException("Invalid count " + count + " in sync payload");
+        }
+        return (int) count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readCount(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes the value 7 bits per byte, least significant first, the high bit of every byte but
+     * the last set. Small positive values take one byte.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated sync payload");
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed integer in sync payload");
+    }
+
+    /** Maps signed values to unsigned ones, small magnitudes to small values */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+
+/**
+ * Link between the {@link PetSyncEngine} and the shelter server. Payloads are encoded and
+ * compressed by {@link SyncProtocol}; the transport only carries them.
+ */
+public interface SyncTransport {
+
+    /**
+     * Sends one request to the server and returns its response. Blocks until the response has
+     * been received.
+     *
+     * @throws IOException if the request or the response was lost. The server may or may not
+     *                     have applied the request: resending it must be safe.
+     */
+    byte[] exchange(byte[] request) throws IOException;
+}
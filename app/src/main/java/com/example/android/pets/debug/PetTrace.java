@@ -0,0 +1,103 @@
+package com.example.android.pets.debug;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.ArrayList;
+
+/**
+ * Trace sections around the hot paths of the app: provider queries, SQLite, cursor window filling
+ * and list binding.
+ *
+ * Sections go to the platform trace (systrace) on Jelly Bean MR2 and later and, while it is
+ * recording, to the {@link PetTraceRecorder}. Tracing is off by default; a disabled section costs
+ * one volatile read, so they can stay on the hot paths of release builds. Sections must be
+ * nested and ended on the thread that began them:
+ *
+ * <pre>
+ * long section = PetTrace.begin("PetProvider.query", "PETS");
+ * try {
+ *     ...
+ * } finally {
+ *     PetTrace.end(section, "rows", count);
+ * }
+ * </pre>
+ */
+public final class PetTrace {
+
+    /** Token returned by {@link #begin} when tracing is disabled */
+    public static final long DISABLED = -1;
+
+    /** Longest section name accepted by {@link Trace#beginSection} */
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    private static volatile boolean sEnabled;
+
+    /**
+     * Open sections of every thread, innermost last
+     */
+    private static final ThreadLocal<ArrayList<String>> sOpenSections =
+            new ThreadLocal<ArrayList<String>>() {
+                @Override
+                protected ArrayList<String> initialValue() {
+                    return new ArrayList<String>();
+                }
+            };
+
+    private PetTrace() {}
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Turns the sections on or off. Sections already begun are still ended normally.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Begins a section. Returns the token to pass to {@link #end}, {@link #DISABLED} if tracing
+     * is off.
+     *
+     * @param section name of the traced stage, a constant like "PetProvider.query"
+     * @param detail  what the stage works on, like the URI match, or null
+     */
+    public static long begin(String section, String detail) {
+        if (!sEnabled) {
+            return DISABLED;
+        }
+        String name = detail == null ? section : section + " " + detail;
+        if (name.length() > MAX_SECTION_NAME_LENGTH) {
+            name = name.substring(0, MAX_SECTION_NAME_LENGTH);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+        sOpenSections.get().add(name);
+        return PetTraceRecorder.now();
+    }
+
+    /**
+     * Ends the section begun with the token.
+     */
+    public static void end(long token) {
+        end(token, null, 0);
+    }
+
+    /**
+     * Ends the section begun with the token, tagging it with a count, like the number of rows.
+     */
+    public static void end(long token, String countName, long count) {
+        if (token == DISABLED) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        ArrayList<String> open = sOpenSections.get();
+        String name = open.remove(open.size() - 1);
+        PetTraceRecorder.record(name, token, countName, count);
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.pets.debug;
+
+import android.os.Process;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last {@link PetTrace} sections in memory and writes them as a timeline in the Trace
+ * Event Format of chrome://tracing and Perfetto, to break one slow interaction down offline.
+ *
+ * Every section is stored as one complete event when it ends, in a ring buffer of fixed
+ * capacity: a long recording keeps the most recent sections and never grows.
+ */
+public final class PetTraceRecorder {
+
+    /** Default number of sections kept */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final Object sLock = new Object();
+
+    // Buffer circular, uma posição por seção; nulo até a primeira gravação
+    private static String[] sNames;
+    private static long[] sStarts;
+    private static long[] sDurations;
+    private static int[] sThreadIds;
+    private static String[] sCountNames;
+    private static long[] sCounts;
+    private static int sNext;
+    private static int sSize;
+    private static boolean sRecording;
+    private static final Map<Integer, String> sThreadNames = new HashMap<Integer, String>();
+
+    private PetTraceRecorder() {}
+
+    /**
+     * Starts recording, keeping at most {@code capacity} sections, and turns {@link PetTrace} on.
+     * Sections of a previous recording are discarded.
+     */
+    public static void start(int capacity) {
+        synchronized (sLock) {
+            sNames = new String[capacity];
+            sStarts = new long[capacity];
+            sDurations = new long[capacity];
+            sThreadIds = new int[capacity];
+            sCountNames = new String[capacity];
+            sCounts = new long[capacity];
+            sNext = 0;
+            sSize = 0;
+            sThreadNames.clear();
+            sRecording = true;
+        }
+        PetTrace.setEnabled(true);
+    }
+
+    /**
+     * Stops recording and turns {@link PetTrace} off. The recorded sections are kept until
+     * written or until the next {@link #start}.
+     */
+    public static void stop() {
+        PetTrace.setEnabled(false);
+        synchronized (sLock) {
+            sRecording = false;
+        }
+    }
+
+    public static boolean isRecording() {
+        synchronized (sLock) {
+            return sRecording;
+        }
+    }
+
+    /** Current time of the timeline, in microseconds */
+    static long now() {
+        return System.nanoTime() / 1000;
+    }
+
+    /**
+     * Records a section that started at {@code start} and ends now.
+     */
+    static void record(String name, long start, String countName, long count) {
+        long end = now();
+        Thread thread = Thread.currentThread();
+        int threadId = Process.myTid();
+        synchronized (sLock) {
+            if (!sRecording) {
+                return;
+            }
+            int i = sNext;
+            sNames[i] = name;
+            sStarts[i] = start;
+            sDurations[i] = end - start;
+            sThreadIds[i] = threadId;
+            sCountNames[i] = countName;
+            sCounts[i] = count;
+            sNext = (i + 1) % sNames.length;
+            if (sSize < sNames.length) {
+                sSize++;
+            }
+            if (!sThreadNames.containsKey(threadId)) {
+                sThreadNames.put(threadId, thread.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes the recorded sections to the file, oldest first, as a JSON trace. Returns the number
+     * of sections written.
+     */
+    public static int writeTo(File file) throws IOException {
+        synchronized (sLock) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8"));
+            try {
+                int pid = Process.myPid();
+                writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+                boolean first = true;
+                for (Map.Entry<Integer, String> thread : sThreadNames.entrySet()) {
+                    if (!first) {
+                        writer.write(',');
+                    }
+                    first = false;
+                    writer.write("\n{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":" + pid
+                            + ",\"tid\":" + thread.getKey() + ",\"args\":{\"name\":");
+                    writeString(writer, thread.getValue());
+                    writer.write("}}");
+                }
+                int capacity = sNames == null ? 0 : sNames.length;
+                int oldest = capacity == 0 ? 0 : (sNext - sSize + capacity) % capacity;
+                for (int n = 0; n < sSize; n++) {
+                    int i = (oldest + n) % capacity;
+                    if (!first) {
+                        writer.write(',');
+                    }
+                    first = false;
+                    writer.write("\n{\"ph\":\"X\",\"cat\":\"pets\",\"name\":");
+                    writeString(writer, sNames[i]);
+                    writer.write(",\"pid\":" + pid + ",\"tid\":" + sThreadIds[i]
+                            + ",\"ts\":" + sStarts[i] + ",\"dur\":" + sDurations[i]);
+                    if (sCountNames[i] != null) {
+                        writer.write(",\"args\":{");
+                        writeString(writer, sCountNames[i]);
+                        writer.write(":" + sCounts[i] + "}");
+                    }
+                    writer.write('}');
+                }
+                writer.write("\n]}\n");
+                return sSize;
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.android.pets.debug;
+
+import android.app.Activity;
+import android.view.Menu;
+import android.view.MenuItem;
+
+/**
+ * Release version of the debug options of the catalog menu: there are none.
+ */
+public final class CatalogDebugMenu {
+
+    private CatalogDebugMenu() {}
+
+    public static void onCreateOptionsMenu(Activity activity, Menu menu) {
+    }
+
+    public static boolean onOptionsItemSelected(Activity activity, MenuItem item) {
+        return false;
+    }
+}
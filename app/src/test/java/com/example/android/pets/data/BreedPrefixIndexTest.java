@@ -0,0 +1,176 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.CancellationSignal;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the suggestions of the {@link BreedPrefixIndex}, how the writes change them, and that a
+ * build under writes that never stop still ends.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class BreedPrefixIndexTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void suggestsTheMostFrequentBreedsWithThePrefix() throws InterruptedException {
+        BreedPrefixIndex index = built(new FakeStore(catalog()));
+
+        assertEquals(Arrays.asList("Labrador", "Labradoodle"), index.suggest("la", 2));
+        assertEquals(Arrays.asList("Labrador", "Lhasa Apso", "Labradoodle"),
+                index.suggest("L", 5));
+        assertEquals(Arrays.asList("Labrador"), index.suggest(" LABRADOR", 5));
+        assertEquals(Collections.<String>emptyList(), index.suggest("Poodle", 5));
+    }
+
+    @Test
+    public void writesChangeTheCounts() throws InterruptedException {
+        BreedPrefixIndex index = built(new FakeStore(catalog()));
+
+        index.apply(deltas("Labradoodle", 5));
+        assertEquals(Arrays.asList("Labradoodle", "Labrador"), index.suggest("lab", 5));
+
+        // Uma raça sem pets sai do índice, uma raça nova entra
+        index.apply(deltas("Labrador", -3, "Lab Mix", 1));
+        assertEquals(Arrays.asList("Labradoodle", "Lab Mix"), index.suggest("lab", 5));
+    }
+
+    @Test
+    public void lookupCountsThePetsWithoutBreed() {
+        BreedPrefixIndex index = new BreedPrefixIndex(new FakeStore(catalog()));
+
+        BreedPrefixIndex.Lookup lookup = index.countBreeds(null, null);
+        assertEquals(catalog().size(), lookup.pets);
+        assertEquals(3, (int) lookup.counts.get("Labrador"));
+        assertEquals(4, lookup.counts.size());
+    }
+
+    @Test
+    public void buildUnderConstantWritesEnds() throws InterruptedException {
+        final AtomicInteger scans = new AtomicInteger();
+        final BreedPrefixIndex[] index = new BreedPrefixIndex[1];
+        // Cada varredura vê uma escrita acontecer durante ela
+        index[0] = new BreedPrefixIndex(new FakeStore(catalog()) {
+            @Override
+            public Cursor query(String[] projection, String selection, String[] selectionArgs,
+                                String sortOrder, CancellationSignal cancellationSignal) {
+                scans.incrementAndGet();
+                index[0].apply(null);
+                return super.query(projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+            }
+        });
+
+        awaitBuilt(index[0]);
+        assertEquals(BreedPrefixIndex.MAX_SCANS, scans.get());
+        assertEquals(Arrays.asList("Labrador"), index[0].suggest("lab", 1));
+
+        // A versão publicada pode ter perdido escritas: a próxima sugestão refaz o índice
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (scans.get() < 2 * BreedPrefixIndex.MAX_SCANS
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2 * BreedPrefixIndex.MAX_SCANS, scans.get());
+    }
+
+    /** Four breeds, one pet without breed and one with a blank breed */
+    private static List<String> catalog() {
+        return Arrays.asList("Labrador", "Beagle", "Labrador", "Lhasa Apso", null, "Labradoodle",
+                "Labrador", "  ", "Lhasa Apso");
+    }
+
+    private static Map<String, Integer> deltas(Object... breedsAndCounts) {
+        Map<String, Integer> deltas = new HashMap<String, Integer>();
+        for (int i = 0; i < breedsAndCounts.length; i += 2) {
+            deltas.put((String) breedsAndCounts[i], (Integer) breedsAndCounts[i + 1]);
+        }
+        return deltas;
+    }
+
+    private static BreedPrefixIndex built(PetStore store) throws InterruptedException {
+        BreedPrefixIndex index = new BreedPrefixIndex(store);
+        assertTrue(index.suggest("", 1).isEmpty());
+        awaitBuilt(index);
+        return index;
+    }
+
+    private static void awaitBuilt(BreedPrefixIndex index) throws InterruptedException {
+        index.suggest("", 1);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!index.isBuilt() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("The index was not built", index.isBuilt());
+    }
+
+    /**
+     * Store of the breeds of a fixed list of pets. It ignores the selection: every query returns
+     * all the pets.
+     */
+    private static class FakeStore implements PetStore {
+
+        private final List<String> mBreeds;
+
+        FakeStore(List<String> breeds) {
+            mBreeds = new ArrayList<String>(breeds);
+        }
+
+        @Override
+        public Cursor query(String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder, CancellationSignal cancellationSignal) {
+            MatrixCursor cursor = new MatrixCursor(new String[] { PetEntry.COLUMN_PET_BREED });
+            for (String breed : mBreeds) {
+                cursor.addRow(new Object[] { breed });
+            }
+            return cursor;
+        }
+
+        @Override
+        public long insert(ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int insertAll(ContentValues[] values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(ContentValues values, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long count(String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
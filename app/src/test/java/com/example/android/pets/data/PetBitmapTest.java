@@ -0,0 +1,163 @@
+package com.example.android.pets.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the {@link PetBitmap} against a {@link TreeSet} of the same IDs, with sets of every size
+ * around the 4096 IDs per chunk where a chunk changes from an array to a bitmap.
+ */
+public class PetBitmapTest {
+
+    /** IDs per chunk of the sets, below, at and above the limit of the arrays */
+    private static final int[] SIZES = { 0, 1, 100, 4095, 4096, 4097, 20000 };
+
+    @Test
+    public void chunksChangeFormAtTheThreshold() {
+        PetBitmap bitmap = new PetBitmap();
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        // Em ordem decrescente, cada ID desloca os do array
+        for (int id = 2 * 4097 + 65536; id >= 65536; id -= 2) {
+            assertTrue(bitmap.add(id));
+            expected.add(id);
+        }
+        assertFalse(bitmap.add(65536));
+        assertSameIds(expected, bitmap);
+
+        // De volta a um array, depois a nada
+        for (int id = 65536; expected.size() > 4000; id += 2) {
+            assertTrue(bitmap.remove(id));
+            expected.remove(id);
+        }
+        assertFalse(bitmap.remove(65536));
+        assertFalse(bitmap.remove(65537));
+        assertSameIds(expected, bitmap);
+        for (Integer id : new ArrayList<Integer>(expected)) {
+            assertTrue(bitmap.remove(id));
+        }
+        assertTrue(bitmap.isEmpty());
+        assertEquals(0, bitmap.toIds().length);
+    }
+
+    @Test
+    public void negativeIdsAreNeverContained() {
+        PetBitmap bitmap = new PetBitmap();
+        bitmap.add(0);
+        assertFalse(bitmap.contains(-1));
+        assertFalse(bitmap.remove(-65536));
+        assertTrue(bitmap.contains(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeIdsCantBeAdded() {
+        new PetBitmap().add(-1);
+    }
+
+    @Test
+    public void operationsMatchASortedSet() {
+        Random random = new Random(42);
+        List<TreeSet<Integer>> sets = new ArrayList<TreeSet<Integer>>();
+        for (int size : SIZES) {
+            // Num só chunk, e espalhado por três, com o chunk do meio vazio
+            TreeSet<Integer> single = randomIds(random, size, 0);
+            sets.add(single);
+            // Poucos IDs de um set grande, seguidos nele: a interseção busca em vez de percorrer
+            sets.add(first(single, size / 20));
+            TreeSet<Integer> spread = randomIds(random, size, 0);
+            spread.addAll(randomIds(random, size, 2));
+            spread.addAll(randomIds(random, size / 2, 3));
+            sets.add(spread);
+        }
+
+        for (TreeSet<Integer> a : sets) {
+            PetBitmap x = toBitmap(a);
+            assertSameIds(a, x);
+            assertSameIds(a, x.toDense());
+            for (TreeSet<Integer> b : sets) {
+                PetBitmap y = toBitmap(b);
+                TreeSet<Integer> both = new TreeSet<Integer>(a);
+                both.retainAll(b);
+                TreeSet<Integer> either = new TreeSet<Integer>(a);
+                either.addAll(b);
+                String pair = a.size() + " and " + b.size() + " IDs";
+
+                assertSameIds(both, PetBitmap.and(x, y));
+                assertSameIds(either, PetBitmap.or(x, y));
+                assertEquals(pair, both.size(), PetBitmap.andCardinality(x, y));
+                // Como as contagens do índice, com um dos lados todo em bitmaps
+                assertEquals(pair, both.size(), PetBitmap.andCardinality(x, y.toDense()));
+                assertSameIds(both, PetBitmap.and(x.toDense(), y));
+            }
+        }
+    }
+
+    @Test
+    public void operationsLeaveTheirOperandsUnchanged() {
+        Random random = new Random(7);
+        TreeSet<Integer> a = randomIds(random, 5000, 0);
+        TreeSet<Integer> b = randomIds(random, 300, 0);
+        PetBitmap x = toBitmap(a);
+        PetBitmap y = toBitmap(b);
+
+        PetBitmap union = PetBitmap.or(x, y);
+        union.add(70000);
+        PetBitmap.and(x, y).add(1);
+
+        assertSameIds(a, x);
+        assertSameIds(b, y);
+    }
+
+    /**
+     * Returns the given number of distinct random IDs within the chunk.
+     */
+    private static TreeSet<Integer> randomIds(Random random, int count, int chunk) {
+        TreeSet<Integer> ids = new TreeSet<Integer>();
+        while (ids.size() < count) {
+            ids.add((chunk << 16) | random.nextInt(65536));
+        }
+        return ids;
+    }
+
+    private static TreeSet<Integer> first(TreeSet<Integer> ids, int count) {
+        TreeSet<Integer> first = new TreeSet<Integer>();
+        for (Integer id : ids) {
+            if (first.size() == count) {
+                break;
+            }
+            first.add(id);
+        }
+        return first;
+    }
+
+    private static PetBitmap toBitmap(TreeSet<Integer> ids) {
+        PetBitmap bitmap = new PetBitmap();
+        for (int id : ids) {
+            bitmap.add(id);
+        }
+        return bitmap;
+    }
+
+    private static void assertSameIds(TreeSet<Integer> expected, PetBitmap actual) {
+        long[] ids = new long[expected.size()];
+        int i = 0;
+        for (int id : expected) {
+            ids[i++] = id;
+        }
+        assertArrayEquals(ids, actual.toIds());
+        assertEquals(expected.size(), actual.getCardinality());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        for (int id : expected) {
+            assertTrue(actual.contains(id));
+            assertEquals(expected.contains(id + 1), actual.contains(id + 1));
+        }
+    }
+}
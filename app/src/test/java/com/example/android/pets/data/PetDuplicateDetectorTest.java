@@ -0,0 +1,125 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which pets the {@link PetDuplicateDetector} groups: the same pet entered with another
+ * spelling must be found, pets that only look alike must not.
+ */
+public class PetDuplicateDetectorTest {
+
+    private static final int MALE = PetEntry.GENDER_MALE;
+    private static final int FEMALE = PetEntry.GENDER_FEMALE;
+
+    @Test
+    public void tokensAreNormalized() {
+        assertArrayEquals(new String[] { "labrador", "rex", "the" },
+                PetDuplicateDetector.tokens("  Rex, the LABRADOR! rex"));
+        assertArrayEquals(new String[] { "pessego" }, PetDuplicateDetector.tokens("Pêssego"));
+        assertArrayEquals(new String[0], PetDuplicateDetector.tokens("--"));
+        assertArrayEquals(new String[0], PetDuplicateDetector.tokens(null));
+    }
+
+    @Test
+    public void nearDuplicatesAreGroupedAndLookalikesAreNot() {
+        Pets pets = new Pets()
+                .add(10, "Rex", "Labrador", MALE, 30)
+                .add(11, "rex", "Labrador Retriever", MALE, 31)
+                .add(12, "Thor", "Beagle", MALE, 12)
+                .add(13, "Maximilian", "Poodle", FEMALE, 8)
+                .add(14, "Maximillian", "poodle", FEMALE, 9)
+                // Parecidos com Rex, mas não o mesmo pet
+                .add(15, "Rex", "Labrador", FEMALE, 30)
+                .add(16, "Rex", "Labrador", MALE, 40)
+                .add(17, "Rex", "Siamese", MALE, 30)
+                .add(18, "Bolt", "Labrador", MALE, 30);
+
+        PetDuplicateDetector.Groups groups = pets.find();
+
+        assertArrayEquals(new long[] { 10, 10, -1, 13, 13, -1, -1, -1, -1 }, groups.groupOf);
+        assertEquals(2, groups.groupCount);
+        assertEquals(4, groups.groupedPets);
+        assertEquals(1.0, groups.similarity[0], 0);
+        assertTrue(groups.similarity[3] > PetDuplicateDetector.NAME_THRESHOLD);
+        assertEquals(0.0, groups.similarity[2], 0);
+    }
+
+    @Test
+    public void matchesChainIntoOneGroup() {
+        // Bella e Bela, Bela e Belah: os três são um grupo, identificado pelo menor ID
+        Pets pets = new Pets()
+                .add(7, "Bella Luna", "Beagle", FEMALE, 10)
+                .add(3, "Bela Luna", "Beagle", FEMALE, 11)
+                .add(5, "Belah Luna", "Beagle", FEMALE, 12);
+
+        PetDuplicateDetector.Groups groups = pets.find();
+
+        assertArrayEquals(new long[] { 3, 3, 3 }, groups.groupOf);
+        assertEquals(1, groups.groupCount);
+    }
+
+    @Test
+    public void distinctPetsAreNotAllCompared() {
+        Random random = new Random(42);
+        Pets pets = new Pets();
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            pets.add(i, randomName(random), "Mixed", random.nextInt(3), 1 + random.nextInt(60));
+        }
+
+        PetDuplicateDetector.Groups groups = pets.find();
+
+        assertTrue("Compared " + groups.comparisons + " pairs",
+                groups.comparisons < (long) count * count / 100);
+    }
+
+    private static String randomName(Random random) {
+        char[] name = new char[8];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(name);
+    }
+
+    /** Pets given one by one, then passed as the arrays taken by the detector */
+    private static class Pets {
+        private final List<Long> mIds = new ArrayList<Long>();
+        private final List<String> mNames = new ArrayList<String>();
+        private final List<String> mBreeds = new ArrayList<String>();
+        private final List<Integer> mGenders = new ArrayList<Integer>();
+        private final List<Integer> mWeights = new ArrayList<Integer>();
+
+        Pets add(long id, String name, String breed, int gender, int weight) {
+            mIds.add(id);
+            mNames.add(name);
+            mBreeds.add(breed);
+            mGenders.add(gender);
+            mWeights.add(weight);
+            return this;
+        }
+
+        PetDuplicateDetector.Groups find() {
+            int count = mIds.size();
+            long[] ids = new long[count];
+            int[] genders = new int[count];
+            int[] weights = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = mIds.get(i);
+                genders[i] = mGenders.get(i);
+                weights[i] = mWeights.get(i);
+            }
+            return PetDuplicateDetector.find(ids, mNames.toArray(new String[count]),
+                    mBreeds.toArray(new String[count]), genders, weights);
+        }
+    }
+}
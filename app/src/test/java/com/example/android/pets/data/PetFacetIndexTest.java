@@ -0,0 +1,325 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.CancellationSignal;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the counts of the {@link PetFacetIndex}, and how it follows the writes made while it is
+ * built and while it reads pets again.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetFacetIndexTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static final int MALE = PetEntry.GENDER_MALE;
+    private static final int FEMALE = PetEntry.GENDER_FEMALE;
+
+    @Test
+    public void countsWithTheFiltersOfTheOtherFacets() throws InterruptedException {
+        PetFacetIndex index = built(new FakeStore(catalog()));
+
+        PetFacetIndex.Counts counts = index.count(null, new String[] { "Labrador" }, null, true);
+        assertEquals(2, counts.total);
+        assertArrayEquals(new long[] { 1, 3 }, counts.ids);
+        assertEquals(1, counts.genders[MALE]);
+        assertEquals(1, counts.genders[FEMALE]);
+        // O filtro de raça não conta as raças, só as outras facetas filtram
+        assertEquals(Arrays.asList("Beagle", "Labrador"), Arrays.asList(counts.breedNames));
+        assertArrayEquals(new int[] { 1, 2 }, counts.breeds);
+
+        counts = index.count(new int[] { FEMALE }, null, null, false);
+        assertEquals(2, counts.total);
+        assertArrayEquals(new int[] { 1, 1 }, counts.breeds);
+    }
+
+    @Test
+    public void writesDuringTheScanAreReadAgain() throws InterruptedException {
+        final AtomicInteger scans = new AtomicInteger();
+        final PetFacetIndex[] index = new PetFacetIndex[1];
+        index[0] = new PetFacetIndex(new FakeStore(catalog()) {
+            @Override
+            Cursor scan(MatrixCursor pets) {
+                if (scans.incrementAndGet() == 1) {
+                    // Escritas depois da leitura da varredura, que não as vê
+                    put(2, FEMALE, "Labrador", 10);
+                    remove(4);
+                    index[0].reindex(new long[] { 2, 4 });
+                    put(5, MALE, "Labrador", 40);
+                    index[0].reindexAfter(index[0].getMaxId());
+                }
+                return pets;
+            }
+        });
+        index[0].buildInBackground();
+        awaitBuilt(index[0]);
+
+        assertEquals(1, scans.get());
+        PetFacetIndex.Counts counts = index[0].count(null, new String[] { "Labrador" }, null,
+                true);
+        assertArrayEquals(new long[] { 1, 2, 3, 5 }, counts.ids);
+        assertEquals(4, index[0].count(null, null, null, false).total);
+        assertEquals(5, index[0].getMaxId());
+    }
+
+    @Test
+    public void unknownWritesDuringEveryScanEndTheBuild() throws InterruptedException {
+        final AtomicInteger scans = new AtomicInteger();
+        final boolean[] lastWriteHeld = new boolean[1];
+        final PetFacetIndex[] index = new PetFacetIndex[1];
+        index[0] = new PetFacetIndex(new FakeStore(catalog()) {
+            @Override
+            Cursor scan(MatrixCursor pets) {
+                int scan = scans.incrementAndGet();
+                if (scan > PetFacetIndex.MAX_SCANS) {
+                    return pets;
+                }
+                put(10 + scan, MALE, "Scan " + scan, 20);
+                Thread writer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        index[0].reindex(null);
+                    }
+                });
+                writer.start();
+                try {
+                    writer.join(200);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                // Na última varredura, a escrita espera o índice ser publicado
+                lastWriteHeld[0] = writer.isAlive();
+                return pets;
+            }
+        });
+        index[0].buildInBackground();
+        awaitBuilt(index[0]);
+        assertTrue("The last write was not held", lastWriteHeld[0]);
+        assertEquals(7, index[0].count(null, null, null, false).total);
+
+        // Liberada com a publicação, a escrita da última varredura refaz o índice uma vez
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (scans.get() <= PetFacetIndex.MAX_SCANS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(PetFacetIndex.MAX_SCANS + 1, scans.get());
+        assertEquals(7, index[0].count(null, null, null, false).total);
+    }
+
+    @Test
+    public void largeWritesBuildAgain() throws InterruptedException {
+        final AtomicInteger scans = new AtomicInteger();
+        FakeStore store = new FakeStore(catalog()) {
+            @Override
+            Cursor scan(MatrixCursor pets) {
+                scans.incrementAndGet();
+                return pets;
+            }
+        };
+        PetFacetIndex index = built(store);
+        long[] ids = new long[PetFacetIndex.MAX_REINDEX_IDS + 1];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        store.remove(1);
+        index.reindex(ids);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (index.count(null, null, null, false).total != 3
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, index.count(null, null, null, false).total);
+        assertEquals(2, scans.get());
+        assertEquals(0, store.readsAgain.get());
+    }
+
+    @Test
+    public void countsWhilePetsAreReadAgain() throws InterruptedException {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        FakeStore store = new FakeStore(catalog()) {
+            @Override
+            Cursor readAgain(MatrixCursor pets) {
+                reading.countDown();
+                try {
+                    release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return pets;
+            }
+        };
+        final PetFacetIndex index = built(store);
+        store.put(2, FEMALE, "Labrador", 10);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                index.reindex(new long[] { 2 });
+            }
+        });
+        writer.start();
+        assertTrue(reading.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // A leitura do store está parada, e a contagem não espera por ela
+        PetFacetIndex.Counts counts = index.count(null, new String[] { "Labrador" }, null, false);
+        assertNotNull(counts);
+        assertEquals(2, counts.total);
+
+        release.countDown();
+        writer.join(TIMEOUT_MILLIS);
+        assertFalse(writer.isAlive());
+        assertEquals(3, index.count(null, new String[] { "Labrador" }, null, false).total);
+    }
+
+    /** Two Labradors, a Beagle and a pet without breed */
+    private static Object[][] catalog() {
+        return new Object[][] {
+                { 1L, MALE, "Labrador", 30 },
+                { 2L, FEMALE, "Beagle", 10 },
+                { 3L, FEMALE, "Labrador", 25 },
+                { 4L, MALE, null, 5 } };
+    }
+
+    private static PetFacetIndex built(PetStore store) throws InterruptedException {
+        PetFacetIndex index = new PetFacetIndex(store);
+        index.buildInBackground();
+        awaitBuilt(index);
+        return index;
+    }
+
+    private static void awaitBuilt(PetFacetIndex index) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!index.isBuilt() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("The index was not built", index.isBuilt());
+    }
+
+    /**
+     * Store of the facets of pets kept in memory. It only understands the selections of the
+     * index: all the pets, {@code _id IN (...)} and {@code _id > ?}.
+     */
+    private static class FakeStore implements PetStore {
+
+        private static final String[] COLUMNS = {
+                PetEntry._ID,
+                PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_WEIGHT };
+
+        /** Number of queries reading pets by ID */
+        final AtomicInteger readsAgain = new AtomicInteger();
+
+        private final Map<Long, Object[]> mPets = new TreeMap<Long, Object[]>();
+
+        FakeStore(Object[][] pets) {
+            for (Object[] pet : pets) {
+                mPets.put((Long) pet[0], pet);
+            }
+        }
+
+        synchronized void put(long id, int gender, String breed, int weight) {
+            mPets.put(id, new Object[] { id, gender, breed, weight });
+        }
+
+        synchronized void remove(long id) {
+            mPets.remove(id);
+        }
+
+        /** Called with the result of a scan of all the pets, before it is returned */
+        Cursor scan(MatrixCursor pets) {
+            return pets;
+        }
+
+        /** Called with the result of a query of pets by ID, before it is returned */
+        Cursor readAgain(MatrixCursor pets) {
+            return pets;
+        }
+
+        @Override
+        public Cursor query(String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder, CancellationSignal cancellationSignal) {
+            assertArrayEquals(COLUMNS, projection);
+            MatrixCursor cursor = new MatrixCursor(COLUMNS);
+            synchronized (this) {
+                for (Object[] pet : mPets.values()) {
+                    if (matches((Long) pet[0], selection, selectionArgs)) {
+                        cursor.addRow(pet);
+                    }
+                }
+            }
+            if (selection == null) {
+                return scan(cursor);
+            }
+            if (selection.contains(" IN ")) {
+                readsAgain.incrementAndGet();
+                return readAgain(cursor);
+            }
+            return cursor;
+        }
+
+        private static boolean matches(long id, String selection, String[] selectionArgs) {
+            if (selection == null) {
+                return true;
+            }
+            if (selection.equals(PetEntry._ID + " > ?")) {
+                return id > Long.parseLong(selectionArgs[0]);
+            }
+            List<String> ids = new ArrayList<String>(Arrays.asList(selectionArgs));
+            return ids.contains(String.valueOf(id));
+        }
+
+        @Override
+        public long insert(ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int insertAll(ContentValues[] values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(ContentValues values, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long count(String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
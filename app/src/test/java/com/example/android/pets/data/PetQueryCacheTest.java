@@ -0,0 +1,115 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.QueryCacheStats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the {@link PetQueryCache} only serves results of the current write generation and
+ * keeps the most recently used ones within its budget.
+ *
+ * Every result has one integer column, which the cache estimates at 48 bytes per row: with a
+ * budget of 1000 bytes, results of up to 5 rows are cached, 5 results of 4 rows fit together.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetQueryCacheTest {
+
+    private static final long MAX_BYTES = 1000;
+
+    private final PetQueryCache mCache = new PetQueryCache(MAX_BYTES);
+
+    @Test
+    public void hitReturnsTheCachedRows() {
+        mCache.put(key("a"), 1, result(4)).close();
+
+        Cursor cursor = mCache.get(key("a"), 1);
+        assertNotNull(cursor);
+        assertEquals(4, cursor.getCount());
+        for (int row = 0; cursor.moveToNext(); row++) {
+            assertEquals(row, cursor.getLong(0));
+        }
+        assertEquals(1, stat(QueryCacheStats.HITS));
+    }
+
+    @Test
+    public void writeInvalidatesEveryEntry() {
+        mCache.put(key("a"), 1, result(4)).close();
+        mCache.put(key("b"), 1, result(4)).close();
+
+        assertNull(mCache.get(key("a"), 2));
+        assertEquals(1, stat(QueryCacheStats.STALE));
+
+        // O primeiro resultado da nova geração descarta os demais
+        mCache.put(key("c"), 2, result(4)).close();
+        assertEquals(2, stat(QueryCacheStats.STALE));
+        assertEquals(1, stat(QueryCacheStats.ENTRIES));
+        assertNull(mCache.get(key("b"), 2));
+    }
+
+    @Test
+    public void resultReadBeforeTheLatestWriteIsNotCached() {
+        mCache.put(key("a"), 2, result(4)).close();
+        mCache.put(key("b"), 1, result(4)).close();
+
+        assertEquals(1, stat(QueryCacheStats.ENTRIES));
+        assertNull(mCache.get(key("b"), 2));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedFirst() {
+        for (String query : new String[] { "a", "b", "c", "d", "e" }) {
+            mCache.put(key(query), 1, result(4)).close();
+        }
+        assertEquals(0, stat(QueryCacheStats.EVICTIONS));
+        mCache.get(key("a"), 1).close();
+
+        mCache.put(key("f"), 1, result(4)).close();
+        assertEquals(1, stat(QueryCacheStats.EVICTIONS));
+        assertNull(mCache.get(key("b"), 1));
+        assertNotNull(mCache.get(key("a"), 1));
+        assertNotNull(mCache.get(key("f"), 1));
+    }
+
+    @Test
+    public void resultOverTheEntryBudgetIsReturnedUncached() {
+        Cursor result = result(6);
+        Cursor cursor = mCache.put(key("a"), 1, result);
+
+        assertSame(result, cursor);
+        assertEquals(-1, cursor.getPosition());
+        assertEquals(1, stat(QueryCacheStats.UNCACHEABLE));
+        assertEquals(0, stat(QueryCacheStats.ENTRIES));
+    }
+
+    private static PetQueryCache.Key key(String name) {
+        return new PetQueryCache.Key(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                PetEntry.COLUMN_PET_NAME + "=?", new String[] { name }, null);
+    }
+
+    private static Cursor result(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { PetEntry._ID });
+        for (long id = 0; id < rows; id++) {
+            cursor.addRow(new Object[] { id });
+        }
+        return cursor;
+    }
+
+    private long stat(String key) {
+        // Os contadores são long, exceto o número de entradas
+        return ((Number) mCache.getStats().get(key)).longValue();
+    }
+}